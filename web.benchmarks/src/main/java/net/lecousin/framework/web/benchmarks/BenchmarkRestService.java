@@ -0,0 +1,44 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.lecousin.framework.web.services.rest.REST;
+
+/** REST service used by the benchmarks. */
+@REST.Resource(type=REST.ResourceType.INDIVIDUAL, path="item")
+public class BenchmarkRestService implements REST {
+
+	/** Item returned by the service. */
+	public static class Item {
+		public long id;
+		public String name;
+		public boolean active;
+		public List<String> tags = new ArrayList<>();
+	}
+	
+	/** Response with a list of items. */
+	public static class Items {
+		public List<Item> items = new ArrayList<>();
+	}
+	
+	private static final Items items = new Items();
+	
+	static {
+		for (int i = 0; i < 20; ++i) {
+			Item item = new Item();
+			item.id = i;
+			item.name = "Item number " + i;
+			item.active = (i % 2) == 0;
+			item.tags.add("tag" + i);
+			item.tags.add("benchmark");
+			items.items.add(item);
+		}
+	}
+	
+	@REST.GetResource
+	public Items get() {
+		return items;
+	}
+	
+}
@@ -0,0 +1,31 @@
+package net.lecousin.framework.web.benchmarks;
+
+import net.lecousin.framework.web.services.WebService;
+import net.lecousin.framework.web.services.soap.SOAP;
+
+/** SOAP service used by the benchmarks. */
+@SOAP.Service(
+	defaultPath="soap",
+	targetNamespace="http://benchmark"
+)
+public class BenchmarkSoapService implements SOAP {
+
+	/** Request. */
+	public static class EchoRequest {
+		public String name;
+		public int count;
+	}
+	
+	/** Response. */
+	public static class EchoResponse {
+		public String message;
+	}
+	
+	@SOAP.Operation
+	public EchoResponse echo(@WebService.Body EchoRequest request) {
+		EchoResponse response = new EchoResponse();
+		response.message = request.name + " x" + request.count;
+		return response;
+	}
+	
+}
@@ -0,0 +1,87 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.nio.ByteBuffer;
+
+import net.lecousin.framework.application.Application;
+import net.lecousin.framework.application.Artifact;
+import net.lecousin.framework.application.Version;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.network.http.HTTPRequest;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.server.HTTPServerResponse;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestProcessor;
+
+/** Utilities shared by the benchmarks. */
+public final class BenchmarkSupport {
+	
+	private BenchmarkSupport() {
+		/* no instance */
+	}
+
+	private static boolean started = false;
+
+	/** Start the framework if not yet done. */
+	public static synchronized void init() throws Exception {
+		if (started) return;
+		Application.start(new Artifact("net.lecousin.framework", "web.benchmarks", new Version("0.1.0")), false).blockThrow(0);
+		started = true;
+	}
+	
+	/** Create a GET request on the given path, coming from the given client. */
+	public static WebRequest request(StubRemote client, String host, String path) {
+		HTTPRequest request = new HTTPRequest(Method.GET, path);
+		request.getMIME().addHeaderRaw(HTTPRequest.HEADER_HOST, host);
+		return new WebRequest(client, request, new HTTPServerResponse(), false, null);
+	}
+	
+	/** Read the body of the response until its end, and return the number of bytes read. */
+	public static int consumeResponse(WebRequest request) throws Exception {
+		IO.Readable body = request.getResponse().getMIME().getBodyToSend();
+		if (body == null) return 0;
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		int total = 0;
+		int nb;
+		while ((nb = body.readSync(buffer)) > 0) {
+			total += nb;
+			buffer.clear();
+		}
+		body.close();
+		return total;
+	}
+	
+	/** Processor answering immediately, whose routing can be cached. */
+	public static class DoneProcessor implements WebRequestProcessor {
+		
+		private WebRequestProcessor parent;
+		
+		@Override
+		public WebRequestProcessor getParent() {
+			return parent;
+		}
+		
+		@Override
+		public void setParent(WebRequestProcessor parent) {
+			this.parent = parent;
+		}
+		
+		@Override
+		public Object checkProcessing(WebRequest request) {
+			return Boolean.TRUE;
+		}
+		
+		@Override
+		public boolean isRoutingCacheable(WebRequest request) {
+			return true;
+		}
+		
+		@Override
+		public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
+			request.getResponse().setStatus(200, "OK");
+			return new SynchronizationPoint<>(true);
+		}
+	}
+	
+}
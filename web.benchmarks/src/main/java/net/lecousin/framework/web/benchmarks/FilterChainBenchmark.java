@@ -0,0 +1,98 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/**
+ * Processing of a request through a bundle with filters answering immediately, like most of the filters
+ * (cache, authentication from a header or the query...).
+ * <p>
+ * The counter <i>hops</i> gives the number of tasks started to continue the processing, so hops per request
+ * is <code>hops / requests</code>. Running with maxInlineFilters=0 gives the behavior before the fast path
+ * (one task per filter), a positive value gives the behavior with the fast path.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterChainBenchmark {
+
+	@Param({"0", "16"})
+	public int maxInlineFilters;
+	
+	@Param({"6"})
+	public int preFilters;
+	
+	@Param({"1"})
+	public int postFilters;
+	
+	private CountingBundle bundle;
+	private StubRemote client;
+	
+	/** Bundle counting the tasks started to continue the processing. */
+	public static class CountingBundle extends WebResourcesBundle {
+		private AtomicLong hops = new AtomicLong();
+		
+		@Override
+		protected void continueInTask(String description, byte priority, Runnable continuation) {
+			hops.incrementAndGet();
+			super.continueInTask(description, priority, continuation);
+		}
+	}
+	
+	/** Counters reported by JMH. */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Hops {
+		public long requests;
+		public long hops;
+	}
+	
+	private static final WebRequestFilter doneFilter =
+		(request) -> new AsyncWork<>(WebRequestFilter.FilterResult.CONTINUE_PROCESSING, null);
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		bundle = new CountingBundle();
+		bundle.setMaxInlineFilters(maxInlineFilters);
+		for (int i = 0; i < preFilters; ++i)
+			bundle.addPreProcessor(doneFilter);
+		for (int i = 0; i < postFilters; ++i)
+			bundle.addPostProcessor(doneFilter);
+		bundle.addProcessor("", new BenchmarkSupport.DoneProcessor());
+		client = new StubRemote();
+	}
+	
+	@Benchmark
+	public void process(Hops counters) throws Exception {
+		WebRequest request = BenchmarkSupport.request(client, "localhost", "/test/resource");
+		long before = bundle.hops.get();
+		bundle.process(bundle.checkProcessing(request), request).blockThrow(0);
+		counters.requests++;
+		counters.hops += bundle.hops.get() - before;
+	}
+	
+}
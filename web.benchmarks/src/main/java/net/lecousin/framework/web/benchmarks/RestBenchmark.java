@@ -0,0 +1,48 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/** Dispatch of a GET request to a REST service, and JSON serialization of its result (20 items). */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestBenchmark {
+
+	private WebResourcesBundle bundle;
+	private StubRemote client;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		bundle = new WebResourcesBundle();
+		bundle.addService(null, new BenchmarkRestService());
+		client = new StubRemote();
+	}
+	
+	@Benchmark
+	public int getAndSerialize() throws Exception {
+		WebRequest request = BenchmarkSupport.request(client, "localhost", "/item");
+		request.getRequest().getMIME().setHeaderRaw("Accept", "application/json");
+		bundle.process(bundle.checkProcessing(request), request).blockThrow(0);
+		return BenchmarkSupport.consumeResponse(request);
+	}
+	
+}
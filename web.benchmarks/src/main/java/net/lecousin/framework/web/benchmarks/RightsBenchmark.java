@@ -0,0 +1,74 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.web.security.AuthenticatedUser;
+import net.lecousin.framework.web.security.IAuthentication;
+import net.lecousin.framework.web.security.RightsManager;
+
+/**
+ * RightsManager.hasRole on a role graph: each role of a level implies all the roles of the next level,
+ * and the user has a single role at the top.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RightsBenchmark {
+
+	/** Number of levels in the graph. */
+	@Param({"4", "16"})
+	public int depth;
+	
+	/** Number of roles per level. */
+	@Param({"1", "8"})
+	public int width;
+	
+	private RightsManager rights;
+	private IAuthentication user;
+	private String deepestRole;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		rights = new RightsManager();
+		rights.declareRole("top");
+		for (int level = 0; level < depth; ++level)
+			for (int i = 0; i < width; ++i)
+				rights.declareRole("role_" + level + "_" + i);
+		for (int i = 0; i < width; ++i)
+			rights.roleImply("top", "role_0_" + i);
+		for (int level = 0; level < depth - 1; ++level)
+			for (int i = 0; i < width; ++i)
+				for (int j = 0; j < width; ++j)
+					rights.roleImply("role_" + level + "_" + i, "role_" + (level + 1) + "_" + j);
+		user = new AuthenticatedUser("user", false, Collections.singletonList("top"), null, null);
+		deepestRole = "role_" + (depth - 1) + "_" + (width - 1);
+	}
+	
+	@Benchmark
+	public boolean deepestRole() {
+		return rights.hasRole(user, deepestRole);
+	}
+	
+	@Benchmark
+	public boolean missingRole() {
+		return rights.hasRole(user, "unknown");
+	}
+	
+}
@@ -0,0 +1,96 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebRequestRouter;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/**
+ * Route resolution, without processing.
+ * <ul>
+ * <li>bundle: a bundle with the given number of processors, each on its own path</li>
+ * <li>router: a router with the given number of virtual hosts, each with its own route,
+ *     for each router mode</li>
+ * </ul>
+ * The requested route is the last declared one, which is the worst case for a linear search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int routes;
+	
+	private WebResourcesBundle bundle;
+	private StubRemote client;
+	private String bundlePath;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		client = new StubRemote();
+		bundle = new WebResourcesBundle();
+		for (int i = 0; i < routes; ++i)
+			bundle.addProcessor("resource" + i + "/", new BenchmarkSupport.DoneProcessor());
+		bundlePath = "/resource" + (routes - 1) + "/item";
+	}
+	
+	/** Router state, only used by the router benchmark so the bundle one is not run for each router mode. */
+	@State(Scope.Benchmark)
+	public static class RouterState {
+		
+		/** Router mode: linear, indexed, or cached (indexed with the routing cache). */
+		@Param({"linear", "indexed", "cached"})
+		public String routerMode;
+		
+		private WebRequestRouter router;
+		private String routerHost;
+		
+		@Setup(Level.Trial)
+		public void setup(RoutingBenchmark benchmark) {
+			router = new WebRequestRouter();
+			for (int i = 0; i < benchmark.routes; ++i) {
+				WebRequestRouter.Configuration cfg = new WebRequestRouter.Configuration();
+				cfg.hostnames = new ArrayList<>(Collections.singletonList("host" + i + ".example.com"));
+				cfg.processorByPath = new ArrayList<>();
+				cfg.processorByPath.add(new Pair<String, WebRequestProcessor>("", new BenchmarkSupport.DoneProcessor()));
+				router.addConfiguration(cfg);
+			}
+			router.setIndexed(!"linear".equals(routerMode));
+			router.setCacheSize("cached".equals(routerMode) ? 1024 : 0);
+			routerHost = "host" + (benchmark.routes - 1) + ".example.com";
+		}
+	}
+	
+	@Benchmark
+	public Object bundle() {
+		return bundle.checkProcessing(BenchmarkSupport.request(client, "localhost", bundlePath));
+	}
+	
+	@Benchmark
+	public Object router(RouterState state) {
+		return state.router.checkProcessing(BenchmarkSupport.request(client, state.routerHost, "/resource/item"));
+	}
+	
+}
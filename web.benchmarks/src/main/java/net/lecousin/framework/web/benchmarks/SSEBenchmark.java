@@ -0,0 +1,50 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.sse.SSEProcessor;
+
+/** Fan-out of a message by a SSEProcessor to in-process clients. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SSEBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int clients;
+	
+	private SSEProcessor sse;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		sse = new SSEProcessor();
+		for (int i = 0; i < clients; ++i) {
+			WebRequest request = BenchmarkSupport.request(new StubRemote(), "localhost", "/events");
+			sse.process(Boolean.TRUE, request).block(0);
+		}
+	}
+	
+	@Benchmark
+	public void sendMessage() {
+		sse.sendMessage("1", "update", "{\"value\":42,\"text\":\"benchmark message\"}").block(0);
+	}
+	
+}
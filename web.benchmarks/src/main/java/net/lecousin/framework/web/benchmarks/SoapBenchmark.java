@@ -0,0 +1,67 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.io.buffering.ByteArrayIO;
+import net.lecousin.framework.network.http.HTTPRequest;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.server.HTTPServerResponse;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/** Parsing of a SOAP envelope, call of the operation and generation of the response envelope. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SoapBenchmark {
+
+	private static final byte[] ENVELOPE = (
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+		+ "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+		+ "<soap:Header/>"
+		+ "<soap:Body>"
+		+ "<b:EchoRequest xmlns:b=\"http://benchmark\"><name>benchmark</name><count>42</count></b:EchoRequest>"
+		+ "</soap:Body>"
+		+ "</soap:Envelope>"
+	).getBytes(StandardCharsets.UTF_8);
+	
+	private WebResourcesBundle bundle;
+	private StubRemote client;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		bundle = new WebResourcesBundle();
+		bundle.addService(null, new BenchmarkSoapService());
+		client = new StubRemote();
+	}
+	
+	@Benchmark
+	public int echo() throws Exception {
+		HTTPRequest http = new HTTPRequest(Method.POST, "/soap");
+		http.getMIME().addHeaderRaw(HTTPRequest.HEADER_HOST, "localhost");
+		http.getMIME().addHeaderRaw("Content-Type", "text/xml; charset=utf-8");
+		http.getMIME().addHeaderRaw("SOAPAction", "echo");
+		http.getMIME().setBodyReceived(new ByteArrayIO(ENVELOPE, "SOAP request"));
+		WebRequest request = new WebRequest(client, http, new HTTPServerResponse(), false, null);
+		bundle.process(bundle.checkProcessing(request), request).blockThrow(0);
+		return BenchmarkSupport.consumeResponse(request);
+	}
+	
+}
@@ -0,0 +1,62 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.network.TCPRemote;
+import net.lecousin.framework.util.Provider;
+
+/** In-process client, discarding any data sent, so requests can be processed without network. */
+public class StubRemote implements TCPRemote {
+
+	public StubRemote() {
+		this(new InetSocketAddress("127.0.0.1", 80), new InetSocketAddress("127.0.0.1", 50000));
+	}
+	
+	public StubRemote(InetSocketAddress local, InetSocketAddress remote) {
+		this.local = local;
+		this.remote = remote;
+	}
+	
+	private InetSocketAddress local;
+	private InetSocketAddress remote;
+	
+	@Override
+	public SocketAddress getLocalAddress() {
+		return local;
+	}
+
+	@Override
+	public SocketAddress getRemoteAddress() {
+		return remote;
+	}
+
+	@Override
+	public ISynchronizationPoint<IOException> send(ByteBuffer data) {
+		data.position(data.limit());
+		return new SynchronizationPoint<>(true);
+	}
+
+	@Override
+	public void newDataToSendWhenPossible(Provider<ByteBuffer> dataProvider, SynchronizationPoint<IOException> sp) {
+		ByteBuffer data = dataProvider.provide();
+		if (data != null)
+			data.position(data.limit());
+		sp.unblock();
+	}
+
+	@Override
+	public void onclosed(Runnable listener) {
+		// never closed
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+
+}
@@ -0,0 +1,67 @@
+package net.lecousin.framework.web.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/**
+ * Creation of a WebRequest, and routing through nested bundles.
+ * <p>
+ * The allocations per request are given by the GC profiler:
+ * <code>java -jar benchmarks.jar WebRequestBenchmark -prof gc</code>, looking at <i>gc.alloc.rate.norm</i>
+ * (bytes per operation).
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebRequestBenchmark {
+
+	/** A path without encoded character, and a path which needs to be decoded. */
+	@Param({"/api/v1/users/12", "/api/v1/users/a%20b"})
+	public String path;
+	
+	private WebResourcesBundle bundle;
+	private StubRemote client;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkSupport.init();
+		WebResourcesBundle v1 = new WebResourcesBundle();
+		v1.addProcessor("users/", new BenchmarkSupport.DoneProcessor());
+		WebResourcesBundle api = new WebResourcesBundle();
+		api.addProcessor("v1/", v1);
+		bundle = new WebResourcesBundle();
+		bundle.addProcessor("api/", api);
+		client = new StubRemote();
+	}
+	
+	@Benchmark
+	public Object create() {
+		return BenchmarkSupport.request(client, "localhost", path);
+	}
+	
+	@Benchmark
+	public Object createAndRoute() {
+		WebRequest request = BenchmarkSupport.request(client, "localhost", path);
+		return bundle.checkProcessing(request);
+	}
+	
+}
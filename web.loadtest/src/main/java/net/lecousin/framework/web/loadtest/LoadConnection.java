@@ -0,0 +1,268 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * A keep-alive connection sending requests at a fixed rate, one at a time.
+ * <p>
+ * Each request has an intended start time, given by the rate. If the previous response arrives late,
+ * the next request is sent immediately, but its latency is still measured from its intended start time,
+ * so the time the request would have waited behind a stalled server is not omitted from the results
+ * (coordinated omission correction). The latency measured from the actual send time is recorded separately.
+ * </p>
+ */
+public class LoadConnection extends Thread {
+
+	/** Highest latency that can be recorded, in microseconds. */
+	public static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(5);
+	
+	/** Constructor. */
+	public LoadConnection(
+		int index, InetSocketAddress address, RequestMix mix,
+		long startNanos, long intervalNanos, long recordStartNanos, long endNanos
+	) {
+		super("Load test connection " + index);
+		setDaemon(true);
+		this.address = address;
+		this.mix = mix;
+		this.startNanos = startNanos;
+		this.intervalNanos = intervalNanos;
+		this.recordStartNanos = recordStartNanos;
+		this.endNanos = endNanos;
+		corrected = new Histogram[mix.getTemplates().size()];
+		uncorrected = new Histogram[corrected.length];
+		for (int i = 0; i < corrected.length; ++i) {
+			corrected[i] = new Histogram(HIGHEST_LATENCY, 3);
+			uncorrected[i] = new Histogram(HIGHEST_LATENCY, 3);
+		}
+	}
+	
+	private InetSocketAddress address;
+	private RequestMix mix;
+	private long startNanos;
+	private long intervalNanos;
+	private long recordStartNanos;
+	private long endNanos;
+	
+	private Histogram[] corrected;
+	private Histogram[] uncorrected;
+	private long errors = 0;
+	private long connects = 0;
+	private Exception lastError = null;
+	private boolean recorded = false;
+	private long firstSendNanos;
+	private long lastResponseNanos;
+	
+	private Socket socket = null;
+	private InputStream in;
+	private OutputStream out;
+	
+	/** Latencies from the intended start time, by type of request. */
+	public Histogram[] getCorrected() {
+		return corrected;
+	}
+	
+	/** Latencies from the actual send time, by type of request. */
+	public Histogram[] getUncorrected() {
+		return uncorrected;
+	}
+	
+	/** Number of failed requests, including responses with an error status code. */
+	public long getErrors() {
+		return errors;
+	}
+	
+	/** Number of times the connection has been opened. */
+	public long getConnects() {
+		return connects;
+	}
+	
+	public Exception getLastError() {
+		return lastError;
+	}
+	
+	/** Return true if at least one request has been sent after the warmup. */
+	public boolean hasRecorded() {
+		return recorded;
+	}
+	
+	/** Time the first recorded request has been sent. */
+	public long getFirstSendNanos() {
+		return firstSendNanos;
+	}
+	
+	/** Time the response of the last recorded request has been received. */
+	public long getLastResponseNanos() {
+		return lastResponseNanos;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			for (long k = 0; ; ++k) {
+				long intended = startNanos + k * intervalNanos;
+				if (intended >= endNanos) break;
+				long now = System.nanoTime();
+				while (now < intended) {
+					LockSupport.parkNanos(intended - now);
+					now = System.nanoTime();
+				}
+				RequestMix.Template template = mix.next();
+				boolean success;
+				try {
+					if (socket == null) connect();
+					now = System.nanoTime();
+					out.write(template.request);
+					out.flush();
+					success = readResponse();
+				} catch (IOException e) {
+					lastError = e;
+					success = false;
+					disconnect();
+				}
+				long end = System.nanoTime();
+				if (intended < recordStartNanos) continue;
+				if (!recorded) {
+					recorded = true;
+					firstSendNanos = now;
+				}
+				lastResponseNanos = end;
+				if (!success) {
+					errors++;
+					continue;
+				}
+				corrected[template.index].recordValue(Math.min(HIGHEST_LATENCY, (end - intended) / 1000));
+				uncorrected[template.index].recordValue(Math.min(HIGHEST_LATENCY, (end - now) / 1000));
+			}
+		} finally {
+			disconnect();
+		}
+	}
+	
+	private void connect() throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(address, 10000);
+		in = new BufferedInputStream(socket.getInputStream(), 16384);
+		out = socket.getOutputStream();
+		connects++;
+	}
+	
+	private void disconnect() {
+		if (socket == null) return;
+		try { socket.close(); }
+		catch (IOException e) {
+			// ignore
+		}
+		socket = null;
+	}
+	
+	/** Read a response, return true if its status code is a success. */
+	private boolean readResponse() throws IOException {
+		String statusLine = HTTPReader.readLine(in);
+		int status = HTTPReader.parseStatus(statusLine);
+		HTTPReader.Headers headers = HTTPReader.readHeaders(in);
+		if (headers.chunked)
+			HTTPReader.skipChunked(in);
+		else if (headers.contentLength >= 0)
+			HTTPReader.skip(in, headers.contentLength);
+		else if (status != 204 && status != 304) {
+			// no length: the body ends with the connection
+			while (in.read() >= 0) { /* skip */ }
+			disconnect();
+		}
+		if (headers.close)
+			disconnect();
+		return status >= 200 && status < 400;
+	}
+	
+	/** Minimal HTTP/1.1 response parsing. */
+	static final class HTTPReader {
+		
+		private HTTPReader() {
+			/* no instance */
+		}
+		
+		static final class Headers {
+			long contentLength = -1;
+			boolean chunked = false;
+			boolean close = false;
+		}
+		
+		static String readLine(InputStream in) throws IOException {
+			StringBuilder s = new StringBuilder(64);
+			int c;
+			while ((c = in.read()) != '\n') {
+				if (c < 0) throw new EOFException("Connection closed by the server");
+				if (c != '\r') s.append((char)c);
+			}
+			return s.toString();
+		}
+		
+		static int parseStatus(String statusLine) throws IOException {
+			int i = statusLine.indexOf(' ');
+			if (!statusLine.startsWith("HTTP/") || i < 0 || statusLine.length() < i + 4)
+				throw new IOException("Invalid status line: " + statusLine);
+			try {
+				return Integer.parseInt(statusLine.substring(i + 1, i + 4));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid status line: " + statusLine);
+			}
+		}
+		
+		static Headers readHeaders(InputStream in) throws IOException {
+			Headers headers = new Headers();
+			String line;
+			while (!(line = readLine(in)).isEmpty()) {
+				int i = line.indexOf(':');
+				if (i < 0) continue;
+				String name = line.substring(0, i).trim();
+				String value = line.substring(i + 1).trim();
+				if ("Content-Length".equalsIgnoreCase(name))
+					headers.contentLength = Long.parseLong(value);
+				else if ("Transfer-Encoding".equalsIgnoreCase(name))
+					headers.chunked = value.toLowerCase().contains("chunked");
+				else if ("Connection".equalsIgnoreCase(name))
+					headers.close = "close".equalsIgnoreCase(value);
+			}
+			return headers;
+		}
+		
+		static void skip(InputStream in, long size) throws IOException {
+			while (size > 0) {
+				long n = in.skip(size);
+				if (n <= 0) {
+					if (in.read() < 0) throw new EOFException("Connection closed by the server");
+					n = 1;
+				}
+				size -= n;
+			}
+		}
+		
+		static void skipChunked(InputStream in) throws IOException {
+			do {
+				String line = readLine(in);
+				int i = line.indexOf(';');
+				if (i >= 0) line = line.substring(0, i);
+				long size = Long.parseLong(line.trim(), 16);
+				if (size == 0) break;
+				skip(in, size);
+				readLine(in);
+			} while (true);
+			// trailers
+			while (!readLine(in).isEmpty()) { /* skip */ }
+		}
+		
+	}
+	
+}
@@ -0,0 +1,167 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import net.lecousin.framework.application.Application;
+import net.lecousin.framework.application.Artifact;
+import net.lecousin.framework.application.Version;
+
+/**
+ * End-to-end load test of a WebServer on the loopback interface.
+ * <p>
+ * A {@link LoadTestServer} is started in this JVM, then the configured number of keep-alive connections
+ * send a mix of requests at a fixed total rate (see {@link LoadTestConfig} for the options).
+ * After the warmup, latencies are recorded until the end of the test, and a report is printed
+ * with the throughput and the latency percentiles, overall and by type of request.
+ * </p>
+ * <p>
+ * Usage: <code>java -jar web.loadtest/target/loadtest.jar --connections=16 --rate=2000 --duration=30 --sse=10</code>
+ * </p>
+ */
+public final class LoadTest {
+
+	private LoadTest() {
+		/* no instance */
+	}
+	
+	/** Entry point. */
+	public static void main(String[] args) {
+		int exitCode;
+		try {
+			LoadTestConfig config = LoadTestConfig.parse(args);
+			Application.start(new Artifact("net.lecousin.framework", "web.loadtest", new Version("0.1.0")), false).blockThrow(0);
+			exitCode = run(config, System.out) ? 0 : 1;
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			exitCode = 2;
+		}
+		System.exit(exitCode);
+	}
+	
+	/** Run the load test, print the report, and return false if some requests failed. */
+	public static boolean run(LoadTestConfig config, PrintStream output) throws Exception {
+		String host = "localhost";
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", config.port);
+		RequestMix mix = new RequestMix(config.mix, host);
+		try (LoadTestServer server = new LoadTestServer(config.port)) {
+			long intervalNanos = TimeUnit.SECONDS.toNanos(config.connections) / config.rate;
+			long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+			long recordStartNanos = startNanos + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+			long endNanos = recordStartNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+			
+			List<SSESubscriber> subscribers = new ArrayList<>(config.sseSubscriptions);
+			for (int i = 0; i < config.sseSubscriptions; ++i) {
+				SSESubscriber subscriber = new SSESubscriber(i, address, host, recordStartNanos);
+				subscribers.add(subscriber);
+				subscriber.start();
+			}
+			if (config.sseSubscriptions > 0)
+				server.startPublishing(config.sseIntervalMillis);
+			
+			List<LoadConnection> connections = new ArrayList<>(config.connections);
+			for (int i = 0; i < config.connections; ++i) {
+				// spread the connections over the interval, so the requests are evenly distributed
+				LoadConnection c = new LoadConnection(
+					i, address, mix, startNanos + i * intervalNanos / config.connections, intervalNanos, recordStartNanos, endNanos
+				);
+				connections.add(c);
+				c.start();
+			}
+			for (LoadConnection c : connections)
+				c.join();
+			for (SSESubscriber s : subscribers)
+				s.close();
+			for (SSESubscriber s : subscribers)
+				s.join(5000);
+			
+			return report(config, mix, connections, subscribers, output);
+		}
+	}
+	
+	private static boolean report(
+		LoadTestConfig config, RequestMix mix, List<LoadConnection> connections, List<SSESubscriber> subscribers, PrintStream out
+	) {
+		int types = mix.getTemplates().size();
+		Histogram[] corrected = new Histogram[types];
+		Histogram[] uncorrected = new Histogram[types];
+		for (int i = 0; i < types; ++i) {
+			corrected[i] = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+			uncorrected[i] = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+		}
+		Histogram allCorrected = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+		Histogram allUncorrected = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+		long errors = 0;
+		long connects = 0;
+		Exception lastError = null;
+		long firstSend = 0;
+		long lastResponse = 0;
+		boolean recorded = false;
+		for (LoadConnection c : connections) {
+			for (int i = 0; i < types; ++i) {
+				corrected[i].add(c.getCorrected()[i]);
+				uncorrected[i].add(c.getUncorrected()[i]);
+				allCorrected.add(c.getCorrected()[i]);
+				allUncorrected.add(c.getUncorrected()[i]);
+			}
+			errors += c.getErrors();
+			connects += c.getConnects();
+			if (c.getLastError() != null) lastError = c.getLastError();
+			if (c.hasRecorded()) {
+				// nanoTime values must be compared by difference
+				if (!recorded || c.getFirstSendNanos() - firstSend < 0) firstSend = c.getFirstSendNanos();
+				if (!recorded || c.getLastResponseNanos() - lastResponse > 0) lastResponse = c.getLastResponseNanos();
+				recorded = true;
+			}
+		}
+		long total = allCorrected.getTotalCount();
+		// throughput over the measured time, as late responses may extend the test beyond its duration
+		double elapsed = recorded && lastResponse - firstSend > 0
+			? (lastResponse - firstSend) / 1000000000d : config.durationSeconds;
+		out.println("Load test: " + config.connections + " connections, target " + config.rate + " req/s, "
+			+ config.durationSeconds + "s after " + config.warmupSeconds + "s of warmup");
+		out.println(String.format("Requests: %d succeeded, %d failed, %.1f req/s, %d connections opened",
+			Long.valueOf(total), Long.valueOf(errors), Double.valueOf((total + errors) / elapsed),
+			Long.valueOf(connects)));
+		if (lastError != null)
+			out.println("Last error: " + lastError);
+		out.println();
+		out.println(String.format("%-24s %10s %10s %10s %10s %10s", "Latency (ms)", "count", "p50", "p99", "p999", "max"));
+		printLine(out, "all", allCorrected);
+		printLine(out, "all (uncorrected)", allUncorrected);
+		for (int i = 0; i < types; ++i) {
+			String name = mix.getTemplates().get(i).getName();
+			printLine(out, name, corrected[i]);
+			printLine(out, name + " (uncorrected)", uncorrected[i]);
+		}
+		if (!subscribers.isEmpty()) {
+			Histogram sse = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+			int failed = 0;
+			for (SSESubscriber s : subscribers) {
+				sse.add(s.getLatencies());
+				if (s.getError() != null) failed++;
+			}
+			printLine(out, "sse delivery", sse);
+			if (failed > 0) {
+				out.println(failed + " SSE subscription(s) failed");
+				errors += failed;
+			}
+		}
+		return errors == 0;
+	}
+	
+	private static void printLine(PrintStream out, String name, Histogram h) {
+		out.println(String.format("%-24s %10d %10.3f %10.3f %10.3f %10.3f",
+			name, Long.valueOf(h.getTotalCount()),
+			Double.valueOf(h.getValueAtPercentile(50) / 1000d),
+			Double.valueOf(h.getValueAtPercentile(99) / 1000d),
+			Double.valueOf(h.getValueAtPercentile(99.9) / 1000d),
+			Double.valueOf(h.getMaxValue() / 1000d)));
+	}
+	
+}
@@ -0,0 +1,75 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options of the load test, parsed from the command line arguments of the form <code>--name=value</code>.
+ * <ul>
+ * <li>port: port the WebServer listens to on 127.0.0.1, default is 18080</li>
+ * <li>connections: number of keep-alive connections sending requests, default is 16</li>
+ * <li>rate: total number of requests per second to send, default is 2000</li>
+ * <li>warmup: duration in seconds before to start recording, default is 5</li>
+ * <li>duration: duration in seconds of the recording, default is 30</li>
+ * <li>mix: weight of each type of request, default is <code>static:4,rest-get:3,rest-post:2,soap:1</code>,
+ * types are static, rest-get, rest-post and soap</li>
+ * <li>sse: number of server-sent events subscriptions, default is 0</li>
+ * <li>sse-interval: interval in milliseconds between 2 server-sent events, default is 100</li>
+ * </ul>
+ */
+public class LoadTestConfig {
+
+	public int port = 18080;
+	public int connections = 16;
+	public int rate = 2000;
+	public int warmupSeconds = 5;
+	public int durationSeconds = 30;
+	public Map<String, Integer> mix = parseMix("static:4,rest-get:3,rest-post:2,soap:1");
+	public int sseSubscriptions = 0;
+	public int sseIntervalMillis = 100;
+	
+	/** Parse the given command line arguments. */
+	public static LoadTestConfig parse(String[] args) {
+		LoadTestConfig config = new LoadTestConfig();
+		for (String arg : args) {
+			if (!arg.startsWith("--"))
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			int i = arg.indexOf('=');
+			if (i < 0)
+				throw new IllegalArgumentException("Missing value for argument: " + arg);
+			String name = arg.substring(2, i);
+			String value = arg.substring(i + 1);
+			switch (name) {
+			case "port": config.port = Integer.parseInt(value); break;
+			case "connections": config.connections = Integer.parseInt(value); break;
+			case "rate": config.rate = Integer.parseInt(value); break;
+			case "warmup": config.warmupSeconds = Integer.parseInt(value); break;
+			case "duration": config.durationSeconds = Integer.parseInt(value); break;
+			case "mix": config.mix = parseMix(value); break;
+			case "sse": config.sseSubscriptions = Integer.parseInt(value); break;
+			case "sse-interval": config.sseIntervalMillis = Integer.parseInt(value); break;
+			default: throw new IllegalArgumentException("Unknown argument: " + name);
+			}
+		}
+		if (config.connections <= 0)
+			throw new IllegalArgumentException("At least one connection is needed");
+		if (config.rate < config.connections)
+			throw new IllegalArgumentException("The rate must be at least one request per second per connection");
+		return config;
+	}
+	
+	private static Map<String, Integer> parseMix(String value) {
+		Map<String, Integer> mix = new LinkedHashMap<>();
+		for (String entry : value.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) continue;
+			int i = entry.indexOf(':');
+			if (i < 0)
+				mix.put(entry, Integer.valueOf(1));
+			else
+				mix.put(entry.substring(0, i).trim(), Integer.valueOf(entry.substring(i + 1).trim()));
+		}
+		return mix;
+	}
+	
+}
@@ -0,0 +1,61 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.lecousin.framework.web.services.WebService;
+import net.lecousin.framework.web.services.rest.REST;
+
+/** REST service used by the load test. */
+@REST.Resource(type=REST.ResourceType.INDIVIDUAL, path="items")
+public class LoadTestRestService implements REST {
+
+	/** Item. */
+	public static class Item {
+		public long id;
+		public String name;
+		public boolean active;
+	}
+	
+	/** List of items. */
+	public static class Items {
+		public List<Item> items = new ArrayList<>();
+	}
+	
+	/** Search criteria. */
+	public static class Search {
+		public String text;
+		public int max;
+	}
+	
+	private static final List<Item> all = new ArrayList<>();
+	
+	static {
+		for (int i = 0; i < 50; ++i) {
+			Item item = new Item();
+			item.id = i;
+			item.name = "Item " + i;
+			item.active = (i % 3) != 0;
+			all.add(item);
+		}
+	}
+	
+	@REST.GetResource
+	public Items get() {
+		Items items = new Items();
+		items.items.addAll(all.subList(0, 20));
+		return items;
+	}
+	
+	@REST.Method
+	public Items search(@WebService.Body Search search) {
+		Items items = new Items();
+		for (Item item : all) {
+			if (items.items.size() >= search.max) break;
+			if (search.text == null || item.name.toLowerCase().contains(search.text.toLowerCase()))
+				items.items.add(item);
+		}
+		return items;
+	}
+	
+}
@@ -0,0 +1,83 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.StaticResourcesProcessor;
+import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebRequestRouter;
+import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.sse.SSEProcessor;
+
+/**
+ * WebServer listening on 127.0.0.1, serving static files, a REST service, a SOAP service and server-sent events.
+ * When started with a positive interval, events are published periodically, with the time they are sent as data,
+ * so the subscribers can compute the delivery latency.
+ */
+public class LoadTestServer implements Closeable {
+
+	public static final String STATIC_PATH = "/static/";
+	public static final String SERVICES_PATH = "/services/";
+	public static final String EVENTS_PATH = "/events";
+	
+	/** Constructor. */
+	public LoadTestServer(int port) throws Exception {
+		WebResourcesBundle root = new WebResourcesBundle();
+		StaticResourcesProcessor statics = new StaticResourcesProcessor();
+		statics.setFromClassPath("loadtest/static");
+		statics.setDirectoryPages(Arrays.asList("index.html"));
+		root.addProcessor(STATIC_PATH.substring(1), statics);
+		WebResourcesBundle services = new WebResourcesBundle();
+		root.addProcessor(SERVICES_PATH.substring(1), services);
+		services.addService(null, new LoadTestRestService());
+		services.addService(null, new LoadTestSoapService());
+		sse = new SSEProcessor();
+		root.addProcessor(EVENTS_PATH.substring(1) + "/", sse);
+		
+		WebServerConfig config = new WebServerConfig();
+		config.listening.bind.add(new WebServerConfig.ListeningPort(new byte[] { 127, 0, 0, 1 }, port));
+		WebRequestRouter.Configuration route = new WebRequestRouter.Configuration();
+		route.processorByPath = new ArrayList<>();
+		route.processorByPath.add(new Pair<String, WebRequestProcessor>("", root));
+		config.routing.route.add(route);
+		server = new WebServer(null, null, false);
+		server.setConfiguration(config);
+		if (server.getLocalAddresses().isEmpty())
+			throw new Exception("Unable to listen on 127.0.0.1:" + port);
+	}
+	
+	private WebServer server;
+	private SSEProcessor sse;
+	private Thread publisher = null;
+	private volatile boolean closed = false;
+	
+	/** Start to publish an event every given milliseconds. */
+	public void startPublishing(long intervalMillis) {
+		publisher = new Thread("Load test SSE publisher") {
+			@Override
+			public void run() {
+				long id = 0;
+				while (!closed) {
+					sse.sendMessage(Long.toString(++id), "tick", Long.toString(System.nanoTime()));
+					try { Thread.sleep(intervalMillis); }
+					catch (InterruptedException e) { break; }
+				}
+			}
+		};
+		publisher.setDaemon(true);
+		publisher.start();
+	}
+	
+	@Override
+	public void close() {
+		closed = true;
+		if (publisher != null)
+			publisher.interrupt();
+		server.close();
+	}
+	
+}
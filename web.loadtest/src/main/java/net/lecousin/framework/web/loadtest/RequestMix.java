@@ -0,0 +1,114 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Weighted list of pre-serialized HTTP requests. */
+public class RequestMix {
+
+	/** A type of request. */
+	public static class Template {
+		private Template(int index, String name, byte[] request) {
+			this.index = index;
+			this.name = name;
+			this.request = request;
+		}
+		
+		final int index;
+		final String name;
+		final byte[] request;
+		
+		public String getName() {
+			return name;
+		}
+	}
+	
+	/** Create the mix from the weight of each type of request. */
+	public RequestMix(Map<String, Integer> weights, String host) {
+		int[] cumul = new int[weights.size()];
+		for (Map.Entry<String, Integer> e : weights.entrySet()) {
+			int weight = e.getValue().intValue();
+			if (weight <= 0) continue;
+			templates.add(new Template(templates.size(), e.getKey(), create(e.getKey(), host)));
+			totalWeight += weight;
+			cumul[templates.size() - 1] = totalWeight;
+		}
+		if (templates.isEmpty())
+			throw new IllegalArgumentException("The request mix is empty");
+		cumulativeWeights = new int[templates.size()];
+		System.arraycopy(cumul, 0, cumulativeWeights, 0, cumulativeWeights.length);
+	}
+	
+	private List<Template> templates = new ArrayList<>();
+	private int[] cumulativeWeights;
+	private int totalWeight = 0;
+	
+	public List<Template> getTemplates() {
+		return templates;
+	}
+	
+	/** Pick a request according to the weights. */
+	public Template next() {
+		int r = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (int i = 0; i < cumulativeWeights.length; ++i)
+			if (r < cumulativeWeights[i])
+				return templates.get(i);
+		return templates.get(templates.size() - 1);
+	}
+	
+	private static final String SOAP_ENVELOPE =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+		+ "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+		+ "<soap:Body>"
+		+ "<l:EchoRequest xmlns:l=\"http://loadtest\"><name>loadtest</name><count>42</count></l:EchoRequest>"
+		+ "</soap:Body>"
+		+ "</soap:Envelope>";
+	
+	private static final String SEARCH_BODY = "{\"text\":\"item\",\"max\":10}";
+	
+	private static byte[] create(String type, String host) {
+		switch (type) {
+		case "static":
+			return get(host, LoadTestServer.STATIC_PATH + "index.html", null);
+		case "rest-get":
+			return get(host, LoadTestServer.SERVICES_PATH + "items", "application/json");
+		case "rest-post":
+			return post(host, LoadTestServer.SERVICES_PATH + "items/search", "application/json", null, SEARCH_BODY);
+		case "soap":
+			return post(host, LoadTestServer.SERVICES_PATH + "soap", "text/xml; charset=utf-8", "echo", SOAP_ENVELOPE);
+		default:
+			throw new IllegalArgumentException("Unknown type of request: " + type);
+		}
+	}
+	
+	private static byte[] get(String host, String path, String accept) {
+		StringBuilder s = new StringBuilder(256);
+		s.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		s.append("Host: ").append(host).append("\r\n");
+		if (accept != null)
+			s.append("Accept: ").append(accept).append("\r\n");
+		s.append("Connection: keep-alive\r\n\r\n");
+		return s.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	private static byte[] post(String host, String path, String contentType, String soapAction, String body) {
+		byte[] content = body.getBytes(StandardCharsets.UTF_8);
+		StringBuilder s = new StringBuilder(256);
+		s.append("POST ").append(path).append(" HTTP/1.1\r\n");
+		s.append("Host: ").append(host).append("\r\n");
+		s.append("Content-Type: ").append(contentType).append("\r\n");
+		s.append("Content-Length: ").append(content.length).append("\r\n");
+		if (soapAction != null)
+			s.append("SOAPAction: ").append(soapAction).append("\r\n");
+		s.append("Connection: keep-alive\r\n\r\n");
+		byte[] header = s.toString().getBytes(StandardCharsets.US_ASCII);
+		byte[] request = new byte[header.length + content.length];
+		System.arraycopy(header, 0, request, 0, header.length);
+		System.arraycopy(content, 0, request, header.length, content.length);
+		return request;
+	}
+	
+}
@@ -0,0 +1,90 @@
+package net.lecousin.framework.web.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.HdrHistogram.Histogram;
+
+/** Subscription to the server-sent events of the load test server, recording the delivery latency of each event. */
+public class SSESubscriber extends Thread {
+
+	/** Constructor. */
+	public SSESubscriber(int index, InetSocketAddress address, String host, long recordStartNanos) {
+		super("Load test SSE subscriber " + index);
+		setDaemon(true);
+		this.address = address;
+		this.host = host;
+		this.recordStartNanos = recordStartNanos;
+	}
+	
+	private InetSocketAddress address;
+	private String host;
+	private long recordStartNanos;
+	private Histogram latencies = new Histogram(LoadConnection.HIGHEST_LATENCY, 3);
+	private volatile boolean closed = false;
+	private Socket socket;
+	private Exception error = null;
+	
+	/** Delivery latencies, in microseconds. */
+	public synchronized Histogram getLatencies() {
+		return latencies.copy();
+	}
+	
+	public Exception getError() {
+		return error;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(address, 10000);
+			OutputStream out = socket.getOutputStream();
+			out.write((
+				"GET " + LoadTestServer.EVENTS_PATH + " HTTP/1.1\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "Accept: text/event-stream\r\n"
+				+ "Connection: keep-alive\r\n\r\n"
+			).getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 4096);
+			int status = LoadConnection.HTTPReader.parseStatus(LoadConnection.HTTPReader.readLine(in));
+			if (status != 200)
+				throw new IOException("Subscription refused with status " + status);
+			LoadConnection.HTTPReader.readHeaders(in);
+			while (!closed) {
+				String line = LoadConnection.HTTPReader.readLine(in);
+				if (!line.startsWith("data:")) continue;
+				long received = System.nanoTime();
+				long sent;
+				try { sent = Long.parseLong(line.substring(5).trim()); }
+				catch (NumberFormatException e) { continue; }
+				if (sent < recordStartNanos) continue;
+				synchronized (this) {
+					latencies.recordValue(Math.max(0, Math.min(LoadConnection.HIGHEST_LATENCY, (received - sent) / 1000)));
+				}
+			}
+		} catch (Exception e) {
+			if (!closed) error = e;
+		} finally {
+			close();
+		}
+	}
+	
+	/** Stop listening to events. */
+	public void close() {
+		closed = true;
+		if (socket != null)
+			try { socket.close(); }
+			catch (IOException e) {
+				// ignore
+			}
+	}
+	
+}
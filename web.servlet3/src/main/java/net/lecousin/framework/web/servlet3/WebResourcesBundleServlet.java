@@ -105,6 +105,7 @@ public class WebResourcesBundleServlet implements Servlet {
 			@Override
 			public void run() {
 				ISynchronizationPoint<Exception> sp = bundle.process(check, wr);
+				sp.listenInline(wr::processed);
 				sp.listenAsync(new Task.Cpu.FromRunnable("Send HTTP Servlet Response", Task.PRIORITY_NORMAL, new Runnable() {
 					@SuppressWarnings("resource")
 					@Override
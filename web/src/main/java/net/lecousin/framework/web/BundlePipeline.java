@@ -0,0 +1,265 @@
+package net.lecousin.framework.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.metrics.ProcessorMetrics;
+import net.lecousin.framework.web.metrics.WebMetrics;
+
+/**
+ * Routes of a {@link WebResourcesBundle}, including the routes through its nested bundles, compiled into
+ * a flat structure.
+ * <p>
+ * Each route gives a final processor, with the pre-filters and post-filters of all the bundles along
+ * its path, so a request can be dispatched with a single lookup and a linear execution of the filters.<br/>
+ * Only nested bundles of class {@link WebResourcesBundle} are flattened, any other processor, including
+ * sub-classes of WebResourcesBundle, is considered as a final processor.<br/>
+ * The candidate routes for a path are pre-computed and ordered as the nested bundles would try them:
+ * at each level the longest path first, then in the order the processors have been added.
+ * </p>
+ */
+final class BundlePipeline {
+
+	/** A final processor, with the filters of the bundles along its path. */
+	static final class Route {
+
+		/** Pipeline containing this route. */
+		BundlePipeline pipeline;
+		/** Full path, relative to the compiled bundle. */
+		String path;
+		/** Bundles along the path, the first one being the compiled bundle. */
+		WebResourcesBundle[] bundles;
+		/** Length of the path at each level: levelOffset[level] is the length of the path of the bundle at this level. */
+		int[] levelOffset;
+		WebRequestProcessor processor;
+
+		WebRequestFilter[] preFilters;
+		int[] preLevel;
+		/** Post-filters, from the innermost bundle to the compiled bundle. */
+		WebRequestFilter[] postFilters;
+		int[] postLevel;
+		/** Index of the first post-filter to execute when the processing stops at a given level. */
+		int[] postStart;
+
+		/** Priority of the tasks processing the requests, or -1 to keep the priority of the request. */
+		byte priority = -1;
+
+		/** Metrics of the processor, null if metrics are not enabled. */
+		ProcessorMetrics processorMetrics;
+		/** Metrics of the pre-filters, null if metrics are not enabled. */
+		ProcessorMetrics[] preMetrics;
+		/** Metrics of the post-filters, null if metrics are not enabled. */
+		ProcessorMetrics[] postMetrics;
+
+		/** For each level, the length of the path and the index of the processor in the bundle. */
+		private int[] rank;
+
+		int getLevels() {
+			return bundles.length;
+		}
+
+	}
+
+	private BundlePipeline(int processorsCount) {
+		this.processorsCount = processorsCount;
+	}
+
+	private PathTrie<Route> routes = new PathTrie<>();
+	private int processorsCount;
+	private WebMetrics metrics;
+	private String metricsPath;
+
+	private static final Route[] NO_ROUTE = new Route[0];
+
+	/** Number of processors in the compiled bundle when it was compiled. */
+	int getProcessorsCount() {
+		return processorsCount;
+	}
+
+	/** Number of routes. */
+	int size() {
+		return routes.size();
+	}
+
+	/** Return the routes eligible for the given path starting at the given offset, in the order they must be checked. */
+	Route[] match(CharSequence path, int start) {
+		PathTrie.Node<Route> node = routes.match(path, start);
+		if (node == null) return NO_ROUTE;
+		return (Route[])node.getAttachment();
+	}
+
+	/** Compile the routes of the given bundle. */
+	static BundlePipeline compile(WebResourcesBundle bundle) {
+		List<Pair<String, WebRequestProcessor>> processors = bundle.getProcessors();
+		BundlePipeline pipeline;
+		synchronized (processors) {
+			pipeline = new BundlePipeline(processors.size());
+		}
+		pipeline.metrics = bundle.getMetrics();
+		pipeline.metricsPath = bundle.getMetricsPath();
+		List<WebResourcesBundle> bundles = new ArrayList<>();
+		List<String> keys = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		pipeline.collect(bundle, bundles, keys, indexes);
+		pipeline.routes.forEachNode((node) -> {
+			List<Route> list = new ArrayList<>();
+			for (PathTrie.Node<Route> n = node; n != null; n = n.getShorterMatch())
+				for (int i = 0; i < n.getValuesCount(); ++i)
+					list.add(n.getValue(i));
+			Route[] candidates = list.toArray(new Route[list.size()]);
+			Arrays.sort(candidates, BundlePipeline::compareRank);
+			node.setAttachment(candidates);
+		});
+		return pipeline;
+	}
+
+	private void collect(WebResourcesBundle bundle, List<WebResourcesBundle> bundles, List<String> keys, List<Integer> indexes) {
+		bundles.add(bundle);
+		List<Pair<String, WebRequestProcessor>> processors = bundle.getProcessors();
+		List<Pair<String, WebRequestProcessor>> list;
+		synchronized (processors) {
+			list = new ArrayList<>(processors);
+		}
+		for (int i = 0; i < list.size(); ++i) {
+			Pair<String, WebRequestProcessor> p = list.get(i);
+			keys.add(p.getValue1());
+			indexes.add(Integer.valueOf(i));
+			if (p.getValue2().getClass() == WebResourcesBundle.class && !bundles.contains(p.getValue2()))
+				collect((WebResourcesBundle)p.getValue2(), bundles, keys, indexes);
+			else
+				addRoute(bundles, keys, indexes, p.getValue2());
+			keys.remove(keys.size() - 1);
+			indexes.remove(indexes.size() - 1);
+		}
+		bundles.remove(bundles.size() - 1);
+	}
+
+	private void addRoute(List<WebResourcesBundle> bundles, List<String> keys, List<Integer> indexes, WebRequestProcessor processor) {
+		Route route = new Route();
+		route.pipeline = this;
+		int levels = bundles.size();
+		route.bundles = bundles.toArray(new WebResourcesBundle[levels]);
+		route.processor = processor;
+		route.levelOffset = new int[levels + 1];
+		route.rank = new int[levels * 2];
+		StringBuilder path = new StringBuilder();
+		for (int level = 0; level < levels; ++level) {
+			route.levelOffset[level] = path.length();
+			String key = keys.get(level);
+			path.append(key);
+			route.rank[level * 2] = -key.length();
+			route.rank[level * 2 + 1] = indexes.get(level).intValue();
+		}
+		route.levelOffset[levels] = path.length();
+		route.path = path.toString();
+		// pre-filters, from the compiled bundle to the innermost
+		List<WebRequestFilter> filters = new ArrayList<>();
+		List<Integer> filtersLevel = new ArrayList<>();
+		for (int level = 0; level < levels; ++level)
+			for (WebRequestFilter filter : route.bundles[level].getPreProcessors()) {
+				filters.add(filter);
+				filtersLevel.add(Integer.valueOf(level));
+			}
+		route.preFilters = filters.toArray(new WebRequestFilter[filters.size()]);
+		route.preLevel = toArray(filtersLevel);
+		// post-filters, from the innermost bundle to the compiled one
+		filters.clear();
+		filtersLevel.clear();
+		route.postStart = new int[levels];
+		for (int level = levels - 1; level >= 0; --level) {
+			route.postStart[level] = filters.size();
+			for (WebRequestFilter filter : route.bundles[level].getPostProcessors()) {
+				filters.add(filter);
+				filtersLevel.add(Integer.valueOf(level));
+			}
+		}
+		route.postFilters = filters.toArray(new WebRequestFilter[filters.size()]);
+		route.postLevel = toArray(filtersLevel);
+		Byte priority = route.bundles[levels - 1].getPriority(processor);
+		if (priority != null)
+			route.priority = priority.byteValue();
+		if (metrics != null)
+			createMetrics(route);
+		routes.add(route.path, route);
+	}
+
+	private void createMetrics(Route route) {
+		WebResourcesBundle bundle = route.bundles[route.bundles.length - 1];
+		route.processorMetrics = metrics.get(ProcessorMetrics.Type.PROCESSOR, metricsPath + route.path,
+			getProcessorId(bundle, route.processor));
+		route.preMetrics = new ProcessorMetrics[route.preFilters.length];
+		for (int i = 0; i < route.preFilters.length; ++i) {
+			bundle = route.bundles[route.preLevel[i]];
+			route.preMetrics[i] = metrics.get(ProcessorMetrics.Type.PRE_FILTER,
+				metricsPath + route.path.substring(0, route.levelOffset[route.preLevel[i]]),
+				getFilterId(bundle, route.preFilters[i], bundle.getPreProcessors()));
+		}
+		route.postMetrics = new ProcessorMetrics[route.postFilters.length];
+		for (int i = 0; i < route.postFilters.length; ++i) {
+			bundle = route.bundles[route.postLevel[i]];
+			route.postMetrics[i] = metrics.get(ProcessorMetrics.Type.POST_FILTER,
+				metricsPath + route.path.substring(0, route.levelOffset[route.postLevel[i]]),
+				getFilterId(bundle, route.postFilters[i], bundle.getPostProcessors()));
+		}
+	}
+
+	/** Return the configured id of the processor, or its class followed by its index if another processor of the same class
+	 * has the same path in the bundle. */
+	private static String getProcessorId(WebResourcesBundle bundle, WebRequestProcessor processor) {
+		String id = bundle.getConfiguredId(processor);
+		if (id != null)
+			return id;
+		id = WebMetrics.getId(processor);
+		List<Pair<String, WebRequestProcessor>> processors = bundle.getProcessors();
+		synchronized (processors) {
+			int index = -1;
+			for (int i = 0; i < processors.size() && index < 0; ++i)
+				if (processors.get(i).getValue2() == processor)
+					index = i;
+			if (index < 0)
+				return id;
+			String path = processors.get(index).getValue1();
+			for (Pair<String, WebRequestProcessor> p : processors)
+				if (p.getValue2() != processor && p.getValue2().getClass() == processor.getClass() && p.getValue1().equals(path))
+					return id + '#' + index;
+		}
+		return id;
+	}
+
+	/** Return the configured id of the filter, or its class followed by its index if another filter of the same class
+	 * is in the same list. */
+	private static String getFilterId(WebResourcesBundle bundle, WebRequestFilter filter, List<WebRequestFilter> filters) {
+		String id = bundle.getConfiguredId(filter);
+		if (id != null)
+			return id;
+		id = WebMetrics.getId(filter);
+		int index = -1;
+		boolean sameClass = false;
+		for (int i = 0; i < filters.size(); ++i) {
+			WebRequestFilter f = filters.get(i);
+			if (f == filter)
+				index = i;
+			else if (f.getClass() == filter.getClass())
+				sameClass = true;
+		}
+		return sameClass && index >= 0 ? id + '#' + index : id;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; ++i)
+			a[i] = list.get(i).intValue();
+		return a;
+	}
+
+	private static int compareRank(Route r1, Route r2) {
+		int n = Math.min(r1.rank.length, r2.rank.length);
+		for (int i = 0; i < n; ++i)
+			if (r1.rank[i] != r2.rank[i])
+				return r1.rank[i] < r2.rank[i] ? -1 : 1;
+		return r1.rank.length - r2.rank.length;
+	}
+
+}
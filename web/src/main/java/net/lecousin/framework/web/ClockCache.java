@@ -0,0 +1,109 @@
+package net.lecousin.framework.web;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Concurrent map with a maximum size, and an approximate least-recently-used eviction (clock algorithm):
+ * each value has a flag set when it is used, and when the map is full the values not used since the previous
+ * eviction are removed while the others are marked as not used.
+ * <br/>
+ * Values are compared by identity.
+ * @param <K> type of key
+ * @param <V> type of value
+ */
+final class ClockCache<K, V> {
+
+	/** Constructor.
+	 * @param maxSize maximum number of values
+	 * @param onEvict called for each value removed by the eviction, or null
+	 */
+	ClockCache(int maxSize, BiConsumer<K, V> onEvict) {
+		this.maxSize = maxSize;
+		this.onEvict = onEvict;
+		map = new ConcurrentHashMap<>(Math.min(maxSize, 1024) * 4 / 3 + 1);
+	}
+
+	private int maxSize;
+	private BiConsumer<K, V> onEvict;
+	private ConcurrentHashMap<K, Node<V>> map;
+	private AtomicBoolean evicting = new AtomicBoolean(false);
+
+	private static final class Node<V> {
+		private Node(V value) {
+			this.value = value;
+		}
+
+		private final V value;
+		/** Set on each use, and cleared by the eviction. */
+		private volatile boolean used = true;
+	}
+
+	/** Return the value, and mark it as used. */
+	V get(K key) {
+		Node<V> n = map.get(key);
+		if (n == null)
+			return null;
+		if (!n.used) n.used = true;
+		return n.value;
+	}
+
+	/** Put a value, evict values if the maximum size is exceeded, and return the previous value. */
+	V put(K key, V value) {
+		Node<V> previous = map.put(key, new Node<>(value));
+		if (map.size() > maxSize && evicting.compareAndSet(false, true)) {
+			try {
+				evict();
+			} finally {
+				evicting.set(false);
+			}
+		}
+		return previous != null ? previous.value : null;
+	}
+
+	/** Remove the value of the given key. */
+	V remove(K key) {
+		Node<V> n = map.remove(key);
+		return n != null ? n.value : null;
+	}
+
+	/** Remove the given value, and return true if it was in the map. */
+	boolean remove(K key, V value) {
+		Node<V> n = map.get(key);
+		return n != null && n.value == value && map.remove(key, n);
+	}
+
+	/** Return true if the given value is in the map. */
+	boolean contains(K key, V value) {
+		Node<V> n = map.get(key);
+		return n != null && n.value == value;
+	}
+
+	int size() {
+		return map.size();
+	}
+
+	/** Call the consumer for each value, with the same consistency as the iteration of a ConcurrentHashMap. */
+	void forEach(BiConsumer<K, V> consumer) {
+		for (Map.Entry<K, Node<V>> e : map.entrySet())
+			consumer.accept(e.getKey(), e.getValue().value);
+	}
+
+	private void evict() {
+		int target = maxSize - Math.max(1, maxSize / 8);
+		// at most two turns: the first turn may only clear the flags
+		for (int turn = 0; turn < 2 && map.size() > target; ++turn)
+			for (Map.Entry<K, Node<V>> e : map.entrySet()) {
+				if (map.size() <= target)
+					break;
+				Node<V> n = e.getValue();
+				if (n.used)
+					n.used = false;
+				else if (map.remove(e.getKey(), n) && onEvict != null)
+					onEvict.accept(e.getKey(), n.value);
+			}
+	}
+
+}
@@ -0,0 +1,223 @@
+package net.lecousin.framework.web;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Radix tree associating sub-paths to values, used to find the processors eligible for a request path.
+ * <p>
+ * A path of the tree matches a requested path if it is empty, if it is a prefix of the requested path,
+ * or if the requested path is equal to it without its trailing slash.<br/>
+ * The method {@link #match(CharSequence, int)} returns the node with the longest matching path,
+ * and the other matching nodes can be iterated, from the longest to the shortest path, using
+ * {@link Node#getShorterMatch()}, so no allocation is done when looking for a path.
+ * </p>
+ * <p>
+ * The tree is not thread-safe while it is modified, it is intended to be built once, then published
+ * to the threads looking for paths.
+ * </p>
+ * @param <T> type of value
+ */
+public final class PathTrie<T> {
+
+	/** Constructor. */
+	public PathTrie() {
+		root = new Node<>("", "");
+	}
+
+	private Node<T> root;
+	private int size = 0;
+
+	/** A node of the tree. */
+	public static final class Node<T> {
+		private Node(String path, String label) {
+			this.path = path;
+			this.label = label;
+		}
+
+		private String path;
+		private String label;
+		private char[] firstChars = new char[0];
+		@SuppressWarnings("unchecked")
+		private Node<T>[] children = new Node[0];
+		private Object[] values = null;
+		private Node<T> shorter = null;
+		private Object attachment = null;
+
+		/** Full path of this node. */
+		public String getPath() {
+			return path;
+		}
+
+		/** Number of values associated with the path of this node. */
+		public int getValuesCount() {
+			return values == null ? 0 : values.length;
+		}
+
+		/** Return the value at the given index, values are in the order they have been added. */
+		@SuppressWarnings("unchecked")
+		public T getValue(int index) {
+			return (T)values[index];
+		}
+
+		/** Return the next node having values, with a shorter path, or null if there is no more matching path. */
+		public Node<T> getShorterMatch() {
+			return shorter;
+		}
+
+		/** Return the object attached to this node, or null. */
+		public Object getAttachment() {
+			return attachment;
+		}
+
+		/** Attach an object to this node, to pre-compute data associated with a path. */
+		public void setAttachment(Object attachment) {
+			this.attachment = attachment;
+		}
+
+		private int indexOf(char c) {
+			return Arrays.binarySearch(firstChars, c);
+		}
+
+		private void addChild(Node<T> child) {
+			char c = child.label.charAt(0);
+			int i = -(indexOf(c) + 1);
+			char[] chars = new char[firstChars.length + 1];
+			System.arraycopy(firstChars, 0, chars, 0, i);
+			System.arraycopy(firstChars, i, chars, i + 1, firstChars.length - i);
+			chars[i] = c;
+			@SuppressWarnings("unchecked")
+			Node<T>[] nodes = new Node[children.length + 1];
+			System.arraycopy(children, 0, nodes, 0, i);
+			System.arraycopy(children, i, nodes, i + 1, children.length - i);
+			nodes[i] = child;
+			firstChars = chars;
+			children = nodes;
+		}
+
+		private void addValue(T value) {
+			if (values == null) {
+				values = new Object[] { value };
+				return;
+			}
+			Object[] list = new Object[values.length + 1];
+			System.arraycopy(values, 0, list, 0, values.length);
+			list[values.length] = value;
+			values = list;
+		}
+	}
+
+	/** Number of values in this tree. */
+	public int size() {
+		return size;
+	}
+
+	/** Associate the given value to the given path. Several values may be associated to the same path. */
+	public void add(String path, T value) {
+		Node<T> node = root;
+		// nearest node having values, from the root to the current node
+		Node<T> shorter = root.values != null ? root : null;
+		int pos = 0;
+		int len = path.length();
+		while (pos < len) {
+			int i = node.indexOf(path.charAt(pos));
+			if (i < 0) {
+				Node<T> child = new Node<>(path, path.substring(pos));
+				child.shorter = shorter;
+				node.addChild(child);
+				node = child;
+				break;
+			}
+			Node<T> child = node.children[i];
+			int k = commonPrefix(child.label, path, pos);
+			if (k == child.label.length()) {
+				node = child;
+				pos += k;
+				if (child.values != null) shorter = child;
+				continue;
+			}
+			// split the edge
+			Node<T> mid = new Node<>(path.substring(0, pos + k), child.label.substring(0, k));
+			mid.shorter = shorter;
+			child.label = child.label.substring(k);
+			mid.firstChars = new char[] { child.label.charAt(0) };
+			@SuppressWarnings("unchecked")
+			Node<T>[] midChildren = new Node[] { child };
+			mid.children = midChildren;
+			node.children[i] = mid;
+			node = mid;
+			pos += k;
+		}
+		boolean hadValues = node.values != null;
+		node.addValue(value);
+		size++;
+		// only the nodes below a node getting its first value need to be linked again
+		if (!hadValues)
+			for (Node<T> child : node.children)
+				link(child, node);
+	}
+
+	/** Call the given listener for each node of this tree, parents before their children. */
+	public void forEachNode(Consumer<Node<T>> listener) {
+		forEachNode(root, listener);
+	}
+
+	private static <T> void forEachNode(Node<T> node, Consumer<Node<T>> listener) {
+		listener.accept(node);
+		for (Node<T> child : node.children)
+			forEachNode(child, listener);
+	}
+
+	private static int commonPrefix(String label, CharSequence path, int pos) {
+		int max = Math.min(label.length(), path.length() - pos);
+		int i = 0;
+		while (i < max && label.charAt(i) == path.charAt(pos + i)) i++;
+		return i;
+	}
+
+	private static <T> void link(Node<T> node, Node<T> shorter) {
+		node.shorter = shorter;
+		if (node.values != null) shorter = node;
+		for (Node<T> child : node.children)
+			link(child, shorter);
+	}
+
+	/**
+	 * Return the node with the longest path matching the given path, starting at the given offset,
+	 * or null if no path matches.
+	 */
+	public Node<T> match(CharSequence path, int start) {
+		Node<T> node = root;
+		Node<T> best = root.values != null ? root : null;
+		int pos = start;
+		int len = path.length();
+		while (pos < len) {
+			int i = node.indexOf(path.charAt(pos));
+			if (i < 0)
+				return best;
+			Node<T> child = node.children[i];
+			String label = child.label;
+			int k = commonPrefix(label, path, pos);
+			if (k == label.length()) {
+				node = child;
+				pos += k;
+				if (child.values != null)
+					best = child;
+				continue;
+			}
+			// the requested path may be the path of the child without its trailing slash
+			if (pos + k == len && k == label.length() - 1 && label.charAt(k) == '/' && child.values != null)
+				return child;
+			return best;
+		}
+		// end of the requested path, check if there is a path with a trailing slash
+		int i = node.indexOf('/');
+		if (i >= 0) {
+			Node<T> child = node.children[i];
+			if (child.label.length() == 1 && child.values != null)
+				return child;
+		}
+		return best;
+	}
+
+}
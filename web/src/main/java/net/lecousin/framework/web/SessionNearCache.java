@@ -0,0 +1,243 @@
+package net.lecousin.framework.web;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.exception.NoException;
+import net.lecousin.framework.network.TCPRemote;
+import net.lecousin.framework.network.session.NetworkSessionProvider;
+import net.lecousin.framework.network.session.Session;
+
+/**
+ * In-memory tier in front of a session provider, so recently used sessions are not loaded from the storage on each request.
+ * <br/>
+ * At most maxSize sessions are kept, with an approximate least-recently-used eviction (clock algorithm),
+ * and a session is loaded again from the storage once it has been cached for timeToLive milliseconds.
+ * Concurrent requests for a session which is not cached share the same loading, so a single instance is cached.
+ * A session is given from the cache only to the client address it has been loaded for, other clients get it
+ * from the provider which checks the client.
+ * Saved sessions are written to the storage after writeBehind milliseconds, so several requests modifying a session
+ * result in a single write. Dirty sessions are written when evicted, and when the cache is closed.
+ * A destroyed session cannot be cached or saved again during timeToLive milliseconds.
+ * <br/>
+ * No lock is held while accessing the storage.
+ */
+public class SessionNearCache implements Closeable {
+
+	/** Constructor. */
+	public SessionNearCache(NetworkSessionProvider provider, int maxSize, long timeToLive, long writeBehind) {
+		this.provider = provider;
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		this.writeBehind = writeBehind;
+		cache = new ClockCache<>(maxSize, (id, e) -> write(e));
+	}
+
+	private NetworkSessionProvider provider;
+	private int maxSize;
+	private long timeToLive;
+	private long writeBehind;
+	private ClockCache<String, Entry> cache;
+	private ConcurrentHashMap<String, Loading> loading = new ConcurrentHashMap<>();
+	/** Time at which the sessions have been destroyed. */
+	private ConcurrentHashMap<String, Long> destroyed = new ConcurrentHashMap<>();
+	private AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	private static final class Entry {
+		private Entry(Session session, InetAddress owner) {
+			this.session = session;
+			this.owner = owner;
+		}
+
+		private final Session session;
+		/** Address of the client the session has been loaded or created for. */
+		private final InetAddress owner;
+		private final long loaded = System.currentTimeMillis();
+		/** Client of the last request which modified the session, null if it has been written. */
+		private final AtomicReference<TCPRemote> dirty = new AtomicReference<>(null);
+	}
+
+	private static final class Loading {
+		private Loading(InetAddress owner) {
+			this.owner = owner;
+		}
+
+		private final InetAddress owner;
+		private final AsyncWork<Session, NoException> result = new AsyncWork<>();
+	}
+
+	public NetworkSessionProvider getProvider() {
+		return provider;
+	}
+
+	/** Return true if this cache uses the given settings. */
+	public boolean hasSettings(int maxSize, long timeToLive, long writeBehind) {
+		return this.maxSize == maxSize && this.timeToLive == timeToLive && this.writeBehind == writeBehind;
+	}
+
+	/** Return the number of sessions found in the cache, or being loaded for another request. */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** Return the number of sessions loaded from the storage. */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Return the ratio of sessions found in the cache, between 0 and 1. */
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	/** Return the number of sessions currently cached. */
+	public int size() {
+		return cache.size();
+	}
+
+	/** Get a session from the cache, or load it from the storage. */
+	public AsyncWork<Session, NoException> get(String id, TCPRemote client) {
+		if (isDestroyed(id))
+			return new AsyncWork<>(null, null);
+		InetAddress address = getAddress(client);
+		Entry e = cache.get(id);
+		if (e != null) {
+			if (!Objects.equals(e.owner, address)) {
+				// the provider checks the client, and the cached session is kept for its owner
+				misses.incrementAndGet();
+				return provider.get(id, client);
+			}
+			if (System.currentTimeMillis() - e.loaded < timeToLive) {
+				hits.incrementAndGet();
+				return new AsyncWork<>(e.session, null);
+			}
+			if (cache.remove(id, e))
+				write(e);
+		}
+		Loading l = new Loading(address);
+		Loading pending = loading.putIfAbsent(id, l);
+		if (pending != null) {
+			if (Objects.equals(pending.owner, address)) {
+				hits.incrementAndGet();
+				return pending.result;
+			}
+			misses.incrementAndGet();
+			return provider.get(id, client);
+		}
+		misses.incrementAndGet();
+		AsyncWork<Session, NoException> load = provider.get(id, client);
+		load.listenInline(() -> {
+			Session session = load.getResult();
+			if (session != null && isDestroyed(id))
+				session = null;
+			// cache the session before removing the loading, so the next requests find one or the other
+			if (session != null)
+				put(id, new Entry(session, address));
+			loading.remove(id, l);
+			l.result.unblockSuccess(session);
+		});
+		return l.result;
+	}
+
+	/** Cache a newly created session. */
+	public void created(Session session, TCPRemote client) {
+		destroyed.remove(session.getId());
+		put(session.getId(), new Entry(session, getAddress(client)));
+	}
+
+	/** Mark the session to be saved. */
+	public void save(Session session, TCPRemote client) {
+		String id = session.getId();
+		if (isDestroyed(id))
+			return;
+		Entry e = cache.get(id);
+		if (e == null || e.session != session) {
+			// the session has been evicted or has expired while the request was using it
+			e = new Entry(session, getAddress(client));
+			e.dirty.set(client);
+			put(id, e);
+		} else {
+			e.dirty.set(client);
+			if (!cache.contains(id, e))
+				write(e); // evicted meanwhile
+		}
+		if (flushScheduled.compareAndSet(false, true))
+			new Task.Cpu.FromRunnable("Write web sessions", Task.PRIORITY_LOW, this::flush).executeIn(writeBehind).start();
+	}
+
+	/** Remove the session from the cache and destroy it. */
+	public void destroy(Session session) {
+		String id = session.getId();
+		long now = System.currentTimeMillis();
+		// the tombstone prevents a load in progress or a concurrent save to put the session back
+		destroyed.put(id, Long.valueOf(now));
+		loading.remove(id);
+		cache.remove(id);
+		provider.destroy(session);
+		destroyed.values().removeIf(time -> now - time.longValue() >= timeToLive);
+	}
+
+	/** Write the modified sessions to the storage. */
+	public void flush() {
+		flushScheduled.set(false);
+		cache.forEach((id, e) -> write(e));
+	}
+
+	private boolean isDestroyed(String id) {
+		Long time = destroyed.get(id);
+		if (time == null)
+			return false;
+		if (System.currentTimeMillis() - time.longValue() < timeToLive)
+			return true;
+		destroyed.remove(id, time);
+		return false;
+	}
+
+	/** Write the session if it is dirty. */
+	private void write(Entry e) {
+		TCPRemote client = e.dirty.getAndSet(null);
+		if (client != null && !isDestroyed(e.session.getId()))
+			provider.save(e.session, client);
+	}
+
+	private void put(String id, Entry entry) {
+		if (isDestroyed(id))
+			return;
+		Entry previous = cache.put(id, entry);
+		// a different instance of the session may have been modified by a request
+		if (previous != null && previous != entry && previous.session != entry.session)
+			write(previous);
+	}
+
+	private static InetAddress getAddress(TCPRemote client) {
+		try {
+			SocketAddress address = client.getRemoteAddress();
+			return address instanceof InetSocketAddress ? ((InetSocketAddress)address).getAddress() : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void close() {
+		flushScheduled.set(false);
+		cache.forEach((id, e) -> {
+			if (cache.remove(id, e))
+				write(e);
+		});
+	}
+
+}
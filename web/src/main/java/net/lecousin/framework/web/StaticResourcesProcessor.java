@@ -77,6 +77,12 @@ public class StaticResourcesProcessor implements WebRequestProcessor {
 		this.restrictPatterns = restrictPatterns;
 	}
 
+	@Override
+	public boolean isRoutingCacheable(WebRequest request) {
+		// files on the file system may be added or removed at any time
+		return fromFileSystem == null;
+	}
+
 	@SuppressWarnings("resource")
 	@Override
 	public Object checkProcessing(WebRequest request) {
@@ -2,11 +2,14 @@ package net.lecousin.framework.web;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import net.lecousin.framework.concurrent.CancelException;
+import net.lecousin.framework.concurrent.Task;
 import net.lecousin.framework.concurrent.synch.AsyncWork;
 import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
 import net.lecousin.framework.exception.NoException;
@@ -32,10 +35,17 @@ public class WebRequest {
 		this.response = response;
 		this.onSecureChannel = onSecureChannel;
 		this.sessionProvider = sessionProvider;
-		try { this.fullPath = URLDecoder.decode(request.getPath(), "UTF-8"); }
-		catch (UnsupportedEncodingException e) { /* cannot happen */ }
-		this.currentPath = "/";
-		this.subPath = fullPath.substring(1);
+		this.fullPath = decodePath(request.getPath());
+		this.subPathOffset = 1;
+	}
+	
+	/** Decode the given path, or return it directly if it does not contain any encoded character or if it is malformed. */
+	public static String decodePath(String path) {
+		if (path.indexOf('%') < 0 && path.indexOf('+') < 0)
+			return path;
+		try { return URLDecoder.decode(path, "UTF-8"); }
+		catch (UnsupportedEncodingException e) { return path; /* cannot happen */ }
+		catch (IllegalArgumentException e) { return path; /* invalid escape sequence */ }
 	}
 	
 	private TCPRemote client;
@@ -45,14 +55,34 @@ public class WebRequest {
 	private WebSessionProvider sessionProvider;
 	
 	private String fullPath;
-	private String currentPath;
-	private String subPath;
+	/** Offset of the sub-path in the full path, or -1 if the current path is not a prefix of the full path. */
+	private int subPathOffset;
+	/** Current path and sub-path, null until requested when they are a split of the full path. */
+	private String currentPath = null;
+	private String subPath = null;
+	
+	private String host = null;
+	private String hostname = null;
+	private boolean hostParsed = false;
+	
+	/** Set to false during routing when a processor whose decision cannot be cached has been checked. */
+	boolean routingCacheable = true;
 	
 	private AsyncWork<ISession, NoException> session;
 	private boolean sessionRequested = false;
 	
 	private Map<IAuthenticationProvider, IAuthentication> auth = null;
-	private List<IAuthenticationRequest> authRequests = new LinkedList<>();
+	private List<IAuthenticationRequest> authRequests = null;
+	
+	private byte priority = Task.PRIORITY_NORMAL;
+	/** Deadline in nanoseconds, as given by System.nanoTime, valid only if hasDeadline is true. */
+	private long deadline = 0;
+	private boolean hasDeadline = false;
+	private Task<Void, NoException> deadlineTask = null;
+	private List<Runnable> onDeadline = null;
+	
+	private List<Runnable> onProcessed = null;
+	private boolean processed = false;
 	
 	public TCPRemote getClient() {
 		return client;
@@ -75,26 +105,105 @@ public class WebRequest {
 	}
 	
 	public String getCurrentPath() {
+		if (currentPath == null)
+			currentPath = fullPath.substring(0, subPathOffset);
 		return currentPath;
 	}
 	
 	public String getSubPath() {
+		if (subPath == null)
+			subPath = fullPath.substring(subPathOffset);
 		return subPath;
 	}
 	
 	public void setPath(String current, String sub) {
+		int l = current.length();
+		if (l + sub.length() == fullPath.length() && fullPath.startsWith(current) && fullPath.startsWith(sub, l))
+			subPathOffset = l;
+		else
+			subPathOffset = -1;
 		this.currentPath = current;
 		this.subPath = sub;
 	}
 	
+	/** Return the offset of the sub-path in the full path, or -1 if the current path is not a prefix of the full path.
+	 * When it is positive, the offset can be used with {@link #getFullPath()} to analyze the sub-path without
+	 * creating a new string, and can be given to {@link #setSubPathOffset(int)} to restore the current path.
+	 */
+	public int getSubPathOffset() {
+		return subPathOffset;
+	}
+	
+	/** Split the full path at the given offset into the current path and the sub-path. */
+	public void setSubPathOffset(int offset) {
+		subPathOffset = offset;
+		currentPath = null;
+		subPath = null;
+	}
+	
+	/** Restore a path saved with the sub-path offset, or with the current path and sub-path if the offset is negative. */
+	public void restorePath(int offset, String current, String sub) {
+		if (offset >= 0)
+			setSubPathOffset(offset);
+		else
+			setPath(current, sub);
+	}
+	
+	/** Move the given path from the beginning of the sub-path to the end of the current path.
+	 * If the sub-path is equal to the given path without its trailing slash, the sub-path becomes empty.
+	 */
+	public void enterPath(String path) {
+		if (path.isEmpty()) return;
+		if (subPathOffset >= 0 && fullPath.startsWith(path, subPathOffset)) {
+			setSubPathOffset(subPathOffset + path.length());
+			return;
+		}
+		String sub = getSubPath();
+		setPath(getCurrentPath() + path, sub.length() > path.length() ? sub.substring(path.length()) : "");
+	}
+	
 	public String getRootURL() {
 		StringBuilder url = new StringBuilder();
 		url.append("http");
 		if (isSecure()) url.append('s');
-		url.append("://").append(request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST));
+		url.append("://").append(getHost());
 		return url.toString();
 	}
 	
+	/** Return the value of the Host header, or null if not specified. The header is read only once. */
+	public String getHost() {
+		parseHost();
+		return host;
+	}
+	
+	/** Return the hostname from the Host header, in lower case and without port, or null if no Host header is specified. */
+	public String getHostname() {
+		parseHost();
+		return hostname;
+	}
+	
+	private void parseHost() {
+		if (hostParsed) return;
+		host = request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST);
+		hostname = parseHostname(host);
+		hostParsed = true;
+	}
+	
+	/** Extract the hostname from a Host header value: remove the port if any, trim and convert it to lower case. */
+	public static String parseHostname(String host) {
+		if (host == null)
+			return null;
+		int i;
+		if (host.startsWith("[")) {
+			// IPv6
+			i = host.indexOf(']');
+			if (i > 0) i++;
+		} else
+			i = host.indexOf(':');
+		if (i > 0) host = host.substring(0, i);
+		return host.trim().toLowerCase();
+	}
+	
 	/** Return the session. */
 	public AsyncWork<ISession, NoException> getSession(boolean openIfNeeded) {
 		// first request
@@ -117,14 +226,167 @@ public class WebRequest {
 		return session;
 	}
 	
+	/** Return true if a session has been loaded and may need to be saved. */
+	boolean needsSessionSave() {
+		if (session == null) return false;
+		if (!session.isUnblocked()) return true;
+		return needsSave(session.getResult());
+	}
+	
 	void saveSession() {
 		if (session == null) return;
 		session.listenInline((s) -> {
-			if (s != null)
+			if (needsSave(s))
 				sessionProvider.saveSession(this, s);
 		});
 	}
 	
+	private static boolean needsSave(ISession s) {
+		if (s == null) return false;
+		// a shared session is saved by the provider once all requests using it are done
+		if (s instanceof WebSession) return !((WebSession)s).isShared() && ((WebSession)s).isModified();
+		return true;
+	}
+	
+	/** Return the session if it has been loaded, else null. */
+	ISession getLoadedSession() {
+		if (session == null || !session.isUnblocked()) return null;
+		return session.getResult();
+	}
+	
+	/** Return the priority of the tasks processing this request. */
+	public byte getPriority() {
+		return priority;
+	}
+	
+	/** Set the priority of the tasks processing this request, this is done by a bundle when routing the request,
+	 * according to the priority configured on the processor or on the bundle.
+	 */
+	public void setPriority(byte priority) {
+		this.priority = priority;
+	}
+	
+	/** Set a deadline, in milliseconds from now, after which the processing of this request is cancelled and a 504 status is sent.
+	 * If a deadline is already set, it is only replaced by an earlier one.
+	 * The listeners registered with {@link #onDeadlineExceeded(Runnable)} are called when the deadline is reached,
+	 * even if the request is waiting in a filter.
+	 */
+	public void setTimeout(long milliseconds) {
+		if (milliseconds <= 0) return;
+		long time = System.nanoTime() + milliseconds * 1000000L;
+		Task<Void, NoException> previous;
+		Task<Void, NoException> task;
+		synchronized (this) {
+			if (processed || (hasDeadline && time - deadline >= 0))
+				return;
+			deadline = time;
+			hasDeadline = true;
+			previous = deadlineTask;
+			task = new Task.Cpu.FromRunnable("Web request deadline", priority, this::deadlineReached);
+			deadlineTask = task;
+		}
+		if (previous != null)
+			previous.cancel(new CancelException("Earlier deadline"));
+		task.executeIn(milliseconds).start();
+	}
+	
+	/** Return true if a deadline is set. */
+	public synchronized boolean hasDeadline() {
+		return hasDeadline;
+	}
+	
+	/** Return the time remaining in milliseconds before the deadline, 0 if already exceeded, or -1 if there is no deadline.
+	 * This can be used to give a timeout to downstream calls. */
+	public long getRemainingTime() {
+		long d;
+		synchronized (this) {
+			if (!hasDeadline) return -1;
+			d = deadline;
+		}
+		long remaining = d - System.nanoTime();
+		return remaining > 0 ? remaining / 1000000L : 0;
+	}
+	
+	/** Return true if a deadline is set and exceeded. */
+	public boolean isDeadlineExceeded() {
+		long d;
+		synchronized (this) {
+			if (!hasDeadline) return false;
+			d = deadline;
+		}
+		return System.nanoTime() - d >= 0;
+	}
+	
+	/** Register a listener to call when the deadline is reached, before the processing is done.
+	 * If the deadline is already exceeded, the listener is called immediately.
+	 */
+	public void onDeadlineExceeded(Runnable listener) {
+		synchronized (this) {
+			if (processed) return;
+			if (!hasDeadline || System.nanoTime() - deadline < 0) {
+				if (onDeadline == null) onDeadline = new ArrayList<>(2);
+				onDeadline.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+	
+	/** Remove a listener registered with {@link #onDeadlineExceeded(Runnable)}. */
+	public void removeDeadlineListener(Runnable listener) {
+		synchronized (this) {
+			if (onDeadline != null)
+				onDeadline.remove(listener);
+		}
+	}
+	
+	private void deadlineReached() {
+		List<Runnable> listeners;
+		synchronized (this) {
+			if (processed) return;
+			listeners = onDeadline;
+			onDeadline = null;
+			deadlineTask = null;
+		}
+		if (listeners != null)
+			for (Runnable listener : listeners)
+				listener.run();
+	}
+	
+	/** Register a listener to call once the processing of this request is done, including the post-filters.
+	 * If the processing is already done, the listener is called immediately.
+	 */
+	public void onProcessed(Runnable listener) {
+		synchronized (this) {
+			if (!processed) {
+				if (onProcessed == null) onProcessed = new ArrayList<>(2);
+				onProcessed.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+	
+	/** Signal that the processing of this request is done, called by the server which received the request. */
+	public void processed() {
+		List<Runnable> listeners;
+		Task<Void, NoException> task;
+		synchronized (this) {
+			if (processed) return;
+			processed = true;
+			listeners = onProcessed;
+			onProcessed = null;
+			onDeadline = null;
+			task = deadlineTask;
+			deadlineTask = null;
+		}
+		if (task != null)
+			task.cancel(new CancelException("Request processed"));
+		if (listeners != null)
+			for (Runnable listener : listeners)
+				listener.run();
+	}
+	
 	public void removeSession() {
 		if (session == null && !sessionRequested)
 			getSession(true);
@@ -179,15 +441,18 @@ public class WebRequest {
 	}
 	
 	public void addAuthenticationRequest(IAuthenticationRequest auth) {
+		if (authRequests == null) authRequests = new ArrayList<>(2);
 		authRequests.add(auth);
 	}
 	
 	public List<IAuthenticationRequest> getAuthenticationRequests() {
+		if (authRequests == null) return Collections.emptyList();
 		return authRequests;
 	}
 	
 	@SuppressWarnings("unchecked")
 	public <T extends IAuthenticationRequest> T getAuthenticationRequest(Class<T> type) {
+		if (authRequests == null) return null;
 		for (IAuthenticationRequest r : authRequests)
 			if (type.isAssignableFrom(r.getClass()))
 				return (T)r;
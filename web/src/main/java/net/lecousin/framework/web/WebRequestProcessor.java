@@ -34,6 +34,15 @@ public interface WebRequestProcessor extends WebSocketRouter {
 	 */
 	Object checkProcessing(WebRequest request);
 	
+	/** Return true if the decision of {@link #checkProcessing(WebRequest)} for the given request only depends on
+	 * the hostname, the local address, the method and the path of the request, so the routing can be remembered
+	 * for the next requests having the same characteristics.
+	 * When a processor is selected from the routing cache, its method checkProcessing is still called.
+	 */
+	default boolean isRoutingCacheable(WebRequest request) {
+		return false;
+	}
+	
 	/** Process the request. */
 	ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request);
 	
@@ -1,13 +1,25 @@
 package net.lecousin.framework.web;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.lecousin.framework.collections.ArrayUtil;
 import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.exception.NoException;
 import net.lecousin.framework.io.serialization.annotations.MergeAttributes;
 import net.lecousin.framework.io.serialization.annotations.Rename;
 import net.lecousin.framework.io.serialization.annotations.TypeSerializer;
@@ -17,6 +29,8 @@ import net.lecousin.framework.network.http.websocket.WebSocketDispatcher.WebSock
 import net.lecousin.framework.network.server.TCPServerClient;
 import net.lecousin.framework.util.Pair;
 import net.lecousin.framework.util.Triple;
+import net.lecousin.framework.web.metrics.ProcessorMetrics;
+import net.lecousin.framework.web.metrics.WebMetrics;
 
 public class WebRequestRouter implements WebRequestProcessor {
 
@@ -25,7 +39,10 @@ public class WebRequestRouter implements WebRequestProcessor {
 		@TypeSerializer(NetUtil.IPSerializer.class)
 		public List<byte[]> ipAddresses = null;
 		
-		/** List of hostnames to answer, empty or null means all. */
+		/** List of hostnames to answer, empty or null means all.
+		 * A hostname starting with <code>*.</code> matches any sub-domain, for example <code>*.example.com</code>
+		 * matches <code>www.example.com</code> but not <code>example.com</code>.
+		 */
 		public List<String> hostnames = null;
 		
 		/** Mapping between paths and processors.
@@ -43,10 +60,131 @@ public class WebRequestRouter implements WebRequestProcessor {
 	
 	private WebRequestProcessor parent = null;
 	private List<Configuration> configs = new ArrayList<>();
+	private boolean indexed = false;
+	private volatile RoutingIndex index = null;
+	private int cacheSize = 0;
+	/** Routing decisions, with an approximate least-recently-used eviction. */
+	private volatile ClockCache<RouteKey, CachedRoute> cache = null;
+	private LongAdder cacheHits = new LongAdder();
+	private LongAdder cacheMisses = new LongAdder();
+	private WebMetrics metrics = null;
+	private volatile Map<WebRequestProcessor, ProcessorMetrics> processorsMetrics = null;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private volatile SynchronizationPoint<NoException> retired = null;
+	private final AtomicBoolean idle = new AtomicBoolean(false);
 	
 	public void addConfiguration(Configuration config) {
 		checkConfig(config);
 		configs.add(config);
+		if (indexed)
+			index = new RoutingIndex(configs);
+		invalidateCache();
+		if (metrics != null)
+			setMetrics(metrics);
+	}
+	
+	List<Configuration> getConfigurations() {
+		return configs;
+	}
+	
+	/** Return the processors of this router, including the ones contained in bundles. */
+	public List<WebRequestProcessor> getAllProcessors() {
+		List<WebRequestProcessor> list = new ArrayList<>();
+		Set<WebRequestProcessor> done = new HashSet<>();
+		for (Configuration cfg : configs)
+			if (cfg.processorByPath != null)
+				for (Pair<String, WebRequestProcessor> p : cfg.processorByPath)
+					getAllProcessors(p.getValue2(), list, done);
+		return list;
+	}
+	
+	private static void getAllProcessors(WebRequestProcessor processor, List<WebRequestProcessor> list, Set<WebRequestProcessor> done) {
+		if (!done.add(processor)) return;
+		list.add(processor);
+		if (processor instanceof WebResourcesBundle) {
+			List<Pair<String, WebRequestProcessor>> processors = ((WebResourcesBundle)processor).getProcessors();
+			synchronized (processors) {
+				for (Pair<String, WebRequestProcessor> p : processors)
+					getAllProcessors(p.getValue2(), list, done);
+			}
+		}
+	}
+	
+	/** Register a request about to be routed by this router.
+	 * It returns false if this router has been retired, in which case the request must not be routed to it,
+	 * else {@link #leave()} must be called once the request has been processed.
+	 */
+	public boolean enter() {
+		inFlight.incrementAndGet();
+		if (retired == null)
+			return true;
+		leave();
+		return false;
+	}
+	
+	/** Signal the end of a request registered by {@link #enter()}. */
+	public void leave() {
+		if (inFlight.decrementAndGet() == 0)
+			checkIdle();
+	}
+	
+	/** Return the number of requests registered by {@link #enter()} and not yet done. */
+	public int getInFlightRequests() {
+		return inFlight.get();
+	}
+	
+	/** Refuse new requests, and return a synchronization point unblocked once the requests in progress are done,
+	 * so the processors of this router can be disposed.
+	 */
+	public synchronized ISynchronizationPoint<NoException> retire() {
+		if (retired == null) {
+			retired = new SynchronizationPoint<>();
+			checkIdle();
+		}
+		return retired;
+	}
+	
+	private void checkIdle() {
+		SynchronizationPoint<NoException> sp = retired;
+		if (sp != null && inFlight.get() == 0 && idle.compareAndSet(false, true))
+			sp.unblock();
+	}
+	
+	/** Record metrics about the routed processors in the given registry, or stop recording if null.
+	 * The bundles routed by this router record the metrics of their processors and filters in the same registry.
+	 */
+	public void setMetrics(WebMetrics metrics) {
+		this.metrics = metrics;
+		if (metrics == null) {
+			processorsMetrics = null;
+			return;
+		}
+		Map<WebRequestProcessor, ProcessorMetrics> map = new IdentityHashMap<>();
+		// processors of the same class at the same path in different configurations are distinguished by a number
+		Map<String, Integer> sameIds = new HashMap<>();
+		for (Configuration cfg : configs) {
+			if (cfg.processorByPath == null) continue;
+			for (Pair<String, WebRequestProcessor> p : cfg.processorByPath) {
+				if (map.containsKey(p.getValue2())) continue;
+				String id = WebMetrics.getId(p.getValue2());
+				Integer nb = sameIds.get(p.getValue1() + ' ' + id);
+				sameIds.put(p.getValue1() + ' ' + id, Integer.valueOf(nb == null ? 1 : nb.intValue() + 1));
+				if (nb != null)
+					id += "#" + nb;
+				map.put(p.getValue2(), metrics.get(ProcessorMetrics.Type.PROCESSOR, p.getValue1(), id));
+				if (p.getValue2() instanceof WebResourcesBundle) {
+					WebResourcesBundle bundle = (WebResourcesBundle)p.getValue2();
+					if (bundle.getMetrics() == null || bundle.getMetrics() == metrics)
+						bundle.setMetrics(metrics, p.getValue1());
+				}
+			}
+		}
+		processorsMetrics = map;
+	}
+	
+	/** Return the registry where metrics are recorded, or null. */
+	public WebMetrics getMetrics() {
+		return metrics;
 	}
 	
 	private void checkConfig(Configuration config) {
@@ -67,6 +205,48 @@ public class WebRequestRouter implements WebRequestProcessor {
 			}
 	}
 	
+	/** When indexed, the configurations are compiled into hash tables by IP address and hostname,
+	 * instead of being checked in order for each request.
+	 */
+	public void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+		index = indexed ? new RoutingIndex(configs) : null;
+		invalidateCache();
+	}
+	
+	public boolean isIndexed() {
+		return indexed;
+	}
+	
+	/** Set the maximum number of routing decisions to remember, 0 to disable the routing cache.
+	 * Decisions are remembered by hostname, local address, method and path, only when all the processors
+	 * checked to take the decision declare it as cacheable (see {@link WebRequestProcessor#isRoutingCacheable(WebRequest)}).
+	 * Requests without processor are never remembered.
+	 */
+	public void setCacheSize(int size) {
+		cacheSize = size;
+		invalidateCache();
+	}
+	
+	public int getCacheSize() {
+		return cacheSize;
+	}
+	
+	/** Forget the routing decisions, this is automatically called when the configuration of the routing changes. */
+	public void invalidateCache() {
+		cache = cacheSize > 0 ? new ClockCache<>(cacheSize, null) : null;
+	}
+	
+	/** Number of requests routed using the cache. */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+	
+	/** Number of requests routed without the cache, while it is enabled. */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+	
 	@Override
 	public WebRequestProcessor getParent() {
 		return parent;
@@ -79,91 +259,351 @@ public class WebRequestRouter implements WebRequestProcessor {
 	
 	@Override
 	public Object checkProcessing(WebRequest request) {
-		String hostname = request.getRequest().getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST);
+		String hostname = request.getHostname();
 		if (hostname == null)
 			return null;
-		int i = hostname.indexOf(':');
-		if (i > 0) hostname = hostname.substring(0, i);
-		hostname = hostname.trim().toLowerCase();
 		InetSocketAddress localAddr;
 		try { localAddr = (InetSocketAddress)request.getClient().getLocalAddress(); }
 		catch (IOException e) { return null; }
+		ClockCache<RouteKey, CachedRoute> c = cache;
+		if (c == null)
+			return resolve(request, hostname, localAddr.getAddress());
+		RouteKey key = new RouteKey(hostname, localAddr.getAddress(), request.getRequest().getMethod(), request.getSubPath());
+		CachedRoute route = c.get(key);
+		if (route != null) {
+			Object o = route.check(request);
+			if (o != null) {
+				cacheHits.increment();
+				return o;
+			}
+			// the processor does not accept the request anymore
+		}
+		cacheMisses.increment();
+		request.routingCacheable = true;
+		Object o = resolve(request, hostname, localAddr.getAddress());
+		// requests without processor are not cached, so random paths do not evict useful routes
+		if (o != null && request.routingCacheable)
+			c.put(key, new CachedRoute(o));
+		else if (route != null)
+			c.remove(key);
+		return o;
+	}
+	
+	private Object resolve(WebRequest request, String hostname, InetAddress localAddress) {
+		RoutingIndex idx = index;
+		if (idx != null) {
+			for (Configuration cfg : idx.get(localAddress, hostname)) {
+				Object o = checkProcessing(cfg, request);
+				if (o != null)
+					return o;
+			}
+			return null;
+		}
 		for (Configuration cfg : configs) {
-			if (cfg.hostnames != null && !cfg.hostnames.isEmpty())
-				if (!cfg.hostnames.contains(hostname))
-					continue;
-			if (cfg.ipAddresses != null && !cfg.ipAddresses.isEmpty()) {
-				boolean ok = false;
-				for (byte[] a : cfg.ipAddresses)
-					if (ArrayUtil.equals(a, localAddr.getAddress().getAddress())) {
-						ok = true;
-						break;
-					}
-				if (!ok) continue;
+			if (!accept(cfg, hostname, localAddress))
+				continue;
+			Object o = checkProcessing(cfg, request);
+			if (o != null)
+				return o;
+		}
+		return null;
+	}
+	
+	private static Object checkProcessing(Configuration cfg, WebRequest request) {
+		if (cfg.processorByPath == null)
+			return null;
+		int offset = request.getSubPathOffset();
+		String myPath = offset < 0 ? request.getCurrentPath() : null;
+		String subPath = offset < 0 ? request.getSubPath() : null;
+		for (Pair<String, WebRequestProcessor> p : cfg.processorByPath) {
+			if (offset >= 0 ? request.getFullPath().startsWith(p.getValue1(), offset) : subPath.startsWith(p.getValue1())) {
+				request.enterPath(p.getValue1());
+				// a bundle checks itself the processors it contains
+				if (p.getValue2().getClass() != WebResourcesBundle.class && !p.getValue2().isRoutingCacheable(request))
+					request.routingCacheable = false;
+				Object o = p.getValue2().checkProcessing(request);
+				request.restorePath(offset, myPath, subPath);
+				if (o != null)
+					return new Triple<>(p.getValue1(), p.getValue2(), o);
 			}
-			if (cfg.processorByPath != null)
-				for (Pair<String, WebRequestProcessor> p : cfg.processorByPath) {
-					if (request.getSubPath().startsWith(p.getValue1())) {
-						String myPath = request.getCurrentPath();
-						String subPath = request.getSubPath();
-						request.setPath(myPath + p.getValue1(), subPath.substring(p.getValue1().length()));
-						Object o = p.getValue2().checkProcessing(request);
-						request.setPath(myPath, subPath);
-						if (o != null)
-							return new Triple<>(p.getValue1(), p.getValue2(), o);
-					}
-				}
 		}
 		return null;
 	}
 	
+	/** Return the processor selected by {@link #checkProcessing(WebRequest)}, looking inside the bundles. */
+	static WebRequestProcessor getRoutedProcessor(Object fromCheck) {
+		@SuppressWarnings("unchecked")
+		Triple<String, WebRequestProcessor, Object> t = (Triple<String, WebRequestProcessor, Object>)fromCheck;
+		if (t.getValue2().getClass() == WebResourcesBundle.class)
+			return WebResourcesBundle.getCheckedRoute(t.getValue3()).processor;
+		return t.getValue2();
+	}
+	
 	@Override
 	public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
 		@SuppressWarnings("unchecked")
 		Triple<String, WebRequestProcessor, Object> t = (Triple<String, WebRequestProcessor, Object>)fromCheck;
-		request.setPath(request.getCurrentPath() + t.getValue1(), request.getSubPath().substring(t.getValue1().length()));
-		return t.getValue2().process(t.getValue3(), request);
+		request.enterPath(t.getValue1());
+		Map<WebRequestProcessor, ProcessorMetrics> map = processorsMetrics;
+		ProcessorMetrics m = map != null ? map.get(t.getValue2()) : null;
+		if (m == null)
+			return t.getValue2().process(t.getValue3(), request);
+		long start = m.start();
+		ISynchronizationPoint<? extends Exception> sp = t.getValue2().process(t.getValue3(), request);
+		m.end(start, sp, request.getResponse());
+		return sp;
 	}
 	
 	@Override
 	public WebSocketHandler getWebSocketHandler(TCPServerClient client, HTTPRequest request, String path, String[] protocols) {
-		String hostname = request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST);
+		String hostname = WebRequest.parseHostname(request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST));
 		if (hostname == null)
 			return null;
-		int i = hostname.indexOf(':');
-		if (i > 0) hostname = hostname.substring(0, i);
-		hostname = hostname.trim().toLowerCase();
 		InetSocketAddress localAddr;
 		try { localAddr = (InetSocketAddress)client.getLocalAddress(); }
 		catch (IOException e) { return null; }
+		RoutingIndex idx = index;
+		if (idx != null) {
+			for (Configuration cfg : idx.get(localAddr.getAddress(), hostname)) {
+				WebSocketHandler handler = getWebSocketHandler(cfg, client, request, path, protocols);
+				if (handler != null)
+					return handler;
+			}
+			return null;
+		}
 		for (Configuration cfg : configs) {
-			if (cfg.hostnames != null && !cfg.hostnames.isEmpty())
-				if (!cfg.hostnames.contains(hostname))
+			if (!accept(cfg, hostname, localAddr.getAddress()))
+				continue;
+			WebSocketHandler handler = getWebSocketHandler(cfg, client, request, path, protocols);
+			if (handler != null)
+				return handler;
+		}
+		return null;
+	}
+	
+	private static WebSocketHandler getWebSocketHandler(
+		Configuration cfg, TCPServerClient client, HTTPRequest request, String path, String[] protocols
+	) {
+		if (cfg.processorByPath != null)
+			for (Pair<String, WebRequestProcessor> p : cfg.processorByPath) {
+				if (path.startsWith(p.getValue1())) {
+					String subPath = path.substring(p.getValue1().length());
+					WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, subPath, protocols);
+					if (handler != null)
+						return handler;
+				} else if (p.getValue1().length() > 0 && path.equals(p.getValue1().substring(0, p.getValue1().length() - 1))) {
+					WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, "", protocols);
+					if (handler != null)
+						return handler;
+				}
+			}
+		return null;
+	}
+	
+	private static boolean accept(Configuration cfg, String hostname, InetAddress localAddress) {
+		if (cfg.hostnames != null && !cfg.hostnames.isEmpty()) {
+			boolean ok = false;
+			for (String h : cfg.hostnames)
+				if (matchHostname(h, hostname)) {
+					ok = true;
+					break;
+				}
+			if (!ok) return false;
+		}
+		if (cfg.ipAddresses != null && !cfg.ipAddresses.isEmpty()) {
+			byte[] ip = localAddress.getAddress();
+			for (byte[] a : cfg.ipAddresses)
+				if (ArrayUtil.equals(a, ip))
+					return true;
+			return false;
+		}
+		return true;
+	}
+	
+	private static boolean isWildcard(String pattern) {
+		return pattern.startsWith("*.");
+	}
+	
+	private static boolean matchHostname(String pattern, String hostname) {
+		if (!isWildcard(pattern))
+			return pattern.equals(hostname);
+		// *.example.com => .example.com must be a strict suffix
+		return hostname.length() > pattern.length() - 1 && hostname.regionMatches(hostname.length() - pattern.length() + 1, pattern, 1, pattern.length() - 1);
+	}
+	
+	private static final class RouteKey {
+		
+		private RouteKey(String hostname, InetAddress localAddress, HTTPRequest.Method method, String path) {
+			this.hostname = hostname;
+			this.localAddress = localAddress;
+			this.method = method;
+			this.path = path;
+			int h = hostname.hashCode();
+			h = h * 31 + localAddress.hashCode();
+			h = h * 31 + (method != null ? method.hashCode() : 0);
+			h = h * 31 + path.hashCode();
+			hash = h;
+		}
+		
+		private String hostname;
+		private InetAddress localAddress;
+		private HTTPRequest.Method method;
+		private String path;
+		private int hash;
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RouteKey)) return false;
+			RouteKey k = (RouteKey)obj;
+			return hash == k.hash && method == k.method && path.equals(k.path) && hostname.equals(k.hostname)
+				&& localAddress.equals(k.localAddress);
+		}
+		
+	}
+	
+	/** A routing decision: the processor selected by the router, and the route selected inside a bundle. */
+	private static final class CachedRoute {
+		
+		private CachedRoute(Object fromCheck) {
+			@SuppressWarnings("unchecked")
+			Triple<String, WebRequestProcessor, Object> t = (Triple<String, WebRequestProcessor, Object>)fromCheck;
+			path = t.getValue1();
+			processor = t.getValue2();
+			bundleRoute = processor.getClass() == WebResourcesBundle.class ? WebResourcesBundle.getCheckedRoute(t.getValue3()) : null;
+		}
+		
+		private final String path;
+		private final WebRequestProcessor processor;
+		private final BundlePipeline.Route bundleRoute;
+		
+		/** Check again the selected processor for a new request. */
+		private Object check(WebRequest request) {
+			int offset = request.getSubPathOffset();
+			String myPath = offset < 0 ? request.getCurrentPath() : null;
+			String subPath = offset < 0 ? request.getSubPath() : null;
+			request.enterPath(path);
+			Object o;
+			if (bundleRoute != null)
+				o = ((WebResourcesBundle)processor).checkRoute(bundleRoute, request);
+			else
+				o = processor.checkProcessing(request);
+			request.restorePath(offset, myPath, subPath);
+			if (o == null) return null;
+			return new Triple<>(path, processor, o);
+		}
+		
+	}
+	
+	/**
+	 * Routing configurations compiled by local IP address and hostname.
+	 * For each known IP address (plus one for any other address), a HostIndex gives the eligible
+	 * configurations for a hostname, in the same order as they are declared.
+	 */
+	private static final class RoutingIndex {
+		
+		private RoutingIndex(List<Configuration> configs) {
+			Set<InetAddress> ips = new HashSet<>();
+			for (Configuration cfg : configs)
+				if (cfg.ipAddresses != null)
+					for (byte[] a : cfg.ipAddresses) {
+						try { ips.add(InetAddress.getByAddress(a)); }
+						catch (UnknownHostException e) { /* invalid address cannot match */ }
+					}
+			for (InetAddress ip : ips)
+				byIP.put(ip, new HostIndex(configs, ip));
+			anyIP = new HostIndex(configs, null);
+		}
+		
+		private HashMap<InetAddress, HostIndex> byIP = new HashMap<>();
+		private HostIndex anyIP;
+		
+		private Configuration[] get(InetAddress localAddress, String hostname) {
+			HostIndex hosts = byIP.get(localAddress);
+			if (hosts == null) hosts = anyIP;
+			return hosts.get(hostname);
+		}
+		
+	}
+	
+	private static final class HostIndex {
+		
+		private HostIndex(List<Configuration> allConfigs, InetAddress ip) {
+			// keep only configurations eligible for this IP
+			List<Configuration> configs = new ArrayList<>();
+			for (Configuration cfg : allConfigs) {
+				if (cfg.ipAddresses != null && !cfg.ipAddresses.isEmpty()) {
+					if (ip == null) continue;
+					boolean ok = false;
+					for (byte[] a : cfg.ipAddresses)
+						if (ArrayUtil.equals(a, ip.getAddress())) {
+							ok = true;
+							break;
+						}
+					if (!ok) continue;
+				}
+				configs.add(cfg);
+			}
+			// collect the hostnames and wildcard suffixes
+			Set<String> names = new HashSet<>();
+			Set<String> suffixes = new HashSet<>();
+			for (Configuration cfg : configs)
+				if (cfg.hostnames != null)
+					for (String h : cfg.hostnames)
+						if (isWildcard(h))
+							suffixes.add(h.substring(1));
+						else
+							names.add(h);
+			for (String name : names)
+				exact.put(name, select(configs, name));
+			for (String suffix : suffixes)
+				// a hostname with this suffix, used to select the configurations
+				wildcards.put(suffix, select(configs, '*' + suffix));
+			anyHost = select(configs, null);
+		}
+		
+		private Map<String, Configuration[]> exact = new HashMap<>();
+		/** Wildcard entries, by suffix starting with a dot. */
+		private Map<String, Configuration[]> wildcards = new HashMap<>();
+		private Configuration[] anyHost;
+		
+		/** Select the configurations accepting the given hostname, or accepting any hostname if null. */
+		private static Configuration[] select(List<Configuration> configs, String hostname) {
+			List<Configuration> list = new ArrayList<>();
+			for (Configuration cfg : configs) {
+				if (cfg.hostnames == null || cfg.hostnames.isEmpty()) {
+					list.add(cfg);
 					continue;
-			if (cfg.ipAddresses != null && !cfg.ipAddresses.isEmpty()) {
-				boolean ok = false;
-				for (byte[] a : cfg.ipAddresses)
-					if (ArrayUtil.equals(a, localAddr.getAddress().getAddress())) {
-						ok = true;
+				}
+				if (hostname == null) continue;
+				for (String h : cfg.hostnames)
+					if (matchHostname(h, hostname)) {
+						list.add(cfg);
 						break;
 					}
-				if (!ok) continue;
 			}
-			if (cfg.processorByPath != null)
-				for (Pair<String, WebRequestProcessor> p : cfg.processorByPath) {
-					if (path.startsWith(p.getValue1())) {
-						String subPath = path.substring(p.getValue1().length());
-						WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, subPath, protocols);
-						if (handler != null)
-							return handler;
-					} else if (p.getValue1().length() > 0 && path.equals(p.getValue1().substring(0, p.getValue1().length() - 1))) {
-						WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, "", protocols);
-						if (handler != null)
-							return handler;
-					}
+			return list.toArray(new Configuration[list.size()]);
+		}
+		
+		private Configuration[] get(String hostname) {
+			Configuration[] list = exact.get(hostname);
+			if (list != null) return list;
+			if (!wildcards.isEmpty()) {
+				// look for the longest suffix
+				int i = hostname.indexOf('.');
+				while (i >= 0) {
+					list = wildcards.get(hostname.substring(i));
+					if (list != null) return list;
+					i = hostname.indexOf('.', i + 1);
 				}
+			}
+			return anyHost;
 		}
-		return null;
+		
 	}
 	
 }
@@ -5,19 +5,20 @@ import java.io.FileNotFoundException;
 import java.lang.annotation.Annotation;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.lecousin.framework.application.Application;
 import net.lecousin.framework.application.LCCore;
+import net.lecousin.framework.concurrent.CancelException;
 import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
 import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
 import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
-import net.lecousin.framework.exception.NoException;
 import net.lecousin.framework.injection.Injection;
 import net.lecousin.framework.injection.InjectionContext;
 import net.lecousin.framework.injection.ObjectAttribute;
@@ -34,6 +35,7 @@ import net.lecousin.framework.io.serialization.rules.SerializationRule;
 import net.lecousin.framework.json.JSONDeserializer;
 import net.lecousin.framework.json.JSONSerializer;
 import net.lecousin.framework.network.http.HTTPRequest;
+import net.lecousin.framework.network.http.exception.HTTPResponseError;
 import net.lecousin.framework.network.http.websocket.WebSocketDispatcher.WebSocketHandler;
 import net.lecousin.framework.network.http.websocket.WebSocketDispatcher.WebSocketRouter;
 import net.lecousin.framework.network.mime.header.ParameterizedHeaderValue;
@@ -41,8 +43,11 @@ import net.lecousin.framework.network.server.TCPServerClient;
 import net.lecousin.framework.plugins.ExtensionPoints;
 import net.lecousin.framework.util.Pair;
 import net.lecousin.framework.util.Provider;
-import net.lecousin.framework.util.Triple;
 import net.lecousin.framework.util.UnprotectedStringBuffer;
+import net.lecousin.framework.web.WebRequestFilter.FilterResult;
+import net.lecousin.framework.web.jfr.WebEvents;
+import net.lecousin.framework.web.metrics.ProcessorMetrics;
+import net.lecousin.framework.web.metrics.WebMetrics;
 import net.lecousin.framework.web.services.WebService;
 import net.lecousin.framework.web.services.WebServiceProvider;
 import net.lecousin.framework.web.services.WebServiceProviderPlugin;
@@ -101,9 +106,13 @@ public class WebResourcesBundle implements WebRequestProcessor {
 	/** Pre-processing. */
 	@Transient
 	private List<WebRequestFilter> preProcessing = new ArrayList<>();
-	/** Association between a sub-path, and a processor. A sub-path must end with a / or be empty. */
+	/** Association between a sub-path, and a processor. A sub-path should end with a / or be empty,
+	 * else it matches any requested path starting with it. */
 	@Transient
 	private List<Pair<String, WebRequestProcessor>> processors = new ArrayList<>();
+	/** Index of processors by sub-path, re-built each time the list of processors changes. */
+	@Transient
+	private volatile PathTrie<WebRequestProcessor> processorsIndex = new PathTrie<>();
 	/** Post-processing. */
 	@Transient
 	private List<WebRequestFilter> postProcessing = new ArrayList<>();
@@ -123,6 +132,33 @@ public class WebResourcesBundle implements WebRequestProcessor {
 	private Map<String, Provider.FromValue<Pair<Class<?>, Charset>, Serializer>> serializersByMimeType = new HashMap<>();
 	@Transient
 	private List<SerializationRule> serializationRules = new ArrayList<>();
+	/** Maximum number of filters executed consecutively in the same task. */
+	@Transient
+	private int maxInlineFilters = DEFAULT_MAX_INLINE_FILTERS;
+	
+	/** Routes compiled with the nested bundles, null when it needs to be compiled. */
+	@Transient
+	private volatile BundlePipeline pipeline = null;
+	@Transient
+	private final Object pipelineLock = new Object();
+	/** Metrics, null to use the ones of the parent. */
+	@Transient
+	private WebMetrics metrics = null;
+	/** Path of this bundle, used as prefix in the metrics. */
+	@Transient
+	private String metricsPath = "";
+	/** Priority of the tasks processing the requests, null to use the one of the parent. */
+	@Transient
+	private Byte priority = null;
+	/** Priorities configured for some processors, overriding the priority of the bundle. */
+	@Transient
+	private Map<WebRequestProcessor, Byte> processorsPriority = new IdentityHashMap<>();
+	/** Identifiers configured for the processors and filters, used by the metrics. */
+	@Transient
+	private Map<Object, String> configuredIds = new IdentityHashMap<>();
+	
+	/** Default maximum number of filters executed consecutively in the same task. */
+	public static final int DEFAULT_MAX_INLINE_FILTERS = 16;
 	
 	@Override
 	public WebRequestProcessor getParent() {
@@ -145,17 +181,146 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		return parent.getInjectionContext();
 	}
 	
+	/** Return the maximum number of filters already done that are executed consecutively in the same task. */
+	public int getMaxInlineFilters() {
+		return maxInlineFilters;
+	}
+	
+	/** Set the maximum number of filters that can be executed consecutively in the same task when their result
+	 * is already available. When a filter needs to wait, or this maximum is reached, the processing continues
+	 * in a new task. A value of 0 means the processing always continues in a new task after each filter.
+	 */
+	public void setMaxInlineFilters(int max) {
+		maxInlineFilters = max;
+	}
+	
+	/** Record metrics about the processors and filters of this bundle, and of the nested bundles,
+	 * in the given registry, or null to use the registry of the parent.
+	 */
+	public void setMetrics(WebMetrics metrics) {
+		setMetrics(metrics, "");
+	}
+	
+	void setMetrics(WebMetrics metrics, String path) {
+		this.metrics = metrics;
+		this.metricsPath = path;
+		invalidatePipeline();
+	}
+	
+	/** Return the registry where metrics are recorded, or null if metrics are not enabled. */
+	public WebMetrics getMetrics() {
+		if (metrics != null)
+			return metrics;
+		if (parent instanceof WebResourcesBundle)
+			return ((WebResourcesBundle)parent).getMetrics();
+		if (parent instanceof WebRequestRouter)
+			return ((WebRequestRouter)parent).getMetrics();
+		return null;
+	}
+	
+	String getMetricsPath() {
+		return metricsPath;
+	}
+	
+	/** Return the id attribute configured for the given processor or filter, or null. */
+	String getConfiguredId(Object processorOrFilter) {
+		synchronized (configuredIds) {
+			return configuredIds.get(processorOrFilter);
+		}
+	}
+	
+	private void setConfiguredId(Object processorOrFilter, String id) {
+		synchronized (configuredIds) {
+			configuredIds.put(processorOrFilter, id);
+		}
+	}
+	
+	/** Set the priority of the tasks processing the requests routed to this bundle, null to use the one of the parent. */
+	public void setPriority(Byte priority) {
+		this.priority = priority;
+		invalidatePipeline();
+	}
+	
+	/** Return the priority of the tasks processing the requests routed to this bundle, or null if not specified. */
+	public Byte getPriority() {
+		if (priority != null)
+			return priority;
+		if (parent instanceof WebResourcesBundle)
+			return ((WebResourcesBundle)parent).getPriority();
+		return null;
+	}
+	
+	/** Set the priority of the tasks processing the requests routed to the given processor of this bundle,
+	 * null to use the priority of the bundle. */
+	public void setPriority(WebRequestProcessor processor, Byte priority) {
+		synchronized (processorsPriority) {
+			if (priority == null)
+				processorsPriority.remove(processor);
+			else
+				processorsPriority.put(processor, priority);
+		}
+		invalidatePipeline();
+	}
+	
+	/** Return the priority of the tasks processing the requests routed to the given processor, or null if not specified. */
+	public Byte getPriority(WebRequestProcessor processor) {
+		Byte p;
+		synchronized (processorsPriority) {
+			p = processorsPriority.get(processor);
+		}
+		return p != null ? p : getPriority();
+	}
+	
+	/** Parse a priority: urgent, important, normal, low, background, or a number between
+	 * {@link Task#PRIORITY_URGENT} and {@link Task#PRIORITY_BACKGROUND}. */
+	public static byte parsePriority(String value) throws Exception {
+		String s = value.trim().toLowerCase();
+		switch (s) {
+		case "urgent": return Task.PRIORITY_URGENT;
+		case "important": return Task.PRIORITY_IMPORTANT;
+		case "normal": return Task.PRIORITY_NORMAL;
+		case "low": return Task.PRIORITY_LOW;
+		case "background": return Task.PRIORITY_BACKGROUND;
+		default:
+			byte p;
+			try { p = Byte.parseByte(s); }
+			catch (NumberFormatException e) {
+				throw new Exception("Invalid priority: " + value);
+			}
+			return checkPriority(p, value);
+		}
+	}
+	
+	private static byte checkPriority(byte p, Object value) throws Exception {
+		if (p < Task.PRIORITY_URGENT || p > Task.PRIORITY_BACKGROUND)
+			throw new Exception("Invalid priority: " + value);
+		return p;
+	}
+	
 	public void addPreProcessor(WebRequestFilter filter) {
 		preProcessing.add(filter);
+		invalidatePipeline();
 	}
 
 	public void addPostProcessor(WebRequestFilter filter) {
 		postProcessing.add(filter);
+		invalidatePipeline();
+	}
+	
+	public List<WebRequestFilter> getPreProcessors() {
+		return preProcessing;
+	}
+	
+	public List<WebRequestFilter> getPostProcessors() {
+		return postProcessing;
 	}
 	
 	public void addProcessor(String path, WebRequestProcessor processor) {
 		processor.setParent(this);
-		processors.add(new Pair<>(path, processor));
+		synchronized (processors) {
+			processors.add(new Pair<>(path, processor));
+		}
+		processorsChanged();
 	}
 	
 	public void addService(String path, WebService service) throws Exception {
@@ -166,23 +331,70 @@ public class WebResourcesBundle implements WebRequestProcessor {
 			throw new Exception("No WebServiceProvider available for web service class " + service.getClass().getName());
 		
 		Injection.inject(ctx, service);
+		Byte servicePriority = getServicePriority(service.getClass());
 		
 		for (WebServiceProviderPlugin plugin : plugins) {
 			WebServiceProvider<?> provider = plugin.createProvider(this, service);
 			Injection.inject(ctx, provider);
+			if (servicePriority != null)
+				setPriority(provider, servicePriority);
 	
 			if (path == null)
 				path = provider.getDefaultPath();
 			if (!path.isEmpty() && !path.endsWith("/"))
 				path += "/";
-			processors.add(new Pair<>(path, provider));
+			synchronized (processors) {
+				processors.add(new Pair<>(path, provider));
+			}
 		}
+		processorsChanged();
 	}
 	
+	/** Return the list of processors. If it is modified directly, {@link #processorsChanged()} must be called. */
 	public List<Pair<String, WebRequestProcessor>> getProcessors() {
 		return processors;
 	}
 	
+	/** Build the index of processors and invalidate the compiled routes, after the list of processors has been modified.
+	 * The index is built once at the end of the configuration, so adding several processors from a configuration file
+	 * does not rebuild it each time.
+	 */
+	public void processorsChanged() {
+		synchronized (processors) {
+			PathTrie<WebRequestProcessor> index = new PathTrie<>();
+			for (Pair<String, WebRequestProcessor> p : processors)
+				index.add(p.getValue1(), p.getValue2());
+			// published under the lock, so a concurrent modification cannot publish an older index
+			processorsIndex = index;
+		}
+		invalidatePipeline();
+	}
+	
+	/** Return the routes of this bundle, compiled with its nested bundles. */
+	private BundlePipeline getPipeline() {
+		BundlePipeline p = pipeline;
+		// the list may have been modified directly
+		if (p != null && p.getProcessorsCount() == processors.size())
+			return p;
+		synchronized (pipelineLock) {
+			p = pipeline;
+			if (p == null || p.getProcessorsCount() != processors.size())
+				pipeline = p = BundlePipeline.compile(this);
+		}
+		return p;
+	}
+	
+	/** Invalidate the compiled routes of this bundle and of its parents, because they may include this one. */
+	void invalidatePipeline() {
+		synchronized (pipelineLock) {
+			pipeline = null;
+		}
+		if (parent instanceof WebResourcesBundle)
+			((WebResourcesBundle)parent).invalidatePipeline();
+		else if (parent instanceof WebRequestRouter)
+			((WebRequestRouter)parent).invalidateCache();
+	}
+	
 	public Deserializer getDeserializer(WebRequest request, Class<?> type) {
 		ParameterizedHeaderValue t;
 		try { t = request.getRequest().getMIME().getContentType(); }
@@ -237,141 +449,325 @@ public class WebResourcesBundle implements WebRequestProcessor {
 	
 	@Override
 	public Object checkProcessing(WebRequest request) {
-		List<Pair<String, WebRequestProcessor>> list = getProcessors(request.getSubPath());
-		if (list.isEmpty()) return null;
-		String myPath = request.getCurrentPath();
-		String subPath = request.getSubPath();
-		for (Pair<String, WebRequestProcessor> p : list) {
-			request.setPath(myPath + p.getValue1(), subPath.length() > p.getValue1().length() ? subPath.substring(p.getValue1().length()) : "");
-			Object o = p.getValue2().checkProcessing(request);
-			if (o != null) {
-				request.setPath(myPath, subPath);
-				return new Triple<String, WebRequestProcessor, Object>(p.getValue1(), p.getValue2(), o);
-			}
+		int offset = request.getSubPathOffset();
+		String myPath = null;
+		String subPath = null;
+		BundlePipeline.Route[] routes;
+		if (offset >= 0)
+			routes = getPipeline().match(request.getFullPath(), offset);
+		else {
+			myPath = request.getCurrentPath();
+			subPath = request.getSubPath();
+			routes = getPipeline().match(subPath, 0);
+		}
+		for (BundlePipeline.Route route : routes) {
+			request.enterPath(route.path);
+			if (!route.processor.isRoutingCacheable(request))
+				request.routingCacheable = false;
+			Object o = checkRouteProcessor(route, request);
+			request.restorePath(offset, myPath, subPath);
+			if (o != null)
+				return new Pair<BundlePipeline.Route, Object>(route, o);
 		}
-		request.setPath(myPath, subPath);
 		return null;
 	}
 	
+	/** Return the route selected by {@link #checkProcessing(WebRequest)}. */
+	static BundlePipeline.Route getCheckedRoute(Object fromCheck) {
+		@SuppressWarnings("unchecked")
+		Pair<BundlePipeline.Route, Object> check = (Pair<BundlePipeline.Route, Object>)fromCheck;
+		return check.getValue1();
+	}
+	
+	/** Check again a route previously selected by {@link #checkProcessing(WebRequest)}, for a new request.
+	 * Return null if the routes have been compiled again since, or the processor of the route does not accept the request.
+	 */
+	Object checkRoute(BundlePipeline.Route route, WebRequest request) {
+		if (route.pipeline != getPipeline())
+			return null;
+		int offset = request.getSubPathOffset();
+		String myPath = offset < 0 ? request.getCurrentPath() : null;
+		String subPath = offset < 0 ? request.getSubPath() : null;
+		request.enterPath(route.path);
+		Object o = checkRouteProcessor(route, request);
+		request.restorePath(offset, myPath, subPath);
+		if (o == null)
+			return null;
+		return new Pair<BundlePipeline.Route, Object>(route, o);
+	}
+	
+	private static Object checkRouteProcessor(BundlePipeline.Route route, WebRequest request) {
+		if (route.processorMetrics == null)
+			return route.processor.checkProcessing(request);
+		long start = System.nanoTime();
+		Object o = route.processor.checkProcessing(request);
+		route.processorMetrics.checked(start);
+		return o;
+	}
+	
 	@Override
 	public ISynchronizationPoint<Exception> process(Object fromCheck, WebRequest request) {
 		@SuppressWarnings("unchecked")
-		Triple<String, WebRequestProcessor, Object> t = (Triple<String, WebRequestProcessor, Object>)fromCheck;
+		Pair<BundlePipeline.Route, Object> check = (Pair<BundlePipeline.Route, Object>)fromCheck;
 		SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
-		preProcess(0, request, t.getValue2(), t.getValue1(), t.getValue3(), sp);
+		new Execution(check.getValue1(), check.getValue2(), request, sp).preProcess(0, 0);
 		return sp;
 	}
 	
-	private void preProcess(
-		int preProcessorIndex, WebRequest request,
-		WebRequestProcessor processor, String processorPath, Object processorCheck,
-		SynchronizationPoint<Exception> sp
-	) {
-		if (sp.isCancelled()) return;
-		if (preProcessorIndex == preProcessing.size()) {
-			// end of pre-processing
-			String myPath = request.getCurrentPath();
-			String subPath = request.getSubPath();
-			request.setPath(myPath + processorPath, subPath.length() > processorPath.length() ? subPath.substring(processorPath.length()) : "");
-			ISynchronizationPoint<? extends Exception> process = processor.process(processorCheck, request);
-			sp.onCancel((reason) -> { process.cancel(reason); });
-			process.listenInline(() -> {
-				request.setPath(myPath, subPath);
-				if (process.hasError()) {
-					sp.error(process.getError());
+	/** Continue the processing of a request in a new task, after a filter or a processor. */
+	protected void continueInTask(String description, byte priority, Runnable continuation) {
+		new Task.Cpu.FromRunnable(description, priority, continuation).start();
+	}
+	
+	/** Execution of a compiled route: the filters of all the bundles along the route are executed in sequence,
+	 * the request path being set to the level of the bundle the filter belongs to.
+	 */
+	private final class Execution {
+		
+		private Execution(BundlePipeline.Route route, Object processorCheck, WebRequest request, SynchronizationPoint<Exception> sp) {
+			this.route = route;
+			this.processorCheck = processorCheck;
+			this.request = request;
+			this.sp = sp;
+			if (route.priority >= 0)
+				request.setPriority(route.priority);
+			baseOffset = request.getSubPathOffset();
+			if (baseOffset < 0) {
+				myPath = request.getCurrentPath();
+				subPath = request.getSubPath();
+			}
+			// the deadline may be set later by a filter, the listener is called when it is reached
+			request.onDeadlineExceeded(deadlineListener);
+		}
+		
+		private BundlePipeline.Route route;
+		private Object processorCheck;
+		private WebRequest request;
+		private SynchronizationPoint<Exception> sp;
+		private int baseOffset;
+		private String myPath = null;
+		private String subPath = null;
+		private int level = 0;
+		/** Set once the pre-filters and the processor are done, or the deadline is exceeded, whichever comes first. */
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		/** Filter or processor being waited for, cancelled if the deadline is exceeded. */
+		private volatile ISynchronizationPoint<? extends Exception> pending = null;
+		private final Runnable deadlineListener = this::deadlineExceeded;
+		
+		private void setLevel(int l) {
+			if (l == level) return;
+			level = l;
+			int offset = route.levelOffset[l];
+			if (baseOffset >= 0) {
+				String fullPath = request.getFullPath();
+				if (baseOffset + offset <= fullPath.length()) {
+					request.setSubPathOffset(baseOffset + offset);
 					return;
 				}
-				if (process.isCancelled()) {
-					sp.cancel(process.getCancelEvent());
+				// the requested path is the path of the route without its trailing slash
+				if (myPath == null) {
+					myPath = fullPath.substring(0, baseOffset);
+					subPath = fullPath.substring(baseOffset);
+				}
+			}
+			request.setPath(myPath + route.path.substring(0, offset), subPath.length() > offset ? subPath.substring(offset) : "");
+		}
+		
+		private void preProcess(int preProcessorIndex, int inline) {
+			int index = preProcessorIndex;
+			do {
+				if (sp.isCancelled()) return;
+				if (request.isDeadlineExceeded()) {
+					deadlineExceeded();
 					return;
 				}
-				new Task.Cpu<Void, NoException>("Post-processing of Web request", Task.PRIORITY_NORMAL) {
-					@Override
-					public Void run() {
-						postProcess(0, request, sp);
-						return null;
+				if (index == route.preFilters.length) {
+					// end of pre-processing
+					process(inline);
+					return;
+				}
+				setLevel(route.preLevel[index]);
+				Object event = WebEvents.begin(WebEvents.Kind.PRE_FILTER);
+				AsyncWork<FilterResult, Exception> filtering;
+				if (route.preMetrics == null)
+					filtering = route.preFilters[index].filter(request);
+				else {
+					ProcessorMetrics filterMetrics = route.preMetrics[index];
+					long start = filterMetrics.start();
+					filtering = route.preFilters[index].filter(request);
+					filterMetrics.end(start, filtering);
+				}
+				if (event != null)
+					WebEvents.end(event, request.getFullPath(), route.preFilters[index].getClass(), null, filtering);
+				if (inline < maxInlineFilters && filtering.isSuccessful()) {
+					// the filter is already done, continue in the same task
+					FilterResult result = filtering.getResult();
+					if (result == FilterResult.STOP_PROCESSING) {
+						if (completed.compareAndSet(false, true))
+							postProcess(route.postStart[route.preLevel[index]], inline + 1);
+						return;
 					}
-				}.start();
+					if (result != FilterResult.RESTART_PROCESSING) {
+						index++;
+						inline++;
+						continue;
+					}
+				}
+				int filterIndex = index;
+				pending = filtering;
+				filtering.listenInline(
+					(result) -> {
+						if (sp.isCancelled() || completed.get()) return;
+						continueInTask("Pre-processing of Web request", request.getPriority(), () -> {
+							if (sp.isCancelled() || completed.get()) return;
+							switch (result) {
+							default:
+							case CONTINUE_PROCESSING:
+								preProcess(filterIndex + 1, 0);
+								break;
+							case STOP_PROCESSING:
+								if (completed.compareAndSet(false, true))
+									postProcess(route.postStart[route.preLevel[filterIndex]], 0);
+								break;
+							case RESTART_PROCESSING:
+								// the deadline is handled by the new execution
+								if (completed.compareAndSet(false, true)) {
+									request.removeDeadlineListener(deadlineListener);
+									restart(request, sp);
+								}
+								break;
+							}
+						});
+					},
+					sp
+				);
+				return;
+			} while (true);
+		}
+		
+		private void process(int inline) {
+			setLevel(route.getLevels());
+			ISynchronizationPoint<? extends Exception> process;
+			if (route.processorMetrics == null)
+				process = route.processor.process(processorCheck, request);
+			else {
+				long start = route.processorMetrics.start();
+				process = route.processor.process(processorCheck, request);
+				route.processorMetrics.end(start, process, request.getResponse());
+			}
+			if (process.isUnblocked() && inline < maxInlineFilters) {
+				// the processor is already done, continue with post-processing in the same task
+				processed(process, inline + 1);
+				return;
+			}
+			sp.onCancel((reason) -> { process.cancel(reason); });
+			pending = process;
+			if (completed.get()) {
+				// deadline exceeded while calling the processor
+				process.cancel(new CancelException("Request deadline exceeded"));
+				return;
+			}
+			process.listenInline(() -> {
+				processed(process, -1);
 			});
-			return;
 		}
-		WebRequestFilter filter = preProcessing.get(preProcessorIndex);
-		filter.filter(request).listenInline(
-			(result) -> {
-				if (sp.isCancelled()) return;
-				new Task.Cpu<Void, NoException>("Post-processing of Web request", Task.PRIORITY_NORMAL) {
-					@Override
-					public Void run() {
-						if (sp.isCancelled()) return null;
-						switch (result) {
-						default:
-						case CONTINUE_PROCESSING:
-							preProcess(preProcessorIndex + 1, request, processor, processorPath, processorCheck, sp);
-							break;
-						case STOP_PROCESSING:
-							postProcess(0, request, sp);
-							break;
-						case RESTART_PROCESSING:
-							WebRequestProcessor root = parent;
-							do {
-								WebRequestProcessor p = root.getParent();
-								if (p != null) root = p;
-								else break;
-							} while (true);
-							Object fromCheck = root.checkProcessing(request);
-							ISynchronizationPoint<? extends Exception> p = root.process(fromCheck, request);
-							sp.onCancel((reason) -> { p.cancel(reason); });
-							p.listenInlineSP(sp);
-							break;
-						}
-						return null;
-					}
-				}.start();
-			},
-			sp
-		);
-	}
-	
-	private void postProcess(int postProcessorIndex, WebRequest request, SynchronizationPoint<Exception> sp) {
-		if (postProcessorIndex == postProcessing.size()) {
-			// end of post-processing
-			sp.unblock();
-			return;
-		}
-		if (sp.isCancelled()) return;
-		WebRequestFilter filter = postProcessing.get(postProcessorIndex);
-		filter.filter(request).listenInline(
-			(result) -> {
+		
+		/** Send a 504 status, and cancel the filter or processor being waited for, if the processing is not yet done. */
+		private void deadlineExceeded() {
+			if (!completed.compareAndSet(false, true)) return;
+			sp.error(new HTTPResponseError(504, "Gateway Timeout: request deadline exceeded"));
+			ISynchronizationPoint<? extends Exception> p = pending;
+			if (p != null && !p.isUnblocked())
+				p.cancel(new CancelException("Request deadline exceeded"));
+		}
+		
+		private void processed(ISynchronizationPoint<? extends Exception> process, int inline) {
+			if (!completed.compareAndSet(false, true)) return; // deadline exceeded
+			if (process.hasError()) {
+				setLevel(0);
+				sp.error(process.getError());
+				return;
+			}
+			if (process.isCancelled()) {
+				setLevel(0);
+				sp.cancel(process.getCancelEvent());
+				return;
+			}
+			if (inline >= 0)
+				postProcess(0, inline);
+			else
+				continueInTask("Post-processing of Web request", request.getPriority(), () -> {
+					postProcess(0, 0);
+				});
+		}
+		
+		private void postProcess(int postProcessorIndex, int inline) {
+			int index = postProcessorIndex;
+			do {
+				if (index == route.postFilters.length) {
+					// end of post-processing
+					setLevel(0);
+					sp.unblock();
+					return;
+				}
 				if (sp.isCancelled()) return;
-				new Task.Cpu<Void, NoException>("Post-processing of Web request", Task.PRIORITY_NORMAL) {
-					@Override
-					public Void run() {
-						if (sp.isCancelled()) return null;
-						switch (result) {
-						default:
-						case CONTINUE_PROCESSING:
-						case STOP_PROCESSING:
-							postProcess(postProcessorIndex + 1, request, sp);
-							break;
-						case RESTART_PROCESSING:
-							WebRequestProcessor root = parent;
-							do {
-								WebRequestProcessor p = root.getParent();
-								if (p != null) root = p;
-								else break;
-							} while (true);
-							Object fromCheck = root.checkProcessing(request);
-							ISynchronizationPoint<? extends Exception> p = root.process(fromCheck, request);
-							sp.onCancel((reason) -> { p.cancel(reason); });
-							p.listenInlineSP(sp);
-							break;
-						}
-						return null;
-					}
-				}.start();
-			},
-			sp
-		);
+				setLevel(route.postLevel[index]);
+				Object event = WebEvents.begin(WebEvents.Kind.POST_FILTER);
+				AsyncWork<FilterResult, Exception> filtering;
+				if (route.postMetrics == null)
+					filtering = route.postFilters[index].filter(request);
+				else {
+					ProcessorMetrics filterMetrics = route.postMetrics[index];
+					long start = filterMetrics.start();
+					filtering = route.postFilters[index].filter(request);
+					filterMetrics.end(start, filtering);
+				}
+				if (event != null)
+					WebEvents.end(event, request.getFullPath(), route.postFilters[index].getClass(), null, filtering);
+				if (inline < maxInlineFilters && filtering.isSuccessful() && filtering.getResult() != FilterResult.RESTART_PROCESSING) {
+					// the filter is already done, continue in the same task
+					index++;
+					inline++;
+					continue;
+				}
+				int filterIndex = index;
+				filtering.listenInline(
+					(result) -> {
+						if (sp.isCancelled()) return;
+						continueInTask("Post-processing of Web request", request.getPriority(), () -> {
+							if (sp.isCancelled()) return;
+							switch (result) {
+							default:
+							case CONTINUE_PROCESSING:
+							case STOP_PROCESSING:
+								postProcess(filterIndex + 1, 0);
+								break;
+							case RESTART_PROCESSING:
+								request.removeDeadlineListener(deadlineListener);
+								restart(request, sp);
+								break;
+							}
+						});
+					},
+					sp
+				);
+				return;
+			} while (true);
+		}
+		
+	}
+	
+	private void restart(WebRequest request, SynchronizationPoint<Exception> sp) {
+		WebRequestProcessor root = parent;
+		do {
+			WebRequestProcessor p = root.getParent();
+			if (p != null) root = p;
+			else break;
+		} while (true);
+		Object fromCheck = root.checkProcessing(request);
+		ISynchronizationPoint<? extends Exception> p = root.process(fromCheck, request);
+		sp.onCancel((reason) -> { p.cancel(reason); });
+		p.listenInlineSP(sp);
 	}
 	
 	@Override
@@ -389,16 +785,11 @@ public class WebResourcesBundle implements WebRequestProcessor {
 			}
 		}
 		
-		List<Pair<String, WebRequestProcessor>> list = getProcessors(path);
-		if (list.isEmpty()) return null;
-		for (Pair<String, WebRequestProcessor> p : list) {
-			if (path.startsWith(p.getValue1())) {
-				String subPath = path.substring(p.getValue1().length());
-				WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, subPath, protocols);
-				if (handler != null)
-					return handler;
-			} else if (p.getValue1().length() > 0 && path.equals(p.getValue1().substring(0, p.getValue1().length() - 1))) {
-				WebSocketHandler handler = p.getValue2().getWebSocketHandler(client, request, "", protocols);
+		for (PathTrie.Node<WebRequestProcessor> node = processorsIndex.match(path, 0); node != null; node = node.getShorterMatch()) {
+			String p = node.getPath();
+			String subPath = path.length() > p.length() ? path.substring(p.length()) : "";
+			for (int i = 0; i < node.getValuesCount(); ++i) {
+				WebSocketHandler handler = node.getValue(i).getWebSocketHandler(client, request, subPath, protocols);
 				if (handler != null)
 					return handler;
 			}
@@ -406,26 +797,6 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		return null;
 	}
 	
-	private static final Comparator<Pair<String, WebRequestProcessor>> processorComparator =
-		new Comparator<Pair<String, WebRequestProcessor>>() {
-			@Override
-			public int compare(Pair<String, WebRequestProcessor> p1, Pair<String, WebRequestProcessor> p2) {
-				return p2.getValue1().length() - p1.getValue1().length();
-			}
-		};
-		
-	private List<Pair<String, WebRequestProcessor>> getProcessors(String subPath) {
-		LinkedList<Pair<String, WebRequestProcessor>> list = new LinkedList<>();
-		for (Pair<String, WebRequestProcessor> p : processors)
-			if (p.getValue1().isEmpty() ||
-				subPath.equals(p.getValue1().substring(0, p.getValue1().length() - 1)) ||
-				subPath.startsWith(p.getValue1()))
-				list.add(p);
-		if (list.size() > 1)
-			Collections.sort(list, processorComparator);
-		return list;
-	}
-	
 	@Override
 	public void configure(String filename) throws Exception {
 		@SuppressWarnings("resource")
@@ -447,7 +818,18 @@ public class WebResourcesBundle implements WebRequestProcessor {
 	
 	/** Configure from a bundle XML element. */
 	public void configure(XMLStreamReader xml) throws Exception {
+		try {
+			configureBundle(xml);
+		} finally {
+			processorsChanged();
+		}
+	}
+	
+	private void configureBundle(XMLStreamReader xml) throws Exception {
 		Application app = LCCore.getApplication();
+		String p = Injection.resolveProperties(getInjectionContext(), app, xml.getAttributeValueByLocalName("priority"));
+		if (p != null)
+			priority = Byte.valueOf(parsePriority(p));
 		UnprotectedStringBuffer configPath = xml.getAttributeValueByLocalName("config");
 		if (configPath != null) {
 			configure(Injection.resolveProperties(getInjectionContext(), app, configPath.asString()));
@@ -468,10 +850,10 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		}
 		do {
 			if (xml.event.text.equals("processor") || xml.event.text.equals("bundle")) {
-				processors.add(configureProcessor(xml, app));
+				addProcessorEntry(configureProcessor(xml, app));
 				if (!xml.nextInnerElement(elem)) return;
 			} else if (xml.event.text.equals("static")) {
-				processors.add(configureStaticProcessor(xml, app));
+				addProcessorEntry(configureStaticProcessor(xml, app));
 				if (!xml.nextInnerElement(elem)) return;
 			} else if (xml.event.text.equals("service")) {
 				configureService(xml, app);
@@ -496,6 +878,12 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		} while (xml.nextInnerElement(elem));
 	}
 	
+	private void addProcessorEntry(Pair<String, WebRequestProcessor> entry) {
+		synchronized (processors) {
+			processors.add(entry);
+		}
+	}
+	
 	private void configureInjection(XMLStreamReader xml) throws Exception {
 		if (injection == null)
 			injection = new InjectionContext(parent != null ? parent.getInjectionContext() : null);
@@ -507,7 +895,10 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		InjectionContext ctx = getInjectionContext();
 		ObjectValue filterValue = InjectionXmlParser01.readObjectValue(ctx, xml, app);
 		WebRequestFilter filter = filterValue.create(ctx, WebRequestFilter.class, null, new Annotation[0]);
-		if (id != null) ctx.add(new Singleton(ctx, WebRequestFilter.class, filter, id, null));
+		if (id != null) {
+			ctx.add(new Singleton(ctx, WebRequestFilter.class, filter, id, null));
+			setConfiguredId(filter, id);
+		}
 		return filter;
 	}
 	
@@ -538,10 +929,16 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		}
 		
 		String config = Injection.resolveProperties(getInjectionContext(), app, xml.getAttributeValueByLocalName("config"));
+		String p = Injection.resolveProperties(ctx, app, xml.getAttributeValueByLocalName("priority"));
 		ObjectValue value = InjectionXmlParser01.readObjectValue(ctx, xml, app);
 		WebRequestProcessor processor = value.create(ctx, WebRequestProcessor.class, null, new Annotation[0]);
 		processor.setParent(this);
-		if (id != null) ctx.add(new Singleton(ctx, WebRequestProcessor.class, processor, id, null));
+		if (p != null)
+			setPriority(processor, Byte.valueOf(parsePriority(p)));
+		if (id != null) {
+			ctx.add(new Singleton(ctx, WebRequestProcessor.class, processor, id, null));
+			setConfiguredId(processor, id);
+		}
 		if (config != null)
 			processor.configure(config);
 		return new Pair<>(path, processor);
@@ -574,6 +971,8 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		if (className == null)
 			throw new Exception("Missing attribute class on element service");
 		Class<?> cl = app.getClassLoader().loadClass(className);
+		String p = Injection.resolveProperties(ctx, app, xml.getAttributeValueByLocalName("priority"));
+		Byte servicePriority = p != null ? Byte.valueOf(parsePriority(p)) : getServicePriority(cl);
 		
 		List<WebServiceProviderPlugin> plugins = ExtensionPoints.getExtensionPoint(WebServiceProviders.class).getPluginsFor(cl);
 		if (plugins.isEmpty())
@@ -588,12 +987,14 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		for (WebServiceProviderPlugin plugin : plugins) {
 			WebServiceProvider provider = plugin.createProvider(this, service);
 			Injection.inject(ctx, provider);
+			if (servicePriority != null)
+				setPriority(provider, servicePriority);
 	
 			if (path == null)
 				path = provider.getDefaultPath();
 			if (!path.isEmpty() && !path.endsWith("/"))
 				path += "/";
-			processors.add(new Pair<>(path, provider));
+			addProcessorEntry(new Pair<>(path, provider));
 		}
 	}
 
@@ -612,11 +1013,14 @@ public class WebResourcesBundle implements WebRequestProcessor {
 				for (WebServiceProviderPlugin plugin : plugins) {
 					WebServiceProvider provider = plugin.createProvider(this, service);
 					Injection.inject(ctx, provider);
+					Byte servicePriority = getServicePriority(cl);
+					if (servicePriority != null)
+						setPriority(provider, servicePriority);
 			
 					String path = provider.getDefaultPath();
 					if (!path.isEmpty() && !path.endsWith("/"))
 						path += "/";
-					processors.add(new Pair<>(path, provider));
+					addProcessorEntry(new Pair<>(path, provider));
 				}
 			} catch (Exception e) {
 				app.getLoggerFactory().getLogger(WebResourcesBundle.class).error("Error creating service class " + cl.getName(), e);
@@ -624,6 +1028,11 @@ public class WebResourcesBundle implements WebRequestProcessor {
 		});
 	}
 	
+	private static Byte getServicePriority(Class<?> cl) throws Exception {
+		WebService.Priority p = cl.getAnnotation(WebService.Priority.class);
+		return p != null ? Byte.valueOf(checkPriority(p.value(), p.value() + " on " + cl.getName())) : null;
+	}
+	
 	private Pair<String, WebSocketRouter> configureWebSocketRouter(XMLStreamReader xml, Application app) throws Exception {
 		InjectionContext ctx = getInjectionContext();
 		String path = Injection.resolveProperties(ctx, app, xml.getAttributeValueByLocalName("path"));
@@ -2,17 +2,28 @@ package net.lecousin.framework.web;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 
 import net.lecousin.framework.application.Application;
 import net.lecousin.framework.application.LCCore;
 import net.lecousin.framework.collections.ArrayUtil;
+import net.lecousin.framework.concurrent.CancelException;
 import net.lecousin.framework.concurrent.Task;
 import net.lecousin.framework.concurrent.synch.AsyncWork;
 import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
@@ -21,6 +32,7 @@ import net.lecousin.framework.exception.NoException;
 import net.lecousin.framework.injection.InjectionContext;
 import net.lecousin.framework.log.Logger;
 import net.lecousin.framework.network.NetUtil;
+import net.lecousin.framework.network.TCPRemote;
 import net.lecousin.framework.network.http.HTTPRequest;
 import net.lecousin.framework.network.http.server.HTTPRequestProcessor;
 import net.lecousin.framework.network.http.server.HTTPServerProtocol;
@@ -28,6 +40,7 @@ import net.lecousin.framework.network.http.server.HTTPServerResponse;
 import net.lecousin.framework.network.http.websocket.WebSocketDispatcher;
 import net.lecousin.framework.network.http.websocket.WebSocketDispatcher.WebSocketHandler;
 import net.lecousin.framework.network.http.websocket.WebSocketServerProtocol;
+import net.lecousin.framework.network.mime.MimeMessage;
 import net.lecousin.framework.network.server.TCPServer;
 import net.lecousin.framework.network.server.TCPServerClient;
 import net.lecousin.framework.network.server.protocol.SSLServerProtocol;
@@ -37,6 +50,9 @@ import net.lecousin.framework.network.session.NetworkSessionProvider;
 import net.lecousin.framework.network.session.Session;
 import net.lecousin.framework.network.session.SessionStorage;
 import net.lecousin.framework.network.ssl.SSLContextConfig;
+import net.lecousin.framework.web.jfr.WebEvents;
+import net.lecousin.framework.web.metrics.WebMetrics;
+import net.lecousin.framework.web.sse.SSEProcessor;
 
 public class WebServer implements Closeable {
 
@@ -52,6 +68,8 @@ public class WebServer implements Closeable {
 		if (sessionStorage != null)
 			sessionProvider = new NetworkSessionProvider(sessionStorage, "WebServer");
 		this.sessionOnlyOnSecureChannel = sessionOnlyOnSecureChannel;
+		for (int i = 0; i < SHARED_SESSION_STRIPES; ++i)
+			sharedSessions[i] = new SharedSessionStripe();
 		app = LCCore.getApplication();
 		logger = app.getLoggerFactory().getLogger(WebServer.class);
 		injection = new InjectionContext(app.getInstance(InjectionContext.class));
@@ -66,18 +84,29 @@ public class WebServer implements Closeable {
 	private Logger logger;
 	private InjectionContext injection;
 	private SSLContext ssl;
-	private List<TCPServer> servers = new ArrayList<>();
+	private boolean sslFromConfig = false;
+	private ServerProtocol sslProtocol = null;
+	private SSLContext sslProtocolContext = null;
+	private Map<ListenerKey, TCPServer> servers = new LinkedHashMap<>();
 	private HTTPServerProtocol httpProtocol;
 	private NetworkSessionProvider sessionProvider;
+	private volatile SessionNearCache sessionCache = null;
 	private boolean sessionOnlyOnSecureChannel;
 	private WebServerConfig config = null;
-	private WebRequestRouter router = null;
+	private volatile WebRequestRouter router = null;
+	private WebMetrics metrics = null;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private volatile SynchronizationPoint<NoException> draining = null;
 
 	@Override
-	public void close() {
-		for (TCPServer server : servers)
+	public synchronized void close() {
+		for (TCPServer server : servers.values())
 			server.close();
 		servers.clear();
+		if (sessionCache != null) {
+			sessionCache.close();
+			sessionCache = null;
+		}
 		if (sessionProvider != null)
 			try { sessionProvider.close(); }
 			catch (IOException e) {
@@ -85,28 +114,148 @@ public class WebServer implements Closeable {
 		app.closed(this);
 	}
 	
+	/**
+	 * Stop accepting new connections, and close the server once the requests in progress are done,
+	 * or after the drain timeout of the configuration.
+	 */
+	public ISynchronizationPoint<NoException> drain() {
+		return drain(config != null ? config.drainTimeout : 30000);
+	}
+	
+	/**
+	 * Stop accepting new connections, and close the server once the requests in progress are done,
+	 * or after the given timeout in milliseconds (0 or negative to wait without limit).
+	 * New requests received on existing connections are still processed, but are answered with a
+	 * <i>Connection: close</i> header. Server-sent events clients receive a reconnection delay and are disconnected.
+	 * The returned synchronization point is unblocked when the server is closed.
+	 */
+	public synchronized ISynchronizationPoint<NoException> drain(long timeout) {
+		if (draining != null)
+			return draining;
+		SynchronizationPoint<NoException> sp = new SynchronizationPoint<>();
+		draining = sp;
+		logger.info("Draining web server, " + inFlight.get() + " request(s) in progress");
+		for (TCPServer server : servers.values())
+			server.unbindAll();
+		WebRequestRouter r = router;
+		if (r != null) {
+			long retry = config != null ? config.drainSSERetry : 5000;
+			for (SSEProcessor sse : getSSEProcessors(r))
+				sse.drain(retry);
+		}
+		sp.listenInline(() -> {
+			logger.info("Web server drained, " + inFlight.get() + " request(s) still in progress are aborted");
+			close();
+		});
+		if (inFlight.get() == 0)
+			sp.unblock();
+		else if (timeout > 0)
+			new Task.Cpu.FromRunnable("Web server drain timeout", Task.PRIORITY_NORMAL, sp::unblock).executeIn(timeout).start();
+		return sp;
+	}
+	
+	/** Return true if {@link #drain()} has been called. */
+	public boolean isDraining() {
+		return draining != null;
+	}
+	
+	/** Return the number of requests being processed. */
+	public int getInFlightRequests() {
+		return inFlight.get();
+	}
+	
+	private static List<SSEProcessor> getSSEProcessors(WebRequestRouter router) {
+		List<SSEProcessor> list = new ArrayList<>();
+		for (WebRequestProcessor p : router.getAllProcessors())
+			if (p instanceof SSEProcessor)
+				list.add((SSEProcessor)p);
+		return list;
+	}
+	
+	/**
+	 * Dispose the processors of a router replaced by a new configuration, except the ones still used by the new router:
+	 * server-sent events clients receive a reconnection delay and are disconnected, so they reconnect to the new
+	 * processors, and processors implementing AutoCloseable are closed once the requests in progress on the
+	 * previous router are done.
+	 */
+	private void disposeRouter(WebRequestRouter previous, WebRequestRouter replacement) {
+		Set<WebRequestProcessor> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		kept.addAll(replacement.getAllProcessors());
+		List<WebRequestProcessor> toDispose = new ArrayList<>();
+		for (WebRequestProcessor p : previous.getAllProcessors())
+			if (!kept.contains(p))
+				toDispose.add(p);
+		long retry = config != null ? config.drainSSERetry : 5000;
+		for (WebRequestProcessor p : toDispose)
+			if (p instanceof SSEProcessor)
+				((SSEProcessor)p).drain(retry);
+		previous.retire().listenInline(() -> {
+			new Task.Cpu.FromRunnable("Dispose previous web routing", Task.PRIORITY_LOW, () -> {
+				for (WebRequestProcessor p : toDispose) {
+					if (!(p instanceof AutoCloseable)) continue;
+					try { ((AutoCloseable)p).close(); }
+					catch (Exception e) {
+						logger.error("Error closing processor " + p.getClass().getName(), e);
+					}
+				}
+			}).start();
+		});
+	}
+	
 	public void setSSLContext(SSLContext context) {
 		ssl = context;
+		sslFromConfig = false;
 	}
 	
-	public void setConfiguration(WebServerConfig config) {
+	/**
+	 * Apply the given configuration.
+	 * It may be called again while the server is running to reload the configuration: the new routing table
+	 * replaces the previous one at once, so requests already dispatched complete with the previous one, and
+	 * only the listeners whose address, port or backlog changed are closed or opened.
+	 * Secure listeners which are kept get the new SSL context for new connections.
+	 */
+	public synchronized void setConfiguration(WebServerConfig config) {
 		this.config = config;
-		// close current servers
-		for (TCPServer server : servers)
-			server.close();
-		servers.clear();
+		long start = System.nanoTime();
 		// configure routing
-		router = new WebRequestRouter();
-		router.setParent(root);
+		WebRequestRouter newRouter = new WebRequestRouter();
+		newRouter.setParent(root);
 		for (WebRequestRouter.Configuration route : config.routing.route)
-			router.addConfiguration(route);
-		// start listening
+			newRouter.addConfiguration(route);
+		newRouter.setIndexed(config.routing.indexed);
+		newRouter.setCacheSize(config.routing.cacheSize);
+		if (config.metrics) {
+			if (metrics == null)
+				metrics = new WebMetrics();
+			newRouter.setMetrics(metrics);
+		}
+		WebRequestRouter previousRouter = router;
+		router = newRouter;
+		if (previousRouter != null)
+			disposeRouter(previousRouter, newRouter);
+		configureSessionCache(config.sessionCache);
+		long routingTime = System.nanoTime() - start;
+		// SSL layer
+		start = System.nanoTime();
+		ServerProtocol secureProtocol = null;
+		for (WebServerConfig.ListeningPort listen : config.listening.bind)
+			if (listen.secure) {
+				secureProtocol = getSecureProtocol(config);
+				break;
+			}
+		long sslTime = System.nanoTime() - start;
+		// listeners to open
+		start = System.nanoTime();
+		Map<ListenerKey, ServerProtocol> listeners = new LinkedHashMap<>();
+		List<InetAddress> allIPs = null;
 		for (WebServerConfig.ListeningPort listen : config.listening.bind) {
 			List<InetAddress> addresses;
 			try {
 				if (listen.macAddress == null) {
 					// all mac addresses
-					addresses = NetUtil.getAllIPs();
+					if (allIPs == null)
+						allIPs = NetUtil.getAllIPs();
+					addresses = allIPs;
 				} else {
 					byte[] mac = NetUtil.MACFromString(listen.macAddress);
 					addresses = NetUtil.getIPsFromMAC(mac);
@@ -126,35 +275,140 @@ public class WebServer implements Closeable {
 				}
 			} else
 				ips = addresses;
-			ServerProtocol protocol = httpProtocol;
-			if (listen.secure) {
-				try {
-					if (ssl == null && config.ssl != null)
-						ssl = SSLContextConfig.create(config.ssl);
-					if (ssl == null)
-						ssl = SSLContext.getDefault();
-					protocol = new SSLServerProtocol(ssl, protocol);
-				} catch (Throwable e) {
-					logger.error("Unable to initialize SSL layer", e);
-					continue;
-				}
-			}
+			ServerProtocol protocol = listen.secure ? secureProtocol : httpProtocol;
+			if (protocol == null)
+				continue;
 			int port = listen.port;
 			if (port <= 0) port = listen.secure ? 443 : 80;
 			for (InetAddress address : ips) {
-				@SuppressWarnings("resource")
-				TCPServer server = new TCPServer();
-				server.setProtocol(protocol);
-				InetSocketAddress addr = new InetSocketAddress(address, port);
-				try {
-					server.bind(addr, listen.backlog).blockResult(0);
-				} catch (Exception e) {
-					logger.error("Unable to listen to " + address);
-					continue;
-				}
-				servers.add(server);
+				ListenerKey key = new ListenerKey(new InetSocketAddress(address, port), listen.secure, listen.backlog);
+				if (!listeners.containsKey(key))
+					listeners.put(key, protocol);
 			}
 		}
+		long discoveryTime = System.nanoTime() - start;
+		// close the listeners which are not configured anymore
+		start = System.nanoTime();
+		int nbClosed = 0;
+		Map<ListenerKey, TCPServer> previous = servers;
+		servers = new LinkedHashMap<>();
+		for (Iterator<Map.Entry<ListenerKey, TCPServer>> it = previous.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<ListenerKey, TCPServer> e = it.next();
+			if (listeners.containsKey(e.getKey())) continue;
+			logger.info("Stop listening to " + e.getKey().address);
+			e.getValue().close();
+			it.remove();
+			nbClosed++;
+		}
+		// keep unchanged listeners, and bind new ones concurrently
+		List<ListenerKey> bindKeys = new ArrayList<>();
+		List<TCPServer> bindServers = new ArrayList<>();
+		List<ISynchronizationPoint<?>> binds = new ArrayList<>();
+		List<String> failures = new LinkedList<>();
+		int nbKept = 0;
+		int nbOpened = 0;
+		for (Map.Entry<ListenerKey, ServerProtocol> e : listeners.entrySet()) {
+			ListenerKey key = e.getKey();
+			TCPServer server = previous.get(key);
+			if (server != null) {
+				if (key.secure)
+					server.setProtocol(e.getValue());
+				servers.put(key, server);
+				nbKept++;
+				continue;
+			}
+			server = new TCPServer();
+			server.setProtocol(e.getValue());
+			try {
+				binds.add(server.bind(key.address, key.backlog));
+			} catch (Exception err) {
+				failures.add(key.address + ": " + err.getMessage());
+				server.close();
+				continue;
+			}
+			bindKeys.add(key);
+			bindServers.add(server);
+		}
+		// join on the results
+		for (int i = 0; i < binds.size(); ++i) {
+			ISynchronizationPoint<?> bind = binds.get(i);
+			bind.block(0);
+			if (bind.hasError() || bind.isCancelled()) {
+				failures.add(bindKeys.get(i).address + ": "
+					+ (bind.hasError() ? bind.getError().getMessage() : bind.getCancelEvent().getMessage()));
+				bindServers.get(i).close();
+				continue;
+			}
+			servers.put(bindKeys.get(i), bindServers.get(i));
+			nbOpened++;
+		}
+		long bindTime = System.nanoTime() - start;
+		if (!failures.isEmpty()) {
+			StringBuilder s = new StringBuilder();
+			s.append("Unable to listen to ").append(failures.size()).append(" address(es):");
+			for (String f : failures)
+				s.append("\n - ").append(f);
+			logger.error(s.toString());
+		}
+		if (logger.info())
+			logger.info("Web server configured in " + ((routingTime + sslTime + discoveryTime + bindTime) / 1000000) + "ms"
+				+ ": routing " + (routingTime / 1000000) + "ms"
+				+ ", SSL context " + (sslTime / 1000000) + "ms"
+				+ ", IP discovery " + (discoveryTime / 1000000) + "ms"
+				+ ", binding " + (bindTime / 1000000) + "ms"
+				+ " (" + nbOpened + " opened, "
+				+ nbKept + " kept, " + nbClosed + " closed, " + failures.size() + " failed)");
+	}
+	
+	private ServerProtocol getSecureProtocol(WebServerConfig config) {
+		try {
+			if (sslFromConfig) {
+				ssl = null;
+				sslFromConfig = false;
+			}
+			if (ssl == null && config.ssl != null) {
+				ssl = SSLContextConfig.create(config.ssl);
+				sslFromConfig = true;
+			}
+			if (ssl == null)
+				ssl = SSLContext.getDefault();
+		} catch (Throwable e) {
+			logger.error("Unable to initialize SSL layer", e);
+			// keep the current one if any
+			return sslProtocol;
+		}
+		if (sslProtocol == null || sslProtocolContext != ssl) {
+			sslProtocol = new SSLServerProtocol(ssl, httpProtocol);
+			sslProtocolContext = ssl;
+		}
+		return sslProtocol;
+	}
+	
+	/** Identifies a listener: an unchanged key means the listener can be kept on configuration reload. */
+	private static final class ListenerKey {
+		
+		private ListenerKey(InetSocketAddress address, boolean secure, int backlog) {
+			this.address = address;
+			this.secure = secure;
+			this.backlog = backlog;
+		}
+		
+		private InetSocketAddress address;
+		private boolean secure;
+		private int backlog;
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ListenerKey)) return false;
+			ListenerKey k = (ListenerKey)obj;
+			return address.equals(k.address) && secure == k.secure && backlog == k.backlog;
+		}
+		
+		@Override
+		public int hashCode() {
+			return address.hashCode() * 31 + backlog * 2 + (secure ? 1 : 0);
+		}
+		
 	}
 
 	public Application getApplication() {
@@ -169,10 +423,37 @@ public class WebServer implements Closeable {
 		return sessionProvider;
 	}
 	
+	/** Return the in-memory cache of sessions, or null if not enabled by the configuration. */
+	public SessionNearCache getSessionCache() {
+		return sessionCache;
+	}
+	
+	private void configureSessionCache(WebServerConfig.SessionCache cfg) {
+		SessionNearCache previous = sessionCache;
+		if (previous != null && cfg != null && previous.hasSettings(cfg.maxSize, cfg.timeToLive, cfg.writeBehind))
+			return;
+		if (sessionProvider != null && cfg != null && cfg.maxSize > 0)
+			sessionCache = new SessionNearCache(sessionProvider, cfg.maxSize, cfg.timeToLive, cfg.writeBehind);
+		else
+			sessionCache = null;
+		if (previous != null)
+			previous.close();
+	}
+	
 	public boolean isSessionOnlyAllowedOnSecureChannel() {
 		return sessionOnlyOnSecureChannel;
 	}
 	
+	/** Return the router, created by {@link #setConfiguration(WebServerConfig)}. */
+	public WebRequestRouter getRouter() {
+		return router;
+	}
+	
+	/** Return the metrics recorded when enabled by the configuration, or null. */
+	public WebMetrics getMetrics() {
+		return metrics;
+	}
+	
 	public WebRequestProcessor getRootProcessor() {
 		return root;
 	}
@@ -185,9 +466,9 @@ public class WebServer implements Closeable {
 		return config;
 	}
 	
-	public List<InetSocketAddress> getLocalAddresses() {
+	public synchronized List<InetSocketAddress> getLocalAddresses() {
 		LinkedList<InetSocketAddress> list = new LinkedList<>();
-		for (TCPServer server : servers)
+		for (TCPServer server : servers.values())
 			list.addAll(server.getLocalAddresses());
 		return list;
 	}
@@ -200,45 +481,46 @@ public class WebServer implements Closeable {
 				return new AsyncWork<>(null, null);
 			if (sessionProvider == null)
 				return new AsyncWork<>(null, null);
-			String id = request.getRequest().getCookie("lc-session");
-			if (id != null) {
-				id = id.trim();
+			WebServerConfig.SessionCookie cookie = getSessionCookie();
+			String cookieId = request.getRequest().getCookie(cookie.name);
+			if (cookieId != null) {
+				String id = cookieId.trim();
 				if (id.length() > 0) {
-					AsyncWork<Session, NoException> getSession = sessionProvider.get(id, request.getClient());
+					WebServerConfig cfg = config;
+					boolean shared = cfg != null && cfg.sessionSharing;
+					AsyncWork<Session, NoException> getSession = shared ? acquireSharedSession(id, request) : loadSession(id, request);
 					if (!getSession.isUnblocked()) {
 						AsyncWork<ISession, NoException> result = new AsyncWork<>();
-						getSession.listenAsync(new Task.Cpu.FromRunnable("Retrieve web session",  Task.PRIORITY_NORMAL, () -> {
+						getSession.listenAsync(new Task.Cpu.FromRunnable("Retrieve web session",  request.getPriority(), () -> {
 							Session session = getSession.getResult();
-							if (session != null) {
-								request.getResponse().addCookie("lc-session", session.getId(), sessionProvider.getStorage().getExpiration(), "/", null, sessionOnlyOnSecureChannel, true);
-								result.unblockSuccess(session);
-							} else if (openIfNeeded) {
-								session = sessionProvider.create(request.getClient());
-								request.getResponse().addCookie("lc-session", session.getId(), sessionProvider.getStorage().getExpiration(), "/", null, sessionOnlyOnSecureChannel, true);
-								result.unblockSuccess(session);
-							} else
+							if (session != null)
+								result.unblockSuccess(sessionFound(request, session, id, cookie, shared));
+							else if (openIfNeeded)
+								result.unblockSuccess(sessionCreated(request, sessionProvider.create(request.getClient()), cookie));
+							else
 								result.unblockSuccess(null);
 						}), true);
 						return result;
 					}
 					Session session = getSession.getResult();
-					if (session != null) {
-						request.getResponse().addCookie("lc-session", session.getId(), sessionProvider.getStorage().getExpiration(), "/", null, sessionOnlyOnSecureChannel, true);
-						return new AsyncWork<>(session, null);
-					}
+					if (session != null)
+						return new AsyncWork<>(sessionFound(request, session, id, cookie, shared), null);
 				}
 			}
-			if (openIfNeeded) {
-				Session session = sessionProvider.create(request.getClient());
-				request.getResponse().addCookie("lc-session", session.getId(), sessionProvider.getStorage().getExpiration(), "/", null, sessionOnlyOnSecureChannel, true);
-				return new AsyncWork<>(session, null);
-			}
+			if (openIfNeeded)
+				return new AsyncWork<>(sessionCreated(request, sessionProvider.create(request.getClient()), cookie), null);
 			return new AsyncWork<>(null, null);
 		}
 		
 		@Override
 		public void saveSession(WebRequest request, ISession session) {
-			sessionProvider.save((Session)session, request.getClient());
+			Object event = WebEvents.begin(WebEvents.Kind.SESSION_SAVE);
+			SessionNearCache cache = sessionCache;
+			if (cache != null)
+				cache.save(((WebSession)session).getSession(), request.getClient());
+			else
+				sessionProvider.save(((WebSession)session).getSession(), request.getClient());
+			WebEvents.end(event, request.getFullPath(), sessionProvider.getStorage().getClass(), null);
 		}
 		
 		@Override
@@ -247,24 +529,236 @@ public class WebServer implements Closeable {
 				return;
 			if (session == null)
 				return;
-			sessionProvider.destroy((Session)session);
-			request.getResponse().addCookie("lc-session", "", -365L * 24 * 60 * 60 * 1000, "/", null, sessionOnlyOnSecureChannel, true);
+			String id = ((WebSession)session).getId();
+			SharedSessionStripe stripe = getSharedSessionStripe(id);
+			synchronized (stripe) {
+				stripe.sessions.remove(id);
+			}
+			SessionNearCache cache = sessionCache;
+			if (cache != null)
+				cache.destroy(((WebSession)session).getSession());
+			else
+				sessionProvider.destroy(((WebSession)session).getSession());
+			WebServerConfig.SessionCookie cookie = getSessionCookie();
+			request.getResponse().addCookie(cookie.name, "", -365L * 24 * 60 * 60 * 1000, cookie.path, cookie.domain, isSessionCookieSecure(cookie), cookie.httpOnly);
 		}
 	};
 	
+	private AsyncWork<Session, NoException> loadSession(String id, WebRequest request) {
+		Object event = WebEvents.begin(WebEvents.Kind.SESSION_LOAD);
+		SessionNearCache cache = sessionCache;
+		AsyncWork<Session, NoException> getSession = cache != null ? cache.get(id, request.getClient()) : sessionProvider.get(id, request.getClient());
+		WebEvents.end(event, request.getFullPath(), sessionProvider.getStorage().getClass(), null, getSession);
+		return getSession;
+	}
+	
+	/** A session used by concurrent requests. */
+	private static final class SharedSession {
+		private AsyncWork<Session, NoException> loading;
+		private int users = 0;
+		private boolean modified = false;
+		private TCPRemote client;
+	}
+	
+	private static final class SharedSessionStripe {
+		private HashMap<String, SharedSession> sessions = new HashMap<>();
+	}
+	
+	private static final int SHARED_SESSION_STRIPES = 32;
+	private final SharedSessionStripe[] sharedSessions = new SharedSessionStripe[SHARED_SESSION_STRIPES];
+	
+	private SharedSessionStripe getSharedSessionStripe(String id) {
+		int h = id.hashCode();
+		return sharedSessions[(h ^ (h >>> 16)) & (SHARED_SESSION_STRIPES - 1)];
+	}
+	
+	/** Return the session being used by other requests, or load it. The session is released once the request is processed. */
+	private AsyncWork<Session, NoException> acquireSharedSession(String id, WebRequest request) {
+		SharedSessionStripe stripe = getSharedSessionStripe(id);
+		SharedSession shared;
+		synchronized (stripe) {
+			shared = stripe.sessions.get(id);
+			if (shared == null) {
+				shared = new SharedSession();
+				stripe.sessions.put(id, shared);
+				shared.loading = loadSession(id, request);
+			}
+			shared.users++;
+		}
+		SharedSession s = shared;
+		request.onProcessed(() -> releaseSharedSession(id, s, request));
+		return s.loading;
+	}
+	
+	/** When the last request using the session is done, save it if any request modified it. */
+	private void releaseSharedSession(String id, SharedSession shared, WebRequest request) {
+		ISession s = request.getLoadedSession();
+		boolean modified = s instanceof WebSession && ((WebSession)s).isShared() && ((WebSession)s).isModified();
+		SharedSessionStripe stripe = getSharedSessionStripe(id);
+		synchronized (stripe) {
+			if (modified) {
+				shared.modified = true;
+				shared.client = request.getClient();
+			}
+			if (--shared.users > 0)
+				return;
+			if (stripe.sessions.get(id) != shared)
+				return; // removed
+			stripe.sessions.remove(id);
+		}
+		if (!shared.modified || !shared.loading.isSuccessful() || shared.loading.getResult() == null)
+			return;
+		Session session = shared.loading.getResult();
+		TCPRemote client = shared.client;
+		new Task.Cpu.FromRunnable("Save client session", request.getPriority(), () -> {
+			Object event = WebEvents.begin(WebEvents.Kind.SESSION_SAVE);
+			SessionNearCache cache = sessionCache;
+			if (cache != null)
+				cache.save(session, client);
+			else
+				sessionProvider.save(session, client);
+			WebEvents.end(event, request.getFullPath(), sessionProvider.getStorage().getClass(), null);
+		}).start();
+	}
+	
+	private static final WebServerConfig.SessionCookie DEFAULT_SESSION_COOKIE = new WebServerConfig.SessionCookie();
+	/** Session data containing the time the cookie was last sent, to slide its expiration.
+	 * It does not mark the session as modified, so it is saved only with other modifications. */
+	private static final String SESSION_COOKIE_SENT = "lc-session-cookie-sent";
+	
+	private WebServerConfig.SessionCookie getSessionCookie() {
+		WebServerConfig cfg = config;
+		return cfg != null && cfg.sessionCookie != null ? cfg.sessionCookie : DEFAULT_SESSION_COOKIE;
+	}
+	
+	private boolean isSessionCookieSecure(WebServerConfig.SessionCookie cookie) {
+		return cookie.secure != null ? cookie.secure.booleanValue() : sessionOnlyOnSecureChannel;
+	}
+	
+	private WebSession sessionCreated(WebRequest request, Session session, WebServerConfig.SessionCookie cookie) {
+		SessionNearCache cache = sessionCache;
+		if (cache != null)
+			cache.created(session, request.getClient());
+		WebSession s = new WebSession(session, true);
+		sendSessionCookie(request, s, cookie);
+		return s;
+	}
+	
+	/** The cookie is sent again only if the client gave a different id, or if the refresh time is elapsed.
+	 * When the sessions do not expire, the cookie is never refreshed. */
+	private WebSession sessionFound(
+		WebRequest request, Session session, String requestId, WebServerConfig.SessionCookie cookie, boolean shared
+	) {
+		WebSession s = new WebSession(session, false, shared);
+		if (!session.getId().equals(requestId)) {
+			sendSessionCookie(request, s, cookie);
+			return s;
+		}
+		long refresh = cookie.refreshAfter;
+		if (refresh < 0)
+			return s;
+		if (refresh == 0) {
+			long expiration = sessionProvider.getStorage().getExpiration();
+			if (expiration <= 0)
+				return s;
+			refresh = expiration / 2;
+		}
+		Serializable sent = s.getData(SESSION_COOKIE_SENT);
+		if (!(sent instanceof Long) || System.currentTimeMillis() - ((Long)sent).longValue() >= refresh)
+			sendSessionCookie(request, s, cookie);
+		return s;
+	}
+	
+	private void sendSessionCookie(WebRequest request, WebSession session, WebServerConfig.SessionCookie cookie) {
+		request.getResponse().addCookie(cookie.name, session.getId(), sessionProvider.getStorage().getExpiration(),
+			cookie.path, cookie.domain, isSessionCookieSecure(cookie), cookie.httpOnly);
+		if (cookie.refreshAfter >= 0)
+			session.putDataUnmodified(SESSION_COOKIE_SENT, Long.valueOf(System.currentTimeMillis()));
+	}
+	
 	private final HTTPRequestProcessor httpProcessor = new HTTPRequestProcessor() {
 		
 		@SuppressWarnings("resource")
 		@Override
 		public ISynchronizationPoint<?> process(TCPServerClient client, HTTPRequest request, HTTPServerResponse response) {
 			TCPServer server = client.getServer();
+			inFlight.incrementAndGet();
+			if (draining != null)
+				response.getMIME().setHeaderRaw(MimeMessage.CONNECTION, "close");
 			WebRequest req = new WebRequest(client, request, response, server.getProtocol() instanceof SSLServerProtocol, webSessionProvider);
+			WebServerConfig cfg = config;
+			if (cfg != null && cfg.sessionPrefetch && sessionProvider != null && request.getCookie(getSessionCookie().name) != null)
+				req.getSession(false); // start loading the session while routing, the result is kept by the request
 			ISynchronizationPoint<?> res = root.process(Boolean.TRUE, req);
-			res.listenAsync(new Task.Cpu.FromRunnable("Save client session", Task.PRIORITY_NORMAL, () -> { req.saveSession(); }), true);
+			if (!res.isUnblocked())
+				cancelOnDisconnect(client, res);
+			// the request is done once its response is sent, or the processing is cancelled, or the client is disconnected
+			SynchronizationPoint<NoException> done = new SynchronizationPoint<>();
+			AtomicBoolean counted = new AtomicBoolean(true);
+			done.listenInline(() -> {
+				if (counted.compareAndSet(true, false))
+					requestDone();
+			});
+			cancelOnDisconnect(client, done);
+			res.listenInline(() -> {
+				if (req.needsSessionSave())
+					new Task.Cpu.FromRunnable("Save client session", req.getPriority(), () -> { req.saveSession(); }).start();
+				req.processed();
+				if (res.isCancelled())
+					done.unblock();
+				else
+					response.sent.listenInline(done::unblock);
+			});
 			return res;
 		}
 	};
 	
+	private void requestDone() {
+		if (inFlight.decrementAndGet() == 0) {
+			SynchronizationPoint<NoException> drain = draining;
+			if (drain != null)
+				drain.unblock();
+		}
+	}
+	
+	private static final String PROCESSING_ATTRIBUTE = "webserver.processing";
+	
+	/** Cancel the processing if the client disconnects before it is done, so no resource is spent on a response nobody will read.
+	 * A single listener is registered per connection, for all the requests it sends.
+	 * If the client is already disconnected, the processing is cancelled immediately.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void cancelOnDisconnect(TCPServerClient client, ISynchronizationPoint<?> processing) {
+		List<ISynchronizationPoint<?>> list;
+		boolean first = false;
+		synchronized (client) {
+			list = (List<ISynchronizationPoint<?>>)client.getAttribute(PROCESSING_ATTRIBUTE);
+			if (list == null) {
+				list = new LinkedList<>();
+				client.setAttribute(PROCESSING_ATTRIBUTE, list);
+				first = true;
+			}
+		}
+		List<ISynchronizationPoint<?>> processings = list;
+		synchronized (processings) { processings.add(processing); }
+		processing.listenInline(() -> {
+			synchronized (processings) { processings.remove(processing); }
+		});
+		if (client.isClosed() && !processing.isUnblocked())
+			processing.cancel(new CancelException("Client disconnected"));
+		if (!first) return;
+		client.onclosed(() -> {
+			ArrayList<ISynchronizationPoint<?>> toCancel;
+			synchronized (processings) {
+				toCancel = new ArrayList<>(processings);
+				processings.clear();
+			}
+			for (ISynchronizationPoint<?> sp : toCancel)
+				if (!sp.isUnblocked())
+					sp.cancel(new CancelException("Client disconnected"));
+		});
+	}
+	
 	private final WebRequestProcessor root = new WebRequestProcessor() {
 		@Override
 		public WebRequestProcessor getParent() {
@@ -287,15 +781,34 @@ public class WebServer implements Closeable {
 		
 		@Override
 		public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
-			String hostname = request.getRequest().getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST);
-			if (hostname == null) {
+			if (request.getHost() == null) {
 				request.getResponse().setStatus(400, "Bad Request, Host is missing");
 				return new SynchronizationPoint<>(true);
 			}
-			if (router != null) {
-				Object o = router.checkProcessing(request);
-				if (o != null)
-					return router.process(o, request);
+			// the router may be replaced by a configuration reload, keep the same for the whole request
+			WebRequestRouter r;
+			do {
+				r = WebServer.this.router;
+			} while (r != null && !r.enter());
+			if (r != null) {
+				WebRequestRouter router = r;
+				ISynchronizationPoint<? extends Exception> sp = null;
+				try {
+					Object event = WebEvents.begin(WebEvents.Kind.ROUTING);
+					Object o = router.checkProcessing(request);
+					if (event != null)
+						WebEvents.end(event, request.getFullPath(), o != null ? WebRequestRouter.getRoutedProcessor(o).getClass() : null,
+							o != null ? null : "not found");
+					if (o != null)
+						sp = router.process(o, request);
+				} finally {
+					if (sp == null)
+						router.leave();
+				}
+				if (sp != null) {
+					sp.listenInline(router::leave);
+					return sp;
+				}
 			}
 			request.getResponse().setStatus(404, "Not Found");
 			return new SynchronizationPoint<>(true);
@@ -303,8 +816,8 @@ public class WebServer implements Closeable {
 		
 		@Override
 		public WebSocketHandler getWebSocketHandler(TCPServerClient client, HTTPRequest request, String path, String[] protocols) {
-			String hostname = request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST);
-			if (hostname == null) return null;
+			if (request.getMIME().getFirstHeaderRawValue(HTTPRequest.HEADER_HOST) == null) return null;
+			WebRequestRouter router = WebServer.this.router;
 			if (router != null) return router.getWebSocketHandler(client, request, path, protocols);
 			return null;
 		}
@@ -13,6 +13,22 @@ public class WebServerConfig {
 	public Listening listening = new Listening();
 	public Routing routing = new Routing();
 	public SSLContextConfig ssl = null;
+	/** True to record request counters and latencies by path and processor, see {@link WebServer#getMetrics()}. */
+	public boolean metrics = false;
+	/** Maximum time in milliseconds to wait for the requests in progress when draining, see {@link WebServer#drain()}. */
+	public long drainTimeout = 30000;
+	/** Reconnection delay in milliseconds sent to server-sent events clients when draining. */
+	public long drainSSERetry = 5000;
+	/** Session cookie. */
+	public SessionCookie sessionCookie = new SessionCookie();
+	/** In-memory cache of sessions in front of the session storage. */
+	public SessionCache sessionCache = new SessionCache();
+	/** True to give the same session instance to concurrent requests of a client, loaded once and saved once
+	 * after the last request is done, instead of loading and saving it for each request. */
+	public boolean sessionSharing = false;
+	/** True to start loading the session as soon as a request with a session cookie is received,
+	 * so the session storage is accessed while the request is routed and filtered. */
+	public boolean sessionPrefetch = false;
 	
 	public static class Listening {
 
@@ -24,6 +40,43 @@ public class WebServerConfig {
 
 		public ArrayList<WebRequestRouter.Configuration> route = new ArrayList<>();
 		
+		/** True to compile the routes into hash tables by IP address and hostname,
+		 * instead of checking each route in order. This is faster when there are many virtual hosts. */
+		public boolean indexed = false;
+		
+		/** Maximum number of routing decisions to remember, by hostname, local address, method and path.
+		 * 0 disables the routing cache. */
+		public int cacheSize = 0;
+		
+	}
+
+	public static class SessionCookie {
+		
+		/** Name of the cookie. */
+		public String name = "lc-session";
+		/** Path of the cookie. */
+		public String path = "/";
+		/** Domain of the cookie, null for the host of the request. */
+		public String domain = null;
+		/** Secure attribute, null to set it only if sessions are only allowed on secure channel. */
+		public Boolean secure = null;
+		/** HttpOnly attribute. */
+		public boolean httpOnly = true;
+		/** Time in milliseconds after which the cookie is sent again to slide its expiration,
+		 * 0 for half the expiration of the sessions (never if the sessions do not expire), or negative to send it only when the session is created. */
+		public long refreshAfter = 0;
+		
+	}
+
+	public static class SessionCache {
+		
+		/** Maximum number of sessions kept in memory, 0 to disable the cache. */
+		public int maxSize = 0;
+		/** Time in milliseconds after which a cached session is loaded again from the storage. */
+		public long timeToLive = 60000;
+		/** Delay in milliseconds before a modified session is written to the storage. */
+		public long writeBehind = 1000;
+		
 	}
 
 	public static class ListeningPort {
@@ -0,0 +1,98 @@
+package net.lecousin.framework.web;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.lecousin.framework.network.session.ISession;
+import net.lecousin.framework.network.session.Session;
+
+/**
+ * Session given to the requests by the WebServer, tracking modifications so the session is saved
+ * only if it has been modified by the request.
+ * <br/>
+ * A value modified in place is not detected: it must be put again with {@link #putData(String, Serializable)},
+ * or the session marked as modified with {@link #setModified()}.
+ */
+public class WebSession implements ISession {
+
+	/** Constructor. */
+	public WebSession(Session session, boolean isNew) {
+		this(session, isNew, false);
+	}
+	
+	/** Constructor for a session shared by concurrent requests, saved once the last request is done. */
+	public WebSession(Session session, boolean isNew, boolean shared) {
+		this.session = session;
+		this.modified = isNew;
+		this.shared = shared;
+	}
+	
+	private Session session;
+	private volatile boolean modified;
+	private boolean shared;
+	
+	/** Return the underlying session. */
+	public Session getSession() {
+		return session;
+	}
+	
+	/** Return the session identifier. */
+	public String getId() {
+		return session.getId();
+	}
+	
+	/** Return true if the same session instance is given to concurrent requests. */
+	public boolean isShared() {
+		return shared;
+	}
+	
+	/** Return true if the session is new or has been modified. */
+	public boolean isModified() {
+		return modified;
+	}
+	
+	/** Mark the session as modified, so it will be saved at the end of the request. */
+	public void setModified() {
+		modified = true;
+	}
+	
+	@Override
+	public Serializable getData(String key) {
+		synchronized (session) {
+			return session.getData(key);
+		}
+	}
+	
+	@Override
+	public void putData(String key, Serializable data) {
+		synchronized (session) {
+			session.putData(key, data);
+		}
+		modified = true;
+	}
+	
+	/** Put data without marking the session as modified: it will be saved only if the session is modified. */
+	void putDataUnmodified(String key, Serializable data) {
+		synchronized (session) {
+			session.putData(key, data);
+		}
+	}
+	
+	@Override
+	public void removeData(String key) {
+		synchronized (session) {
+			if (session.getData(key) == null) return;
+			session.removeData(key);
+		}
+		modified = true;
+	}
+	
+	@Override
+	public Set<String> getKeys() {
+		synchronized (session) {
+			return new HashSet<>(session.getKeys());
+		}
+	}
+	
+}
@@ -0,0 +1,209 @@
+package net.lecousin.framework.web.filters;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.math.IntegerUnit.Unit;
+import net.lecousin.framework.math.TimeUnit.Millisecond;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+
+/**
+ * Admission control: limit the number of requests processed concurrently by the bundle this filter belongs to.
+ * When the limit is reached, requests wait in a bounded queue, or are immediately rejected with a
+ * 503 status and a Retry-After header if the queue is full or not enabled.
+ * <br/>
+ * In adaptive mode, the limit is adjusted between minConcurrent and maxConcurrent using the latency
+ * of the requests (AIMD): it is decreased by 10% when a latency exceeds the lowest latency observed by
+ * the latencyTolerance factor, at most once per round-trip, else it is slowly increased while the
+ * limit is reached.
+ */
+public class ConcurrencyLimitFilter implements WebRequestFilter {
+
+	/** Maximum number of requests processed concurrently, or upper bound of the limit in adaptive mode. */
+	public int maxConcurrent = 100;
+	/** Maximum number of requests waiting for a slot, 0 to reject the requests as soon as the limit is reached. */
+	public int maxQueue = 0;
+	/** Maximum time a request can wait in the queue, after which it is rejected. */
+	@Unit(Millisecond.class)
+	public long maxWait = 1000;
+	/** Number of seconds sent in the Retry-After header of rejected requests. */
+	public int retryAfter = 1;
+	/** True to adjust the limit to the observed latency. */
+	public boolean adaptive = false;
+	/** Lower bound of the limit in adaptive mode. */
+	public int minConcurrent = 1;
+	/** In adaptive mode, a latency above the lowest latency observed multiplied by this factor reduces the limit. */
+	public double latencyTolerance = 2.0d;
+
+	private int inFlight = 0;
+	private double limit = -1;
+	private ArrayDeque<Waiting> queue = new ArrayDeque<>();
+	private long minLatency = 0;
+	private long lastDecrease = 0;
+	private long rejected = 0;
+	private boolean expirationScheduled = false;
+
+	private static final class Waiting {
+		private Waiting(WebRequest request, AsyncWork<FilterResult, Exception> result) {
+			this.request = request;
+			this.result = result;
+		}
+
+		private WebRequest request;
+		private AsyncWork<FilterResult, Exception> result;
+		private long time = System.nanoTime();
+	}
+
+	/** Return the current limit. */
+	public synchronized int getLimit() {
+		return (int)getLimitValue();
+	}
+
+	/** Return the number of requests being processed. */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/** Return the number of requests waiting for a slot. */
+	public synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	/** Return the number of rejected requests. */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	private double getLimitValue() {
+		if (limit < 0)
+			limit = maxConcurrent;
+		return limit;
+	}
+
+	@Override
+	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
+		AsyncWork<FilterResult, Exception> result;
+		synchronized (this) {
+			if (inFlight < (int)getLimitValue()) {
+				inFlight++;
+				result = null;
+			} else if (queue.size() < maxQueue) {
+				result = new AsyncWork<>();
+				queue.add(new Waiting(request, result));
+				if (expirationScheduled)
+					return result;
+				expirationScheduled = true;
+			} else {
+				rejected++;
+				return new AsyncWork<>(reject(request), null);
+			}
+		}
+		if (result != null) {
+			scheduleExpiration(maxWait);
+			return result;
+		}
+		admitted(request);
+		return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+	}
+
+	private void admitted(WebRequest request) {
+		long start = System.nanoTime();
+		request.onProcessed(() -> release(start));
+	}
+
+	private FilterResult reject(WebRequest request) {
+		request.getResponse().setStatus(503, "Service Unavailable");
+		request.getResponse().getMIME().setHeaderRaw("Retry-After", Integer.toString(retryAfter));
+		return FilterResult.STOP_PROCESSING;
+	}
+
+	private void release(long start) {
+		long now = System.nanoTime();
+		List<Waiting> admit = null;
+		List<Waiting> expired = null;
+		synchronized (this) {
+			inFlight--;
+			if (adaptive)
+				adapt(start, now - start);
+			while (!queue.isEmpty() && inFlight < (int)getLimitValue()) {
+				Waiting w = queue.poll();
+				if (w.result.isCancelled())
+					continue; // deadline exceeded while waiting
+				if (now - w.time > maxWait * 1000000L) {
+					if (expired == null) expired = new ArrayList<>();
+					expired.add(w);
+					rejected++;
+					continue;
+				}
+				if (admit == null) admit = new ArrayList<>();
+				admit.add(w);
+				inFlight++;
+			}
+		}
+		if (expired != null)
+			for (Waiting w : expired)
+				w.result.unblockSuccess(reject(w.request));
+		if (admit != null)
+			for (Waiting w : admit) {
+				admitted(w.request);
+				w.result.unblockSuccess(FilterResult.CONTINUE_PROCESSING);
+			}
+	}
+
+	/** The queue is ordered by arrival time, so a single task rejects the expired requests at the head of the queue,
+	 * then is scheduled again for the expiration of the next one.
+	 */
+	private void scheduleExpiration(long delay) {
+		new Task.Cpu.FromRunnable("Reject requests waiting for too long", Task.PRIORITY_NORMAL, this::expire)
+			.executeIn(Math.max(0, delay)).start();
+	}
+
+	private void expire() {
+		long now = System.nanoTime();
+		long maxWaitNanos = maxWait * 1000000L;
+		List<Waiting> expired = null;
+		long next;
+		synchronized (this) {
+			while (!queue.isEmpty() && now - queue.peek().time >= maxWaitNanos) {
+				Waiting w = queue.poll();
+				if (w.result.isCancelled())
+					continue;
+				if (expired == null) expired = new ArrayList<>();
+				expired.add(w);
+				rejected++;
+			}
+			if (queue.isEmpty()) {
+				expirationScheduled = false;
+				next = -1;
+			} else {
+				next = (maxWaitNanos - (now - queue.peek().time)) / 1000000L + 1;
+			}
+		}
+		if (expired != null)
+			for (Waiting w : expired)
+				w.result.unblockSuccess(reject(w.request));
+		if (next >= 0)
+			scheduleExpiration(next);
+	}
+
+	private void adapt(long start, long latency) {
+		if (minLatency == 0 || latency < minLatency)
+			minLatency = latency;
+		else
+			minLatency += (latency - minLatency) >> 10; // slowly forget the lowest latency so it follows the load
+		double l = getLimitValue();
+		if (latency > minLatency * latencyTolerance) {
+			// decrease only once for requests started before the previous decrease
+			if (start < lastDecrease) return;
+			lastDecrease = System.nanoTime();
+			limit = Math.max(minConcurrent, l * 0.9d);
+		} else if (inFlight + 1 >= (int)l) {
+			limit = Math.min(maxConcurrent, l + 1.0d / l);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package net.lecousin.framework.web.filters;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.math.IntegerUnit.Unit;
+import net.lecousin.framework.math.TimeUnit.Millisecond;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+
+/**
+ * Set a deadline on the requests: once the deadline is exceeded, the processing is cancelled
+ * and a 504 status is sent.
+ * <br/>
+ * The deadline is given by the timeout, and optionally by a header sent by the client (a number of
+ * milliseconds, capped by maxTimeout), so a deadline can be propagated from a calling service.
+ * If several filters set a deadline, the earliest one is kept.
+ * The remaining time is available with {@link WebRequest#getRemainingTime()} to give a timeout to downstream calls.
+ */
+public class DeadlineFilter implements WebRequestFilter {
+
+	/** Maximum time to process a request, 0 for no timeout. */
+	@Unit(Millisecond.class)
+	public long timeout = 0;
+	/** Name of a header containing the number of milliseconds the client is willing to wait, null to ignore it. */
+	public String header = null;
+	/** Maximum value accepted from the header, 0 for no maximum. */
+	@Unit(Millisecond.class)
+	public long maxTimeout = 0;
+	
+	@Override
+	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
+		if (timeout > 0)
+			request.setTimeout(timeout);
+		if (header != null) {
+			String value = request.getRequest().getMIME().getFirstHeaderRawValue(header);
+			if (value != null) {
+				try {
+					long t = Long.parseLong(value.trim());
+					if (maxTimeout > 0 && t > maxTimeout) t = maxTimeout;
+					if (t > 0) request.setTimeout(t);
+				} catch (NumberFormatException e) {
+					// ignore invalid value
+				}
+			}
+		}
+		return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+	}
+	
+}
@@ -0,0 +1,195 @@
+package net.lecousin.framework.web.filters;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.math.IntegerUnit.Unit;
+import net.lecousin.framework.math.TimeUnit.Millisecond;
+import net.lecousin.framework.network.http.server.HTTPServerResponse;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+import net.lecousin.framework.web.security.IAuthenticationRequest;
+import net.lecousin.framework.web.security.TokenRequest;
+
+/**
+ * Limit the rate of requests by client, rejecting the requests above the limit with a 429 status.
+ * <br/>
+ * Clients are identified by their remote IP address (keyType <i>ip</i>), or by their authentication
+ * token (keyType <i>token</i>, a token filter must be declared before), or by a custom function given
+ * to {@link #setKeyExtractor(Function)}. Requests without key are not limited.
+ * <br/>
+ * The limit is a rate of <code>requests</code> per <code>period</code>, with up to <code>burst</code>
+ * additional requests allowed at once. By default the burst allows the requests of a period at once, so
+ * a client sending a few simultaneous requests is not rejected while it stays under the rate.
+ * It is implemented with the Generic Cell Rate Algorithm: the state of a client is a single theoretical
+ * arrival time updated with compare-and-set, in maps split into stripes.
+ * A client whose theoretical arrival time is in the past is in its initial state, so it is removed when
+ * a stripe is cleaned, at most once per period. Its state is marked as removed with compare-and-set before,
+ * so a concurrent request cannot update a removed state.
+ * <br/>
+ * Responses get the headers X-RateLimit-Limit, X-RateLimit-Remaining and X-RateLimit-Reset (seconds until
+ * the limit is fully available), and Retry-After when rejected.
+ */
+public class RateLimitFilter implements WebRequestFilter {
+
+	/** Number of requests allowed by period. */
+	public int requests = 100;
+	/** Period of time for the number of requests. */
+	@Unit(Millisecond.class)
+	public long period = 1000;
+	/** Number of requests allowed in a burst above the rate, or a negative value to allow the requests of a period at once. */
+	public int burst = -1;
+	/** How to identify the clients: ip or token. */
+	public String keyType = "ip";
+	/** Type of token when keyType is token, null to accept any token. */
+	public String tokenType = null;
+	/** Number of stripes, must be a power of 2. */
+	public int stripes = 16;
+
+	private Function<WebRequest, String> keyExtractor = null;
+	private Stripe[] buckets = null;
+
+	/** Value of a state removed by the cleaning. */
+	private static final long REMOVED = Long.MIN_VALUE;
+
+	private static final class Stripe {
+		private ConcurrentHashMap<String, AtomicLong> cells = new ConcurrentHashMap<>();
+		private volatile long nextCleaning = System.nanoTime();
+	}
+
+	/** Set a custom function to identify clients, overriding the keyType. The function may return null to not limit a request. */
+	public void setKeyExtractor(Function<WebRequest, String> extractor) {
+		keyExtractor = extractor;
+	}
+
+	/** Return the number of clients currently tracked. */
+	public int getTrackedKeys() {
+		Stripe[] s = buckets;
+		if (s == null) return 0;
+		int nb = 0;
+		for (int i = 0; i < s.length; ++i)
+			nb += s[i].cells.size();
+		return nb;
+	}
+
+	protected String getKey(WebRequest request) {
+		if (keyExtractor != null)
+			return keyExtractor.apply(request);
+		if ("token".equalsIgnoreCase(keyType)) {
+			for (IAuthenticationRequest auth : request.getAuthenticationRequests())
+				if (auth instanceof TokenRequest && (tokenType == null || tokenType.equals(((TokenRequest)auth).type)))
+					return ((TokenRequest)auth).token;
+			return null;
+		}
+		try {
+			SocketAddress address = request.getClient().getRemoteAddress();
+			if (address instanceof InetSocketAddress)
+				return ((InetSocketAddress)address).getAddress().getHostAddress();
+			return address != null ? address.toString() : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private Stripe[] getBuckets() {
+		Stripe[] s = buckets;
+		if (s != null) return s;
+		synchronized (this) {
+			if (buckets == null) {
+				int nb = Integer.highestOneBit(Math.max(1, stripes));
+				s = new Stripe[nb];
+				for (int i = 0; i < nb; ++i)
+					s[i] = new Stripe();
+				buckets = s;
+			}
+			return buckets;
+		}
+	}
+
+	@Override
+	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
+		String key = getKey(request);
+		if (key == null)
+			return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+		Stripe[] s = getBuckets();
+		int h = key.hashCode();
+		Stripe stripe = s[(h ^ (h >>> 16)) & (s.length - 1)];
+		long now = System.nanoTime();
+		long emission = Math.max(1, period * 1000000L / Math.max(1, requests));
+		long tolerance = emission * (burst < 0 ? Math.max(0, requests - 1) : burst);
+		AtomicLong cell = getCell(stripe, key, now, emission);
+		long newTat;
+		do {
+			long tat = cell.get();
+			if (tat == REMOVED) {
+				// removed by the cleaning since we got it
+				cell = getCell(stripe, key, now, emission);
+				continue;
+			}
+			newTat = Math.max(tat, now) + emission;
+			if (newTat - now > emission + tolerance) {
+				// too early
+				long wait = newTat - now - emission - tolerance;
+				HTTPServerResponse response = request.getResponse();
+				response.setStatus(429, "Too Many Requests");
+				setHeaders(response, 0, tat - now);
+				response.getMIME().setHeaderRaw("Retry-After", Long.toString(toSeconds(wait)));
+				return new AsyncWork<>(FilterResult.STOP_PROCESSING, null);
+			}
+			if (cell.compareAndSet(tat, newTat))
+				break;
+		} while (true);
+		setHeaders(request.getResponse(), (emission + tolerance - (newTat - now)) / emission, newTat - now);
+		return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+	}
+
+	private AtomicLong getCell(Stripe stripe, String key, long now, long emission) {
+		do {
+			AtomicLong cell = stripe.cells.get(key);
+			if (cell != null) {
+				if (cell.get() != REMOVED)
+					return cell;
+				// being removed by the cleaning
+				stripe.cells.remove(key, cell);
+				continue;
+			}
+			clean(stripe, now, emission);
+			AtomicLong c = new AtomicLong(now);
+			cell = stripe.cells.putIfAbsent(key, c);
+			if (cell == null) return c;
+		} while (true);
+	}
+
+	private void setHeaders(HTTPServerResponse response, long remaining, long reset) {
+		response.getMIME().setHeaderRaw("X-RateLimit-Limit", Integer.toString(requests));
+		response.getMIME().setHeaderRaw("X-RateLimit-Remaining", Long.toString(remaining));
+		response.getMIME().setHeaderRaw("X-RateLimit-Reset", Long.toString(toSeconds(reset)));
+	}
+
+	private static long toSeconds(long nanos) {
+		return (nanos + 999999999L) / 1000000000L;
+	}
+
+	/** Remove the clients back to their initial state, at most once per period. */
+	private void clean(Stripe stripe, long now, long emission) {
+		long next = stripe.nextCleaning;
+		if (now - next < 0) return;
+		long interval = Math.max(period * 1000000L, emission);
+		synchronized (stripe) {
+			if (stripe.nextCleaning != next) return;
+			stripe.nextCleaning = now + interval;
+		}
+		for (Map.Entry<String, AtomicLong> e : stripe.cells.entrySet()) {
+			AtomicLong cell = e.getValue();
+			long tat = cell.get();
+			if (tat != REMOVED && tat - now <= 0 && cell.compareAndSet(tat, REMOVED))
+				stripe.cells.remove(e.getKey(), cell);
+		}
+	}
+
+}
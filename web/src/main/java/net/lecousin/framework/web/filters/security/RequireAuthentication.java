@@ -25,7 +25,7 @@ public class RequireAuthentication implements WebRequestFilter {
 	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
 		AsyncWork<IAuthentication, Exception> auth = request.authenticate(authenticationProvider);
 		AsyncWork<FilterResult, Exception> result = new AsyncWork<>();
-		auth.listenAsync(new Task.Cpu<Void, NoException>("Check authentication", Task.PRIORITY_NORMAL) {
+		auth.listenAsync(new Task.Cpu<Void, NoException>("Check authentication", request.getPriority()) {
 			@Override
 			public Void run() {
 				if (auth.hasError()) {
@@ -38,7 +38,7 @@ public class RequireRolesFilter implements WebRequestFilter {
 	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
 		AsyncWork<IAuthentication, Exception> auth = request.authenticate(authenticationProvider);
 		AsyncWork<FilterResult, Exception> result = new AsyncWork<>();
-		auth.listenAsync(new Task.Cpu<Void, NoException>("Check user roles", Task.PRIORITY_NORMAL) {
+		auth.listenAsync(new Task.Cpu<Void, NoException>("Check user roles", request.getPriority()) {
 			@Override
 			public Void run() {
 				if (auth.hasError()) {
@@ -0,0 +1,12 @@
+package net.lecousin.framework.web.jfr;
+
+/** Emitter of events, implemented by JFREvents which is compiled only with a JDK providing JFR. */
+interface EventEmitter {
+
+	/** Start an event, and return it, or null if this type of event is not enabled. */
+	Object begin(WebEvents.Kind kind);
+	
+	/** End an event started with begin, and commit it if needed. */
+	void end(Object event, String path, Class<?> type, String operation);
+	
+}
@@ -0,0 +1,77 @@
+package net.lecousin.framework.web.jfr;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+
+/**
+ * Emit Java Flight Recorder events about the processing of requests.
+ * <p>
+ * Each event gives the path of the request, the class of the processor, filter or service, an optional
+ * operation name, and the duration. An event is created by {@link #begin(Kind)}, which returns null
+ * when JFR is not available in the JVM, or when this type of event is not enabled in the current
+ * recordings, so nothing else is done when no recording is in progress.
+ * </p>
+ * <p>
+ * The JFR events are compiled only when building with a JDK providing JFR (Java 11 or later), so this library
+ * can still be built and used with Java 8, in which case no event is emitted.
+ * </p>
+ * <p>
+ * Events can be disabled completely with the system property
+ * <code>net.lecousin.framework.web.jfr=false</code>.
+ * </p>
+ */
+public final class WebEvents {
+	
+	private WebEvents() {
+		/* no instance */
+	}
+
+	/** Type of event. */
+	public enum Kind {
+		ROUTING, PRE_FILTER, POST_FILTER,
+		REST_INVOCATION, REST_SERIALIZATION,
+		SOAP_PARSE, SOAP_EXECUTE, SOAP_SERIALIZE,
+		SESSION_LOAD, SESSION_SAVE
+	}
+	
+	private static final EventEmitter EMITTER = loadEmitter();
+	
+	private static EventEmitter loadEmitter() {
+		if ("false".equals(System.getProperty("net.lecousin.framework.web.jfr")))
+			return null;
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (EventEmitter)Class.forName("net.lecousin.framework.web.jfr.JFREvents").getDeclaredConstructor().newInstance();
+		} catch (Throwable t) {
+			// JFR not available in the JVM, or events not compiled
+			return null;
+		}
+	}
+	
+	/** Return true if JFR is available, meaning events may be emitted. */
+	public static boolean isAvailable() {
+		return EMITTER != null;
+	}
+	
+	/** Start an event, and return it, or null if the event will not be recorded. */
+	public static Object begin(Kind kind) {
+		EventEmitter emitter = EMITTER;
+		if (emitter == null) return null;
+		return emitter.begin(kind);
+	}
+	
+	/** End an event started with {@link #begin(Kind)}, and commit it if needed. The event may be null. */
+	public static void end(Object event, String path, Class<?> type, String operation) {
+		if (event == null) return;
+		EMITTER.end(event, path, type, operation);
+	}
+	
+	/** End an event started with {@link #begin(Kind)} when the given synchronization point is unblocked. */
+	public static void end(Object event, String path, Class<?> type, String operation, ISynchronizationPoint<?> sp) {
+		if (event == null) return;
+		if (sp.isUnblocked())
+			EMITTER.end(event, path, type, operation);
+		else
+			sp.listenInline(() -> { EMITTER.end(event, path, type, operation); });
+	}
+	
+}
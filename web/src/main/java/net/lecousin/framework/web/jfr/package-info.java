@@ -0,0 +1,4 @@
+/**
+ * Java Flight Recorder events about the processing of requests.
+ */
+package net.lecousin.framework.web.jfr;
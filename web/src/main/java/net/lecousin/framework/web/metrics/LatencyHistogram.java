@@ -0,0 +1,119 @@
+package net.lecousin.framework.web.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds, using log-linear buckets: each power of 2 is divided into
+ * 16 linear buckets, so the relative error of a value is less than 6.25%.
+ * <p>
+ * Recording a value is lock-free and does not allocate, so it can be done on every request.
+ * Values above 2<sup>40</sup> microseconds (about 12 days) are recorded as this maximum.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	/** Highest value that can be recorded. */
+	public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private LongAdder total = new LongAdder();
+	private AtomicLong max = new AtomicLong(0);
+	
+	/** Record a value in microseconds. */
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		else if (micros > MAX_VALUE) micros = MAX_VALUE;
+		counts.incrementAndGet(bucketIndex(micros));
+		total.add(micros);
+		long m = max.get();
+		while (micros > m && !max.compareAndSet(m, micros))
+			m = max.get();
+	}
+	
+	/** Record the time elapsed since the given value of {@link System#nanoTime()}. */
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+	
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+	}
+	
+	/** Highest value of the given bucket. */
+	static long bucketHighestValue(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long)(SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+	
+	/** Take a snapshot of the current values. */
+	public Snapshot getSnapshot() {
+		long[] c = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			c[i] = counts.get(i);
+			count += c[i];
+		}
+		return new Snapshot(c, count, total.sum(), max.get());
+	}
+	
+	/** Values of a histogram at a given time. */
+	public static final class Snapshot {
+		
+		private Snapshot(long[] counts, long count, long total, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+		
+		private long[] counts;
+		private long count;
+		private long total;
+		private long max;
+		
+		/** Number of recorded values. */
+		public long getCount() {
+			return count;
+		}
+		
+		/** Highest recorded value. */
+		public long getMax() {
+			return max;
+		}
+		
+		/** Average of the recorded values. */
+		public double getMean() {
+			return count == 0 ? 0 : (double)total / count;
+		}
+		
+		/** Return the value under which the given percentage of the values are, for example 99.9,
+		 * with the precision of the buckets. */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) return 0;
+			long rank = (long)Math.ceil(percentile / 100d * count);
+			if (rank < 1) rank = 1;
+			long seen = 0;
+			for (int i = 0; i < counts.length; ++i) {
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(bucketHighestValue(i), max);
+			}
+			return max;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,128 @@
+package net.lecousin.framework.web.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.io.buffering.ByteArrayIO;
+import net.lecousin.framework.network.http.HTTPRequest;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/**
+ * Processor returning the metrics as JSON, for GET requests.
+ * The metrics are the ones set on this processor, or else the ones of the bundle containing it.
+ * Latencies are given in microseconds.
+ */
+public class MetricsProcessor implements WebRequestProcessor {
+
+	private WebRequestProcessor parent;
+	private WebMetrics metrics = null;
+	
+	@Override
+	public WebRequestProcessor getParent() {
+		return parent;
+	}
+	
+	@Override
+	public void setParent(WebRequestProcessor parent) {
+		this.parent = parent;
+	}
+	
+	public void setMetrics(WebMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/** Return the metrics to expose, or null if metrics are not enabled. */
+	public WebMetrics getMetrics() {
+		if (metrics != null)
+			return metrics;
+		for (WebRequestProcessor p = parent; p != null; p = p.getParent())
+			if (p instanceof WebResourcesBundle)
+				return ((WebResourcesBundle)p).getMetrics();
+		return null;
+	}
+	
+	@Override
+	public boolean isRoutingCacheable(WebRequest request) {
+		return true;
+	}
+	
+	@Override
+	public Object checkProcessing(WebRequest request) {
+		if (!HTTPRequest.Method.GET.equals(request.getRequest().getMethod()))
+			return null;
+		if (request.getSubPath().length() > 0)
+			return null;
+		return Boolean.TRUE;
+	}
+	
+	@SuppressWarnings("resource")
+	@Override
+	public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
+		WebMetrics m = getMetrics();
+		if (m == null) {
+			request.getResponse().setStatus(404, "Metrics are not enabled");
+			return new SynchronizationPoint<>(true);
+		}
+		byte[] json = toJSON(m).getBytes(StandardCharsets.UTF_8);
+		request.getResponse().setStatus(200);
+		request.getResponse().noCache();
+		request.getResponse().setRawContentType("application/json;charset=utf-8");
+		request.getResponse().getMIME().setBodyToSend(new ByteArrayIO(json, "metrics"));
+		return new SynchronizationPoint<>(true);
+	}
+	
+	/** Generate the JSON representation of the given metrics. */
+	public static String toJSON(WebMetrics metrics) {
+		StringBuilder s = new StringBuilder(4096);
+		s.append("{\"metrics\":[");
+		boolean first = true;
+		for (ProcessorMetrics m : metrics.getAll()) {
+			if (first) first = false;
+			else s.append(',');
+			s.append("{\"type\":\"").append(m.getType().name().toLowerCase(Locale.US).replace('_', '-')).append('"');
+			s.append(",\"path\":");
+			appendString(s, m.getPath());
+			s.append(",\"id\":");
+			appendString(s, m.getId());
+			s.append(",\"requests\":").append(m.getRequests());
+			s.append(",\"errors\":").append(m.getErrors());
+			s.append(",\"inFlight\":").append(m.getInFlight());
+			s.append(",\"latency\":");
+			appendHistogram(s, m.getLatency().getSnapshot());
+			if (m.getCheckLatency() != null) {
+				s.append(",\"checkLatency\":");
+				appendHistogram(s, m.getCheckLatency().getSnapshot());
+			}
+			s.append('}');
+		}
+		s.append("]}");
+		return s.toString();
+	}
+	
+	private static void appendHistogram(StringBuilder s, LatencyHistogram.Snapshot h) {
+		s.append("{\"count\":").append(h.getCount());
+		s.append(",\"mean\":").append(Math.round(h.getMean()));
+		s.append(",\"p50\":").append(h.getValueAtPercentile(50));
+		s.append(",\"p90\":").append(h.getValueAtPercentile(90));
+		s.append(",\"p99\":").append(h.getValueAtPercentile(99));
+		s.append(",\"p999\":").append(h.getValueAtPercentile(99.9));
+		s.append(",\"max\":").append(h.getMax());
+		s.append('}');
+	}
+	
+	private static void appendString(StringBuilder s, String str) {
+		s.append('"');
+		for (int i = 0; i < str.length(); ++i) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\') s.append('\\').append(c);
+			else if (c < 0x20) s.append(String.format("\\u%04x", Integer.valueOf(c)));
+			else s.append(c);
+		}
+		s.append('"');
+	}
+	
+}
@@ -0,0 +1,108 @@
+package net.lecousin.framework.web.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.network.http.server.HTTPServerResponse;
+
+/** Counters and latencies of a processor or a filter, at a given path. */
+public final class ProcessorMetrics {
+
+	/** Type of element measured. */
+	public enum Type {
+		PROCESSOR, PRE_FILTER, POST_FILTER
+	}
+	
+	ProcessorMetrics(String path, String id, Type type) {
+		this.path = path;
+		this.id = id;
+		this.type = type;
+		checkLatency = type == Type.PROCESSOR ? new LatencyHistogram() : null;
+	}
+	
+	private String path;
+	private String id;
+	private Type type;
+	private LongAdder requests = new LongAdder();
+	private LongAdder errors = new LongAdder();
+	private LongAdder inFlight = new LongAdder();
+	private LatencyHistogram latency = new LatencyHistogram();
+	private LatencyHistogram checkLatency;
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public Type getType() {
+		return type;
+	}
+	
+	/** Number of requests processed or filtered, including the ones in progress. */
+	public long getRequests() {
+		return requests.sum();
+	}
+	
+	/** Number of requests which ended with an error, have been cancelled, or got a server error status from a processor. */
+	public long getErrors() {
+		return errors.sum();
+	}
+	
+	/** Number of requests in progress. */
+	public long getInFlight() {
+		return inFlight.sum();
+	}
+	
+	/** Latencies of the processing or filtering, in microseconds. */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	/** Latencies of the calls to checkProcessing, in microseconds, or null if this is a filter. */
+	public LatencyHistogram getCheckLatency() {
+		return checkLatency;
+	}
+	
+	/** Signal the start of a processing, and return the start time to give to {@link #end(long, boolean)}. */
+	public long start() {
+		requests.increment();
+		inFlight.increment();
+		return System.nanoTime();
+	}
+	
+	/** Signal the end of a processing started at the given time. */
+	public void end(long start, boolean error) {
+		inFlight.decrement();
+		if (error) errors.increment();
+		latency.recordSince(start);
+	}
+	
+	/** Call {@link #end(long, boolean)} when the given synchronization point is unblocked. */
+	public void end(long start, ISynchronizationPoint<?> sp) {
+		if (sp.isUnblocked()) {
+			end(start, sp.hasError() || sp.isCancelled());
+			return;
+		}
+		sp.listenInline(() -> { end(start, sp.hasError() || sp.isCancelled()); });
+	}
+	
+	/** Call {@link #end(long, boolean)} when the given processing is done, counting an error also if the response
+	 * has a server error status, as the web services report most of their errors with the status of the response. */
+	public void end(long start, ISynchronizationPoint<?> sp, HTTPServerResponse response) {
+		if (sp.isUnblocked()) {
+			end(start, sp.hasError() || sp.isCancelled() || response.getStatusCode() >= 500);
+			return;
+		}
+		sp.listenInline(() -> { end(start, sp.hasError() || sp.isCancelled() || response.getStatusCode() >= 500); });
+	}
+	
+	/** Record the latency of a call to checkProcessing started at the given time. */
+	public void checked(long start) {
+		if (checkLatency != null)
+			checkLatency.recordSince(start);
+	}
+	
+}
@@ -0,0 +1,59 @@
+package net.lecousin.framework.web.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.lecousin.framework.web.services.WebServiceProvider;
+
+/**
+ * Registry of metrics, by type, path and processor or filter identifier.
+ * <p>
+ * The metrics are created when routes are compiled, so the registry is not accessed while processing requests.
+ * The identifier of a processor or a filter is its configured id, or else its class name, or the class name of
+ * the web service for a web service provider, followed by its index in its bundle when several elements of the same
+ * class are at the same path.
+ * </p>
+ */
+public class WebMetrics {
+
+	private ConcurrentHashMap<String, ProcessorMetrics> metrics = new ConcurrentHashMap<>();
+	
+	/** Return the metrics for the given element at the given path, creating them if needed. */
+	public ProcessorMetrics get(ProcessorMetrics.Type type, String path, Object processorOrFilter) {
+		return get(type, path, getId(processorOrFilter));
+	}
+	
+	/** Return the metrics for the element having the given identifier at the given path, creating them if needed. */
+	public ProcessorMetrics get(ProcessorMetrics.Type type, String path, String id) {
+		String key = type.name() + ' ' + path + ' ' + id;
+		ProcessorMetrics m = metrics.get(key);
+		if (m != null)
+			return m;
+		m = new ProcessorMetrics(path, id, type);
+		ProcessorMetrics previous = metrics.putIfAbsent(key, m);
+		return previous != null ? previous : m;
+	}
+	
+	/** Return all the metrics, ordered by path, type and identifier. */
+	public List<ProcessorMetrics> getAll() {
+		List<ProcessorMetrics> list = new ArrayList<>(metrics.values());
+		list.sort((m1, m2) -> {
+			int c = m1.getPath().compareTo(m2.getPath());
+			if (c != 0) return c;
+			c = m1.getType().compareTo(m2.getType());
+			if (c != 0) return c;
+			return m1.getId().compareTo(m2.getId());
+		});
+		return list;
+	}
+	
+	/** Return the identifier of the given processor or filter, based on its class. */
+	public static String getId(Object processorOrFilter) {
+		if (processorOrFilter instanceof WebServiceProvider)
+			return processorOrFilter.getClass().getSimpleName() + '(' +
+				((WebServiceProvider<?>)processorOrFilter).getWebService().getClass().getName() + ')';
+		return processorOrFilter.getClass().getName();
+	}
+	
+}
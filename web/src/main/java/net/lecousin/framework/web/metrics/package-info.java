@@ -0,0 +1,4 @@
+/**
+ * Request counters and latency histograms, by path and processor.
+ */
+package net.lecousin.framework.web.metrics;
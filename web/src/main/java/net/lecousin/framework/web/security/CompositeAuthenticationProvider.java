@@ -41,7 +41,7 @@ public class CompositeAuthenticationProvider implements IAuthenticationProvider
 			return;
 		}
 		IAuthenticationProvider provider = it.next();
-		provider.authenticate(request).listenAsync(new Task.Cpu.FromRunnable("Authentication", Task.PRIORITY_NORMAL, () -> {
+		provider.authenticate(request).listenAsync(new Task.Cpu.FromRunnable("Authentication", request.getPriority(), () -> {
 			if (request.hasAuthentication(provider)) {
 				request.addAuthentication(this, request.getAuthentication(provider));
 				sp.unblock();
@@ -72,6 +72,14 @@ public interface WebService {
 		RequireIntegerRight[] value();
 	}
 	
+	/** Priority of the tasks processing the requests of a service, when not configured on the service element of the bundle. */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface Priority {
+		/** Task priority. */
+		byte value();
+	}
+	
 	/** The parameter should be created by deserializing the body. */
 	@Retention(RetentionPolicy.RUNTIME)
 	@Target(ElementType.PARAMETER)
@@ -17,6 +17,7 @@ import net.lecousin.framework.network.http.HTTPRequest;
 import net.lecousin.framework.network.mime.MimeMessage;
 import net.lecousin.framework.network.mime.entity.MultipartEntity;
 import net.lecousin.framework.network.mime.header.ParameterizedHeaderValue;
+import net.lecousin.framework.web.WebRequest;
 import net.lecousin.framework.web.WebResourcesBundle;
 
 /** Utility methods for web services. */
@@ -83,14 +84,28 @@ public final class WebServiceUtils {
 		throw new Exception("Parameter type " + type.getName() + " is not supported");
 	}
 	
+	/** Deserialize the given type from the body of the request, with the priority of the request. */
+	public static AsyncWork<?, Exception> fillFromBody(
+		Class<?> type, ParameterizedType ptype, WebRequest request, WebResourcesBundle bundle
+	) throws Exception {
+		return fillFromBody(type, ptype, request.getRequest(), bundle, Byte.valueOf(request.getPriority()));
+	}
+	
 	/** Deserialize the given type from the body of the request. */
-	@SuppressWarnings("resource")
 	public static AsyncWork<?, Exception> fillFromBody(
 		Class<?> type, ParameterizedType ptype, HTTPRequest request, WebResourcesBundle bundle
+	) throws Exception {
+		return fillFromBody(type, ptype, request, bundle, null);
+	}
+	
+	@SuppressWarnings("resource")
+	private static AsyncWork<?, Exception> fillFromBody(
+		Class<?> type, ParameterizedType ptype, HTTPRequest request, WebResourcesBundle bundle, Byte priority
 	) throws Exception {
 		IO.Readable.Seekable body = (IO.Readable.Seekable)request.getMIME().getBodyReceivedAsInput();
 		if (body == null)
 			throw new Exception("No data received");
+		byte taskPriority = priority != null ? priority.byteValue() : body.getPriority();
 		try {
 			ParameterizedHeaderValue ct = request.getMIME().getContentType();
 			if (ct == null)
@@ -111,7 +126,7 @@ public final class WebServiceUtils {
 			if ("multipart/related".equals(mimeType)) {
 				AsyncWork<MultipartEntity, Exception> parse = MultipartEntity.from(request.getMIME(), true);
 				AsyncWork<Object, Exception> result = new AsyncWork<>();
-				parse.listenAsync(new Task.Cpu.FromRunnable("Deserializing HTTP body", body.getPriority(), () -> {
+				parse.listenAsync(new Task.Cpu.FromRunnable("Deserializing HTTP body", taskPriority, () -> {
 					MultipartEntity multipart = parse.getResult();
 					for (MimeMessage part : multipart.getParts()) {
 						ParameterizedHeaderValue partType;
@@ -49,6 +49,7 @@ import net.lecousin.framework.util.Pair;
 import net.lecousin.framework.util.Triple;
 import net.lecousin.framework.web.WebRequest;
 import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.jfr.WebEvents;
 import net.lecousin.framework.web.security.IAuthentication;
 import net.lecousin.framework.web.security.IAuthenticationProvider;
 import net.lecousin.framework.web.security.IRightsManager;
@@ -476,6 +477,12 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 		return list;
 	}
 
+	@Override
+	public boolean isRoutingCacheable(WebRequest request) {
+		// methods and sub-resources are selected only using the HTTP method and the path
+		return true;
+	}
+
 	@Override
 	public Object checkProcessing(WebRequest request) {
 		String subpath = request.getSubPath();
@@ -627,7 +634,7 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 		}
 		AsyncWork<IAuthentication, Exception> auth = request.authenticate(authenticationProvider);
 		SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
-		auth.listenAsync(new Task.Cpu<Void, NoException>("Processing REST request", Task.PRIORITY_NORMAL) {
+		auth.listenAsync(new Task.Cpu<Void, NoException>("Processing REST request", request.getPriority()) {
 			@Override
 			public Void run() {
 				if (sp.isCancelled()) return null;
@@ -701,7 +708,7 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 							throw new Exception("No authentication provider, but authentication needed by this service");
 						AsyncWork<IAuthentication, Exception> a = request.authenticate(authenticationProvider);
 						SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
-						a.listenAsync(new Task.Cpu<Void, NoException>("Processing REST request", Task.PRIORITY_NORMAL) {
+						a.listenAsync(new Task.Cpu<Void, NoException>("Processing REST request", request.getPriority()) {
 							@Override
 							public Void run() {
 								if (sp.isCancelled()) return null;
@@ -767,12 +774,14 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 			}
 			
 			SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
-			Task<Void,NoException> execute = new Task.Cpu.FromRunnable("Execute REST method " + rm.method.getDeclaringClass().getName() + '.' + rm.method.getName(), Task.PRIORITY_NORMAL, () -> {
+			Task<Void,NoException> execute = new Task.Cpu.FromRunnable("Execute REST method " + rm.method.getDeclaringClass().getName() + '.' + rm.method.getName(), request.getPriority(), () -> {
 				if (sp.isCancelled()) return;
 				try {
 					Object result;
+					Object event = WebEvents.begin(WebEvents.Kind.REST_INVOCATION);
 					try { result = rm.method.invoke(service, params); }
 					catch (InvocationTargetException e) {
+						WebEvents.end(event, request.getFullPath(), rm.method.getDeclaringClass(), rm.method.getName());
 						Throwable err = e.getTargetException();
 						logger.error("Error calling REST method " + rm.method.getName() + " on class " + rm.method.getDeclaringClass().getName(), err);
 						if (err instanceof HTTPResponseError)
@@ -783,16 +792,21 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 						return;
 					}
 					catch (Throwable t) {
+						WebEvents.end(event, request.getFullPath(), rm.method.getDeclaringClass(), rm.method.getName());
 						logger.error("Error calling REST method " + rm.method.getName() + " on class " + rm.method.getDeclaringClass().getName(), t);
 						internalError(t.getMessage(), request);
 						sp.unblock();
 						return;
 					}
+					if (result instanceof AsyncWork)
+						WebEvents.end(event, request.getFullPath(), rm.method.getDeclaringClass(), rm.method.getName(), (AsyncWork<?,?>)result);
+					else
+						WebEvents.end(event, request.getFullPath(), rm.method.getDeclaringClass(), rm.method.getName());
 					if (sp.isCancelled()) return;
 					if (result instanceof AsyncWork) {
 						AsyncWork<?,?> processing = (AsyncWork<?,?>)result;
 						sp.forwardCancel(processing);
-						processing.listenAsync(new Task.Cpu<Void,NoException>("Sending REST response", Task.PRIORITY_NORMAL) {
+						processing.listenAsync(new Task.Cpu<Void,NoException>("Sending REST response", request.getPriority()) {
 							@Override
 							public Void run() {
 								if (sp.isCancelled()) return null;
@@ -829,7 +843,7 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 				return sp;
 			}
 			Type t = paramsDef[bodyIndex].getParameterizedType();
-			AsyncWork<?, Exception> body = WebServiceUtils.fillFromBody(paramsDef[bodyIndex].getType(), t instanceof ParameterizedType ? (ParameterizedType)t : null, request.getRequest(), bundle);
+			AsyncWork<?, Exception> body = WebServiceUtils.fillFromBody(paramsDef[bodyIndex].getType(), t instanceof ParameterizedType ? (ParameterizedType)t : null, request, bundle);
 			if (body.isUnblocked()) {
 				if (body.hasError()) {
 					logger.error("Error reading REST Body parameter", body.getError());
@@ -933,8 +947,10 @@ public class RESTWebServiceProvider extends WebServiceProvider<REST> {
 		
 		if (sp.isCancelled()) return;
 		
-		OutputToInputBuffers data = new OutputToInputBuffers(true, 10, Task.PRIORITY_NORMAL);
+		OutputToInputBuffers data = new OutputToInputBuffers(true, 10, request.getPriority());
+		Object event = WebEvents.begin(WebEvents.Kind.REST_SERIALIZATION);
 		ISynchronizationPoint<Exception> serialization = ser.serialize(result, expectedType, data, bundle.getSerializationRules());
+		WebEvents.end(event, request.getFullPath(), result != null ? result.getClass() : null, responseType, serialization);
 		serialization.listenInline(new Runnable() {
 			@Override
 			public void run() {
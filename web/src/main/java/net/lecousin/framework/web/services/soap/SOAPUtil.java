@@ -1,5 +1,6 @@
 package net.lecousin.framework.web.services.soap;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -8,6 +9,7 @@ import java.util.Map;
 
 import net.lecousin.framework.concurrent.Task;
 import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
 import net.lecousin.framework.io.IO;
 import net.lecousin.framework.io.IO.OutputToInput;
 import net.lecousin.framework.io.buffering.SimpleBufferedWritable;
@@ -51,7 +53,17 @@ public final class SOAPUtil {
 		}
 	}
 	
-	public static void sendMessage(SOAPMessageContent message, OutputToInput output, List<SerializationRule> rules) {
+	/** Write the given message, the returned synchronization point is unblocked when the message has been fully written. */
+	public static ISynchronizationPoint<IOException> sendMessage(SOAPMessageContent message, OutputToInput output, List<SerializationRule> rules) {
+		return sendMessage(message, output, rules, Task.PRIORITY_NORMAL);
+	}
+	
+	/** Write the given message using tasks with the given priority,
+	 * the returned synchronization point is unblocked when the message has been fully written. */
+	public static ISynchronizationPoint<IOException> sendMessage(
+		SOAPMessageContent message, OutputToInput output, List<SerializationRule> rules, byte priority
+	) {
+		SynchronizationPoint<IOException> done = new SynchronizationPoint<>();
 		@SuppressWarnings("resource")
 		SimpleBufferedWritable bout = new SimpleBufferedWritable(output, 4096);
 		XMLWriter writer = new XMLWriter(bout, StandardCharsets.UTF_8, true, false);
@@ -60,16 +72,20 @@ public final class SOAPUtil {
 			namespaces.put(message.bodyNamespaceURI, "message");
 		openEnvelope(writer, namespaces);
 		if (message.headers.isEmpty()) {
-			sendBody(false, message, output, bout, writer, rules);
+			sendBody(false, message, output, bout, writer, rules, priority, done);
 		} else {
 			openHeader(writer);
-			sendHeader(message, 0, output, bout, writer, rules);
+			sendHeader(message, 0, output, bout, writer, rules, priority, done);
 		}
+		return done;
 	}
 	
-	private static void sendHeader(SOAPMessageContent message, int headerIndex, OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer, List<SerializationRule> rules) {
+	private static void sendHeader(
+		SOAPMessageContent message, int headerIndex, OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer,
+		List<SerializationRule> rules, byte priority, SynchronizationPoint<IOException> done
+	) {
 		if (headerIndex == message.headers.size()) {
-			sendBody(true, message, out, bout, writer, rules);
+			sendBody(true, message, out, bout, writer, rules, priority, done);
 			return;
 		}
 		SOAPMessageContent.Header header = message.headers.get(headerIndex);
@@ -80,24 +96,27 @@ public final class SOAPUtil {
 		ISynchronizationPoint<? extends Exception> write = new XMLSerializer(writer).serializeValue(null, header.content, header.contentType, "", rules);
 		if (write.isUnblocked()) {
 			if (write.hasError()) {
-				out.signalErrorBeforeEndOfData(IO.error(write.getError()));
+				signalError(out, IO.error(write.getError()), done);
 				return;
 			}
 			writer.closeElement();
-			sendHeader(message, headerIndex + 1, out, bout, writer, rules);
+			sendHeader(message, headerIndex + 1, out, bout, writer, rules, priority, done);
 			return;
 		}
-		write.listenAsync(new Task.Cpu.FromRunnable("Send SOAP message", Task.PRIORITY_NORMAL, () -> {
+		write.listenAsync(new Task.Cpu.FromRunnable("Send SOAP message", priority, () -> {
 			if (write.hasError()) {
-				out.signalErrorBeforeEndOfData(IO.error(write.getError()));
+				signalError(out, IO.error(write.getError()), done);
 				return;
 			}
 			writer.closeElement();
-			sendHeader(message, headerIndex + 1, out, bout, writer, rules);
+			sendHeader(message, headerIndex + 1, out, bout, writer, rules, priority, done);
 		}), true);
 	}
 	
-	private static void sendBody(boolean closeHeader, SOAPMessageContent message, OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer, List<SerializationRule> rules) {
+	private static void sendBody(
+		boolean closeHeader, SOAPMessageContent message, OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer,
+		List<SerializationRule> rules, byte priority, SynchronizationPoint<IOException> done
+	) {
 		if (closeHeader)
 			writer.closeElement();
 		openBody(writer);
@@ -112,20 +131,25 @@ public final class SOAPUtil {
 		}
 		if (write.isUnblocked()) {
 			if (write.hasError()) {
-				out.signalErrorBeforeEndOfData(IO.error(write.getError()));
+				signalError(out, IO.error(write.getError()), done);
 				return;
 			}
-			finalizeSending(out, bout, writer);
+			finalizeSending(out, bout, writer, done);
 			return;
 		}
-		write.listenAsync(new Task.Cpu.FromRunnable("Finalize sending SOAP message", Task.PRIORITY_NORMAL, () -> {
+		write.listenAsync(new Task.Cpu.FromRunnable("Finalize sending SOAP message", priority, () -> {
 			if (write.hasError()) {
-				out.signalErrorBeforeEndOfData(IO.error(write.getError()));
+				signalError(out, IO.error(write.getError()), done);
 				return;
 			}
-			finalizeSending(out, bout, writer);
+			finalizeSending(out, bout, writer, done);
 		}), true);
 	}
+	
+	private static void signalError(OutputToInput out, IOException error, SynchronizationPoint<IOException> done) {
+		out.signalErrorBeforeEndOfData(error);
+		done.error(error);
+	}
 
 	public static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
 	
@@ -145,15 +169,24 @@ public final class SOAPUtil {
 	}
 	
 	public static void finalizeSending(OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer) {
+		finalizeSending(out, bout, writer, new SynchronizationPoint<>());
+	}
+	
+	private static void finalizeSending(OutputToInput out, SimpleBufferedWritable bout, XMLWriter writer, SynchronizationPoint<IOException> done) {
 		writer.end().listenInline(() -> {
 			bout.flush().listenInline(() -> {
 				out.endOfData();
+				done.unblock();
 			}, (error) -> {
-				out.signalErrorBeforeEndOfData(error);
-			}, (cancel) -> {});
+				signalError(out, error, done);
+			}, (cancel) -> {
+				done.cancel(cancel);
+			});
 		}, (error) -> {
-			out.signalErrorBeforeEndOfData(error);
-		}, (cancel) -> {});
+			signalError(out, error, done);
+		}, (cancel) -> {
+			done.cancel(cancel);
+		});
 	}
 
 }
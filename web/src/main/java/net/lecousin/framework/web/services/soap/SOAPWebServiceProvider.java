@@ -42,6 +42,7 @@ import net.lecousin.framework.util.ClassUtil;
 import net.lecousin.framework.util.Pair;
 import net.lecousin.framework.web.WebRequest;
 import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.jfr.WebEvents;
 import net.lecousin.framework.web.security.IAuthentication;
 import net.lecousin.framework.web.security.IAuthenticationProvider;
 import net.lecousin.framework.web.security.IRightsManager;
@@ -155,6 +156,13 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 		return list;
 	}
 
+	@Override
+	public boolean isRoutingCacheable(WebRequest request) {
+		// operations depend on the SOAPAction header, only the documentation depends on the path
+		return HTTPRequest.Method.GET.equals(request.getRequest().getMethod())
+			&& request.getRequest().getMIME().getFirstHeaderRawValue("SOAPAction") == null;
+	}
+
 	@Override
 	public Object checkProcessing(WebRequest request) {
 		String action = request.getRequest().getMIME().getFirstHeaderRawValue("SOAPAction");
@@ -189,7 +197,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 			return processDocRequest(request);
 		Operation op = (Operation)fromCheck;
 		// start reading the body
-		PreBufferedReadable input = new PreBufferedReadable(request.getRequest().getMIME().getBodyReceivedAsInput(), 8192, Task.PRIORITY_NORMAL, 4096, Task.PRIORITY_NORMAL, 16);
+		PreBufferedReadable input = new PreBufferedReadable(request.getRequest().getMIME().getBodyReceivedAsInput(), 8192, request.getPriority(), 4096, request.getPriority(), 16);
 		// check authentication
 		SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
 		processOperation(op, input, request, sp);
@@ -220,7 +228,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 	
 	private class ParseSOAPRequest extends Task.Cpu<Void, NoException> {
 		public ParseSOAPRequest(ISynchronizationPoint<Exception> wait, SynchronizationPoint<Exception> sp, WebRequest request, Runnable run) {
-			super("Parsing SOAP message", Task.PRIORITY_NORMAL);
+			super("Parsing SOAP message", request.getPriority());
 			this.wait = wait;
 			this.sp = sp;
 			this.request = request;
@@ -560,7 +568,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 				callOperation(op, call, auth.getResult(), xml, request, sp, headers);
 				return;
 			}
-			auth.listenAsync(new Task.Cpu<Void, NoException>("Process SOAP Request", Task.PRIORITY_NORMAL) {
+			auth.listenAsync(new Task.Cpu<Void, NoException>("Process SOAP Request", request.getPriority()) {
 				@Override
 				public Void run() {
 					if (sp.isCancelled()) return null;
@@ -630,6 +638,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 			java.lang.reflect.Parameter[] paramsDef = call.method.getParameters();
 			// we are on the envelope body element
 			ElementContext envBody = xml.event.context.getFirst();
+			Object event = WebEvents.begin(WebEvents.Kind.SOAP_PARSE);
 			AsyncWork<Boolean, Exception> next = xml.nextInnerElement(envBody);
 			if (next.isUnblocked()) {
 				if (next.hasError()) {
@@ -654,7 +663,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 				}
 			} else {
 				body = new AsyncWork<>();
-				next.listenAsync(new Task.Cpu<Void, NoException>("Parsing SOAP Body", Task.PRIORITY_NORMAL) {
+				next.listenAsync(new Task.Cpu<Void, NoException>("Parsing SOAP Body", request.getPriority()) {
 					@SuppressWarnings("unchecked")
 					@Override
 					public Void run() {
@@ -683,6 +692,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 					}
 				}, true);
 			}
+			WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName(), body);
 			if (body.isUnblocked()) {
 				if (body.hasError()) {
 					error(400, "Invalid body: " + body.getError().getMessage(), false, request);
@@ -761,14 +771,16 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 	}
 		
 	private void callOperation(MethodCall call, Operation op, WebRequest request, SynchronizationPoint<Exception> sp) {
-		new Task.Cpu<Void, NoException>("Executing SOAP operation", Task.PRIORITY_NORMAL) {
+		new Task.Cpu<Void, NoException>("Executing SOAP operation", request.getPriority()) {
 			@Override
 			public Void run() {
 				if (sp.isCancelled()) return null;
 				try {
 					Object result;
+					Object event = WebEvents.begin(WebEvents.Kind.SOAP_EXECUTE);
 					try { result = call.method.invoke(service, call.params); }
 					catch (InvocationTargetException e) {
+						WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName());
 						e.printStackTrace(); // TODO
 						Throwable err = e.getTargetException();
 						if (err instanceof HTTPResponseError)
@@ -779,6 +791,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 						return null;
 					}
 					catch (Throwable t) {
+						WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName());
 						t.printStackTrace(); // TODO
 						internalError(t.getMessage(), request);
 						sp.unblock();
@@ -786,7 +799,8 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 					}
 					if (result instanceof AsyncWork) {
 						AsyncWork<?,?> processing = (AsyncWork<?,?>)result;
-						processing.listenAsync(new Task.Cpu<Void,NoException>("Sending SOAP response", Task.PRIORITY_NORMAL) {
+						WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName(), processing);
+						processing.listenAsync(new Task.Cpu<Void,NoException>("Sending SOAP response", request.getPriority()) {
 							@Override
 							public Void run() {
 								if (!processing.isSuccessful()) {
@@ -802,6 +816,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 						sp.forwardCancel(processing);
 						return null;
 					}
+					WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName());
 					success(op, result, request, sp);
 					return null;
 				} catch (Throwable t) {
@@ -885,7 +900,9 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 		OutputToInputBuffers out = initSendMessage(200, request);
 		if (sp.isCancelled()) return;
 		sp.unblock();
-		SOAPUtil.sendMessage(response, out, bundle.getSerializationRules());
+		Object event = WebEvents.begin(WebEvents.Kind.SOAP_SERIALIZE);
+		ISynchronizationPoint<IOException> send = SOAPUtil.sendMessage(response, out, bundle.getSerializationRules(), request.getPriority());
+		WebEvents.end(event, request.getFullPath(), op.method.getDeclaringClass(), op.method.getName(), send);
 	}
 	
 	@SuppressWarnings("resource")
@@ -925,7 +942,7 @@ public class SOAPWebServiceProvider extends WebServiceProvider<SOAP> {
 	private static OutputToInputBuffers initSendMessage(int code, WebRequest request) {
 		request.getResponse().setStatus(code);
 		request.getResponse().setRawContentType("application/soap+xml; charset=utf-8");
-		OutputToInputBuffers o2i = new OutputToInputBuffers(false, 4, Task.PRIORITY_NORMAL);
+		OutputToInputBuffers o2i = new OutputToInputBuffers(false, 4, request.getPriority());
 		request.getResponse().getMIME().setBodyToSend(o2i);
 		return o2i;
 	}
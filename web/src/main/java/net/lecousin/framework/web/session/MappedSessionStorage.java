@@ -0,0 +1,521 @@
+package net.lecousin.framework.web.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import net.lecousin.framework.application.LCCore;
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.exception.NoException;
+import net.lecousin.framework.log.Logger;
+import net.lecousin.framework.network.session.ISession;
+import net.lecousin.framework.network.session.SessionStorage;
+
+/**
+ * Persistent session storage, using a memory-mapped file in which records are only appended,
+ * with an index of the sessions in memory.
+ * <br/>
+ * Each save appends a record with the session data, and a removal appends a tombstone. Records have a CRC,
+ * so on startup the file is read until the first incomplete or corrupted record, and the rest is discarded.
+ * Periodically, a record with the last usage time is appended for the sessions used since then without being saved,
+ * so sessions only read are not expired on restart, the mapped file is forced to disk, and if more than half of
+ * the file is made of obsolete records, the live sessions are copied to a new file which replaces the current one.
+ * <br/>
+ * Values of type String, Integer, Long, Boolean, Double and byte[] are written in a compact binary form,
+ * other values use Java serialization.
+ */
+public class MappedSessionStorage implements SessionStorage {
+
+	/** Constructor with a maintenance every minute. */
+	public MappedSessionStorage(File file, long expiration) throws IOException {
+		this(file, expiration, 60000);
+	}
+
+	/** Constructor.
+	 * @param file file to store the sessions
+	 * @param expiration expiration of sessions in milliseconds since last usage, 0 for no expiration
+	 * @param maintenanceInterval interval in milliseconds to force the file to disk and compact it if needed
+	 */
+	public MappedSessionStorage(File file, long expiration, long maintenanceInterval) throws IOException {
+		this.file = file;
+		this.expiration = expiration;
+		this.maintenanceInterval = maintenanceInterval;
+		logger = LCCore.getApplication().getLoggerFactory().getLogger(MappedSessionStorage.class);
+		open();
+		if (maintenanceInterval > 0)
+			scheduleMaintenance();
+	}
+
+	private static final int MAGIC = 0x4C435353; // LCSS
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8; // length + crc
+	private static final byte RECORD_SAVE = 1;
+	private static final byte RECORD_REMOVE = 2;
+	private static final byte RECORD_USAGE = 3;
+	private static final int INITIAL_SIZE = 1024 * 1024;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_INTEGER = 2;
+	private static final byte TYPE_LONG = 3;
+	private static final byte TYPE_BOOLEAN = 4;
+	private static final byte TYPE_DOUBLE = 5;
+	private static final byte TYPE_BYTES = 6;
+	private static final byte TYPE_SERIALIZED = 7;
+
+	private File file;
+	private Logger logger;
+	private long expiration;
+	private long maintenanceInterval;
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int position;
+	private long liveBytes = 0;
+	private HashMap<String, Entry> index = new HashMap<>();
+	private boolean closed = false;
+
+	private static final class Entry {
+		/** Offset of the last record, or -1 if the session has no data yet. */
+		private int offset = -1;
+		private int length = 0;
+		private long lastUsage = System.currentTimeMillis();
+		/** Last usage time written in the file. */
+		private long persistedUsage = 0;
+	}
+
+	@Override
+	public long getExpiration() {
+		return expiration;
+	}
+
+	/** Return the number of sessions. */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/** Return the size of the data written in the file. */
+	public synchronized int getFileUsage() {
+		return position;
+	}
+
+	@Override
+	public synchronized String allocateId() {
+		do {
+			String id = SessionIds.generate();
+			if (index.containsKey(id)) continue;
+			index.put(id, new Entry());
+			return id;
+		} while (true);
+	}
+
+	@Override
+	public void freeId(String id) {
+		remove(id);
+	}
+
+	@Override
+	public synchronized void remove(String id) {
+		Entry e = index.remove(id);
+		if (e == null || e.offset < 0 || closed) return;
+		liveBytes -= e.length;
+		try {
+			append(RECORD_REMOVE, id, 0, null);
+		} catch (IOException err) {
+			// the session will be recovered on restart, but expired if needed
+			logger.error("Unable to write session removal in " + file.getAbsolutePath(), err);
+		}
+	}
+
+	@Override
+	public AsyncWork<Boolean, NoException> load(String id, ISession session) {
+		byte[] data;
+		synchronized (this) {
+			Entry e = index.get(id);
+			if (e == null || closed)
+				return new AsyncWork<>(Boolean.FALSE, null);
+			long now = System.currentTimeMillis();
+			if (expiration > 0 && now - e.lastUsage >= expiration)
+				return new AsyncWork<>(Boolean.FALSE, null);
+			e.lastUsage = now;
+			if (e.offset < 0)
+				return new AsyncWork<>(Boolean.TRUE, null);
+			data = readRecord(e.offset);
+		}
+		try {
+			readData(data, session);
+		} catch (Exception err) {
+			logger.error("Unable to read session " + id + " from " + file.getAbsolutePath(), err);
+			return new AsyncWork<>(Boolean.FALSE, null);
+		}
+		return new AsyncWork<>(Boolean.TRUE, null);
+	}
+
+	@Override
+	public ISynchronizationPoint<NoException> save(String id, ISession session) {
+		byte[] data;
+		try {
+			data = writeData(session);
+		} catch (IOException err) {
+			logger.error("Unable to serialize session " + id, err);
+			return new SynchronizationPoint<>(true);
+		}
+		synchronized (this) {
+			if (closed) return new SynchronizationPoint<>(true);
+			Entry e = index.get(id);
+			if (e == null) {
+				e = new Entry();
+				index.put(id, e);
+			}
+			e.lastUsage = System.currentTimeMillis();
+			try {
+				int offset = append(RECORD_SAVE, id, e.lastUsage, data);
+				if (e.offset >= 0) liveBytes -= e.length;
+				e.offset = offset;
+				e.length = position - offset;
+				e.persistedUsage = e.lastUsage;
+				liveBytes += e.length;
+			} catch (IOException err) {
+				// keep the previous record
+				logger.error("Unable to write session " + id + " in " + file.getAbsolutePath(), err);
+			}
+		}
+		return new SynchronizationPoint<>(true);
+	}
+
+	/** Append a record, and return its offset. */
+	private int append(byte type, String id, long lastUsage, byte[] data) throws IOException {
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 8 + 2 + idBytes.length + (data != null ? data.length : 0);
+		ensureCapacity(position + RECORD_HEADER_SIZE + length);
+		int offset = position;
+		buffer.position(offset + RECORD_HEADER_SIZE);
+		buffer.put(type);
+		buffer.putLong(lastUsage);
+		buffer.putShort((short)idBytes.length);
+		buffer.put(idBytes);
+		if (data != null) buffer.put(data);
+		CRC32 crc = new CRC32();
+		for (int i = offset + RECORD_HEADER_SIZE; i < offset + RECORD_HEADER_SIZE + length; ++i)
+			crc.update(buffer.get(i));
+		buffer.putInt(offset + 4, (int)crc.getValue());
+		// mark the end, in case of remaining bytes from a discarded record
+		if (offset + RECORD_HEADER_SIZE + length + 4 <= buffer.capacity())
+			buffer.putInt(offset + RECORD_HEADER_SIZE + length, 0);
+		// the length is written last, so an interrupted write is seen as the end of the file
+		buffer.putInt(offset, length);
+		position = offset + RECORD_HEADER_SIZE + length;
+		return offset;
+	}
+
+	/** Return the session data of the record at the given offset. */
+	private byte[] readRecord(int offset) {
+		int length = buffer.getInt(offset);
+		int idLength = buffer.getShort(offset + RECORD_HEADER_SIZE + 9) & 0xFFFF;
+		int start = offset + RECORD_HEADER_SIZE + 11 + idLength;
+		byte[] data = new byte[offset + RECORD_HEADER_SIZE + length - start];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = buffer.get(start + i);
+		return data;
+	}
+
+	private void ensureCapacity(int size) throws IOException {
+		if (size <= buffer.capacity()) return;
+		long newSize = buffer.capacity();
+		while (newSize < size) newSize *= 2;
+		if (newSize > Integer.MAX_VALUE) throw new IOException("Session file is full");
+		buffer.force();
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+	}
+
+	private void open() throws IOException {
+		boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+		raf = new RandomAccessFile(file, "rw");
+		long size = Math.max(INITIAL_SIZE, raf.length());
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (!exists || buffer.getInt(0) != MAGIC) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, 1);
+			position = HEADER_SIZE;
+			buffer.putInt(position, 0);
+			return;
+		}
+		recover();
+	}
+
+	/** Read the records, until the end or the first invalid record, then expire the sessions. */
+	private void recover() {
+		position = HEADER_SIZE;
+		int capacity = buffer.capacity();
+		while (position + RECORD_HEADER_SIZE + 11 <= capacity) {
+			int length = buffer.getInt(position);
+			if (length < 11 || position + RECORD_HEADER_SIZE + length > capacity) break;
+			CRC32 crc = new CRC32();
+			for (int i = position + RECORD_HEADER_SIZE; i < position + RECORD_HEADER_SIZE + length; ++i)
+				crc.update(buffer.get(i));
+			if ((int)crc.getValue() != buffer.getInt(position + 4)) break;
+			byte type = buffer.get(position + RECORD_HEADER_SIZE);
+			long lastUsage = buffer.getLong(position + RECORD_HEADER_SIZE + 1);
+			int idLength = buffer.getShort(position + RECORD_HEADER_SIZE + 9) & 0xFFFF;
+			if (11 + idLength > length) break;
+			byte[] idBytes = new byte[idLength];
+			for (int i = 0; i < idLength; ++i)
+				idBytes[i] = buffer.get(position + RECORD_HEADER_SIZE + 11 + i);
+			String id = new String(idBytes, StandardCharsets.UTF_8);
+			if (type == RECORD_USAGE) {
+				Entry e = index.get(id);
+				if (e != null && lastUsage > e.lastUsage) {
+					e.lastUsage = lastUsage;
+					e.persistedUsage = lastUsage;
+				}
+				position += RECORD_HEADER_SIZE + length;
+				continue;
+			}
+			Entry previous = index.remove(id);
+			if (previous != null) liveBytes -= previous.length;
+			if (type == RECORD_SAVE) {
+				Entry e = new Entry();
+				e.offset = position;
+				e.length = RECORD_HEADER_SIZE + length;
+				e.lastUsage = lastUsage;
+				e.persistedUsage = lastUsage;
+				index.put(id, e);
+				liveBytes += e.length;
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+		// discard an incomplete record
+		if (position + 4 <= capacity)
+			buffer.putInt(position, 0);
+		// expire once all records are read, as a usage record may follow the session data
+		expire();
+	}
+
+	private void scheduleMaintenance() {
+		new Task.Cpu.FromRunnable("Session file maintenance", Task.PRIORITY_LOW, () -> {
+			synchronized (this) {
+				if (closed) return;
+				expire();
+				persistUsage();
+				buffer.force();
+				if (position - HEADER_SIZE > 2 * liveBytes && position > INITIAL_SIZE / 2)
+					try {
+						compact();
+					} catch (IOException e) {
+						// keep the current file
+						logger.error("Unable to compact session file " + file.getAbsolutePath(), e);
+					}
+			}
+			scheduleMaintenance();
+		}).executeIn(maintenanceInterval).start();
+	}
+
+	private void expire() {
+		if (expiration <= 0) return;
+		long now = System.currentTimeMillis();
+		for (Iterator<Entry> it = index.values().iterator(); it.hasNext(); ) {
+			Entry e = it.next();
+			if (now - e.lastUsage >= expiration) {
+				it.remove();
+				if (e.offset >= 0) liveBytes -= e.length;
+			}
+		}
+	}
+
+	/** Append a usage record for the sessions used since their last usage time has been written. */
+	private void persistUsage() {
+		for (Map.Entry<String, Entry> me : index.entrySet()) {
+			Entry e = me.getValue();
+			if (e.offset < 0 || e.lastUsage == e.persistedUsage) continue;
+			try {
+				append(RECORD_USAGE, me.getKey(), e.lastUsage, null);
+				e.persistedUsage = e.lastUsage;
+			} catch (IOException err) {
+				logger.error("Unable to write session usage in " + file.getAbsolutePath(), err);
+				return;
+			}
+		}
+	}
+	
+	/** Copy the live records into a new file which replaces the current one.
+	 * The current file is kept open until the new one has replaced it and is mapped, so on error it is still used.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + ".compact");
+		int size = INITIAL_SIZE;
+		while (size < HEADER_SIZE + liveBytes + 4) size *= 2;
+		HashMap<String, Entry> newIndex = new HashMap<>();
+		try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+			out.setLength(0);
+			MappedByteBuffer newBuffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			newBuffer.putInt(0, MAGIC);
+			newBuffer.putInt(4, 1);
+			int pos = HEADER_SIZE;
+			for (Map.Entry<String, Entry> me : index.entrySet()) {
+				Entry e = me.getValue();
+				Entry ne = new Entry();
+				ne.lastUsage = e.lastUsage;
+				ne.persistedUsage = e.lastUsage;
+				if (e.offset >= 0) {
+					for (int i = 0; i < e.length; ++i)
+						newBuffer.put(pos + i, buffer.get(e.offset + i));
+					// keep the last usage known in memory
+					newBuffer.putLong(pos + RECORD_HEADER_SIZE + 1, e.lastUsage);
+					CRC32 crc = new CRC32();
+					for (int i = pos + RECORD_HEADER_SIZE; i < pos + e.length; ++i)
+						crc.update(newBuffer.get(i));
+					newBuffer.putInt(pos + 4, (int)crc.getValue());
+					ne.offset = pos;
+					ne.length = e.length;
+					pos += e.length;
+				}
+				newIndex.put(me.getKey(), ne);
+			}
+			newBuffer.putInt(pos, 0);
+			newBuffer.force();
+		} catch (IOException e) {
+			if (!tmp.delete()) tmp.deleteOnExit();
+			throw e;
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (!tmp.delete()) tmp.deleteOnExit();
+			throw e;
+		}
+		RandomAccessFile newRaf = new RandomAccessFile(file, "rw");
+		MappedByteBuffer mapped;
+		try {
+			mapped = newRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, newRaf.length()));
+		} catch (IOException e) {
+			newRaf.close();
+			throw e;
+		}
+		RandomAccessFile previous = raf;
+		raf = newRaf;
+		buffer = mapped;
+		try { previous.close(); }
+		catch (IOException e) {
+			logger.error("Unable to close previous session file", e);
+		}
+		index = newIndex;
+		position = HEADER_SIZE;
+		liveBytes = 0;
+		for (Entry e : index.values())
+			if (e.offset >= 0) {
+				liveBytes += e.length;
+				if (e.offset + e.length > position) position = e.offset + e.length;
+			}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		persistUsage();
+		buffer.force();
+		raf.close();
+		index.clear();
+	}
+
+	private static byte[] writeData(ISession session) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bout);
+		Set<String> keys = session.getKeys();
+		out.writeInt(keys.size());
+		for (String key : keys) {
+			out.writeUTF(key);
+			writeValue(out, session.getData(key));
+		}
+		out.flush();
+		return bout.toByteArray();
+	}
+
+	private static void writeValue(DataOutputStream out, Serializable value) throws IOException {
+		if (value == null) {
+			out.writeByte(TYPE_NULL);
+		} else if (value instanceof String) {
+			byte[] bytes = ((String)value).getBytes(StandardCharsets.UTF_8);
+			out.writeByte(TYPE_STRING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt(((Integer)value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong(((Long)value).longValue());
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean(((Boolean)value).booleanValue());
+		} else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble(((Double)value).doubleValue());
+		} else if (value instanceof byte[]) {
+			out.writeByte(TYPE_BYTES);
+			out.writeInt(((byte[])value).length);
+			out.write((byte[])value);
+		} else {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			try (ObjectOutputStream oout = new ObjectOutputStream(bout)) {
+				oout.writeObject(value);
+			}
+			out.writeByte(TYPE_SERIALIZED);
+			out.writeInt(bout.size());
+			bout.writeTo(out);
+		}
+	}
+
+	private static void readData(byte[] data, ISession session) throws IOException, ClassNotFoundException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		int nb = in.readInt();
+		for (int i = 0; i < nb; ++i) {
+			String key = in.readUTF();
+			session.putData(key, readValue(in));
+		}
+	}
+
+	private static Serializable readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_NULL: return null;
+		case TYPE_STRING: return new String(readBytes(in), StandardCharsets.UTF_8);
+		case TYPE_INTEGER: return Integer.valueOf(in.readInt());
+		case TYPE_LONG: return Long.valueOf(in.readLong());
+		case TYPE_BOOLEAN: return Boolean.valueOf(in.readBoolean());
+		case TYPE_DOUBLE: return Double.valueOf(in.readDouble());
+		case TYPE_BYTES: return readBytes(in);
+		case TYPE_SERIALIZED:
+			try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+				return (Serializable)oin.readObject();
+			}
+		default: throw new IOException("Invalid session data type " + type);
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+}
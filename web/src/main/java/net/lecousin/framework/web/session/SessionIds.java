@@ -0,0 +1,43 @@
+package net.lecousin.framework.web.session;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/** Generation of session ids: 128-bit values from a non-blocking secure random generator for each thread. */
+final class SessionIds {
+	
+	private SessionIds() {
+		// no instance
+	}
+
+	private static final char[] ID_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-_".toCharArray();
+
+	private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(() -> {
+		try {
+			return SecureRandom.getInstance("NativePRNGNonBlocking");
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	});
+
+	/** Generate a new id of 22 characters. */
+	static String generate() {
+		byte[] bytes = new byte[16];
+		random.get().nextBytes(bytes);
+		char[] chars = new char[22];
+		int pos = 0;
+		int bits = 0;
+		int value = 0;
+		for (int i = 0; i < bytes.length; ++i) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+			bits += 8;
+			while (bits >= 6) {
+				bits -= 6;
+				chars[pos++] = ID_CHARS[(value >> bits) & 0x3F];
+			}
+		}
+		chars[pos] = ID_CHARS[(value << (6 - bits)) & 0x3F];
+		return new String(chars);
+	}
+	
+}
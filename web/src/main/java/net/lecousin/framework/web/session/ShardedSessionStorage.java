@@ -0,0 +1,257 @@
+package net.lecousin.framework.web.session;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.exception.NoException;
+import net.lecousin.framework.network.session.ISession;
+import net.lecousin.framework.network.session.SessionStorage;
+
+/**
+ * Session storage in memory, split into shards by id hash so concurrent requests do not share a lock.
+ * <br/>
+ * Each shard has a hierarchical timing wheel for the expiration: a session is put in the slot of its expiration time,
+ * and only the current slot is checked on each tick. A session used since it was put in the wheel is
+ * moved to the slot of its new expiration time when its slot is reached, so using a session only updates
+ * its last usage time.
+ * <br/>
+ * The first level has 512 slots of one tick. A session expiring later is put in the second level, which has
+ * 64 slots of 512 ticks, and is moved to the first level when its slot is reached. With a tick of 1 second,
+ * the first level covers 8.5 minutes and the second level 9 hours. A session expiring even later is put in the
+ * last slot of the second level, and is checked again each time this slot is reached.
+ * <br/>
+ * Session ids are 128-bit random values, generated by a non-blocking secure random generator for each thread.
+ */
+public class ShardedSessionStorage implements SessionStorage {
+
+	/** Constructor with 64 shards and a tick of 1 second. */
+	public ShardedSessionStorage(long expiration) {
+		this(expiration, 64, 1000);
+	}
+
+	/** Constructor.
+	 * @param expiration expiration of sessions in milliseconds since last usage, 0 for no expiration
+	 * @param shards number of shards, rounded to a power of 2
+	 * @param tick precision of the expiration in milliseconds
+	 */
+	public ShardedSessionStorage(long expiration, int shards, long tick) {
+		this.expiration = expiration;
+		this.tick = Math.max(1, tick);
+		int nb = Integer.highestOneBit(Math.max(1, shards));
+		this.shards = new Shard[nb];
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < nb; ++i)
+			this.shards[i] = new Shard(now / this.tick);
+		if (expiration > 0)
+			scheduleTick();
+	}
+
+	private static final int WHEEL_BITS = 9;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int OVERFLOW_SIZE = 64;
+
+	private long expiration;
+	private long tick;
+	private Shard[] shards;
+	private volatile boolean closed = false;
+
+	private static final class Entry {
+		private Entry(String id) {
+			this.id = id;
+		}
+
+		private String id;
+		private volatile long lastUsage = System.currentTimeMillis();
+		private HashMap<String, Serializable> data = new HashMap<>();
+		/** Next entry in the same slot of the timing wheels. */
+		private Entry next;
+	}
+
+	private static final class Shard {
+		private Shard(long currentTick) {
+			this.currentTick = currentTick;
+		}
+
+		private HashMap<String, Entry> sessions = new HashMap<>();
+		/** First level, one slot per tick. */
+		private Entry[] wheel = new Entry[WHEEL_SIZE];
+		/** Second level, one slot per turn of the first level. */
+		private Entry[] overflow = new Entry[OVERFLOW_SIZE];
+		private long currentTick;
+	}
+
+	@Override
+	public long getExpiration() {
+		return expiration;
+	}
+
+	/** Return the number of sessions. */
+	public int size() {
+		int nb = 0;
+		for (Shard shard : shards)
+			synchronized (shard) {
+				nb += shard.sessions.size();
+			}
+		return nb;
+	}
+
+	private Shard getShard(String id) {
+		int h = id.hashCode();
+		return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+	}
+
+	@Override
+	public String allocateId() {
+		do {
+			String id = SessionIds.generate();
+			Shard shard = getShard(id);
+			synchronized (shard) {
+				if (shard.sessions.containsKey(id))
+					continue;
+				Entry e = new Entry(id);
+				shard.sessions.put(id, e);
+				if (expiration > 0)
+					schedule(shard, e);
+				return id;
+			}
+		} while (true);
+	}
+
+	@Override
+	public void freeId(String id) {
+		remove(id);
+	}
+
+	@Override
+	public void remove(String id) {
+		Shard shard = getShard(id);
+		synchronized (shard) {
+			shard.sessions.remove(id);
+		}
+	}
+
+	@Override
+	public AsyncWork<Boolean, NoException> load(String id, ISession session) {
+		Shard shard = getShard(id);
+		Entry e;
+		synchronized (shard) {
+			e = shard.sessions.get(id);
+		}
+		if (e == null)
+			return new AsyncWork<>(Boolean.FALSE, null);
+		long now = System.currentTimeMillis();
+		if (expiration > 0 && now - e.lastUsage >= expiration)
+			return new AsyncWork<>(Boolean.FALSE, null);
+		e.lastUsage = now;
+		synchronized (e) {
+			for (Map.Entry<String, Serializable> data : e.data.entrySet())
+				session.putData(data.getKey(), data.getValue());
+		}
+		return new AsyncWork<>(Boolean.TRUE, null);
+	}
+
+	@Override
+	public ISynchronizationPoint<NoException> save(String id, ISession session) {
+		HashMap<String, Serializable> data = new HashMap<>();
+		for (String key : session.getKeys())
+			data.put(key, session.getData(key));
+		Shard shard = getShard(id);
+		synchronized (shard) {
+			Entry e = shard.sessions.get(id);
+			if (e == null) {
+				e = new Entry(id);
+				shard.sessions.put(id, e);
+				if (expiration > 0)
+					schedule(shard, e);
+			}
+			e.lastUsage = System.currentTimeMillis();
+			synchronized (e) {
+				e.data = data;
+			}
+		}
+		return new SynchronizationPoint<>(true);
+	}
+
+	/** Put the entry in the slot of its expiration time, the shard must be locked. */
+	private void schedule(Shard shard, Entry e) {
+		long t = (e.lastUsage + expiration + tick - 1) / tick;
+		if (t <= shard.currentTick) t = shard.currentTick + 1;
+		if (t - shard.currentTick < WHEEL_SIZE) {
+			int slot = (int)(t & (WHEEL_SIZE - 1));
+			e.next = shard.wheel[slot];
+			shard.wheel[slot] = e;
+			return;
+		}
+		// the slot of the second level is emptied when the first level starts the turn containing t
+		long turn = t >>> WHEEL_BITS;
+		long currentTurn = shard.currentTick >>> WHEEL_BITS;
+		// entries more than the second level ahead are checked again when its last slot is reached
+		if (turn - currentTurn > OVERFLOW_SIZE) turn = currentTurn + OVERFLOW_SIZE;
+		int slot = (int)(turn & (OVERFLOW_SIZE - 1));
+		e.next = shard.overflow[slot];
+		shard.overflow[slot] = e;
+	}
+
+	private void scheduleTick() {
+		new Task.Cpu.FromRunnable("Expire sessions", Task.PRIORITY_LOW, () -> {
+			if (closed) return;
+			long now = System.currentTimeMillis();
+			for (Shard shard : shards)
+				expire(shard, now);
+			scheduleTick();
+		}).executeIn(tick).start();
+	}
+
+	private void expire(Shard shard, long now) {
+		long nowTick = now / tick;
+		synchronized (shard) {
+			while (shard.currentTick < nowTick) {
+				shard.currentTick++;
+				int slot = (int)(shard.currentTick & (WHEEL_SIZE - 1));
+				if (slot == 0) {
+					// new turn of the first level: move the entries of the second level expiring during this turn
+					int turnSlot = (int)((shard.currentTick >>> WHEEL_BITS) & (OVERFLOW_SIZE - 1));
+					Entry e = shard.overflow[turnSlot];
+					shard.overflow[turnSlot] = null;
+					checkEntries(shard, e, now);
+				}
+				Entry e = shard.wheel[slot];
+				shard.wheel[slot] = null;
+				checkEntries(shard, e, now);
+			}
+		}
+	}
+
+	/** Remove the expired entries of the given list, and schedule the others again. */
+	private void checkEntries(Shard shard, Entry list, long now) {
+		Entry e = list;
+		while (e != null) {
+			Entry next = e.next;
+			e.next = null;
+			if (shard.sessions.get(e.id) == e) {
+				if (now - e.lastUsage >= expiration)
+					shard.sessions.remove(e.id);
+				else
+					schedule(shard, e);
+			}
+			e = next;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Shard shard : shards)
+			synchronized (shard) {
+				shard.sessions.clear();
+				shard.wheel = new Entry[WHEEL_SIZE];
+				shard.overflow = new Entry[OVERFLOW_SIZE];
+			}
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Implementations of session storage.
+ */
+package net.lecousin.framework.web.session;
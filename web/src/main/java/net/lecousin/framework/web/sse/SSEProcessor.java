@@ -1,5 +1,6 @@
 package net.lecousin.framework.web.sse;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -18,9 +19,11 @@ import net.lecousin.framework.network.http.server.HTTPServerResponse;
 import net.lecousin.framework.network.mime.MimeHeader;
 import net.lecousin.framework.network.mime.MimeMessage;
 import net.lecousin.framework.network.mime.header.ParameterizedHeaderValues;
+import net.lecousin.framework.network.server.TCPServerClient;
 import net.lecousin.framework.util.IString;
 import net.lecousin.framework.web.WebRequest;
 import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebResourcesBundle;
 
 /**
  * Server-side event processor, which sends every message to all clients.
@@ -43,6 +46,16 @@ public class SSEProcessor implements WebRequestProcessor {
 		this.parent = parent;
 	}
 	
+	/** Return the priority configured for this processor in its bundle, used to send the messages. */
+	protected byte getPriority() {
+		if (parent instanceof WebResourcesBundle) {
+			Byte p = ((WebResourcesBundle)parent).getPriority(this);
+			if (p != null)
+				return p.byteValue();
+		}
+		return Task.PRIORITY_NORMAL;
+	}
+	
 	public ISynchronizationPoint<?> sendMessage(String id, String name, String data) {
 		return sendMessage(id, name, data.getBytes(StandardCharsets.UTF_8));
 	}
@@ -95,10 +108,11 @@ public class SSEProcessor implements WebRequestProcessor {
 	@SuppressWarnings("resource")
 	public ISynchronizationPoint<?> sendJSONMessage(String id, String name, Object data) {
 		JSONSerializer ser = new JSONSerializer(StandardCharsets.UTF_8, 1024, false);
-		ByteBuffersIO output = new ByteBuffersIO(false, "JSON message", Task.PRIORITY_NORMAL);
+		byte priority = getPriority();
+		ByteBuffersIO output = new ByteBuffersIO(false, "JSON message", priority);
 		ISynchronizationPoint<Exception> synch = ser.serialize(data, new TypeDefinition(data == null ? Object.class : data.getClass()), output, new ArrayList<>(0));
 		SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
-		synch.listenAsync(new Task.Cpu<Void,NoException>("Send JSON Message to SSE clients", Task.PRIORITY_NORMAL) {
+		synch.listenAsync(new Task.Cpu<Void,NoException>("Send JSON Message to SSE clients", priority) {
 			@Override
 			public Void run() {
 				sendMessage(id, name, output.createSingleByteArray()).listenInlineSP(sp);
@@ -112,6 +126,7 @@ public class SSEProcessor implements WebRequestProcessor {
 	private static final byte[] _id = { 'i','d',':',' ' };
 	private static final byte[] _event = { 'e','v','e','n','t',':',' ' };
 	private static final byte[] _data = { 'd','a','t','a',':',' ' };
+	private static final byte[] _retry = { 'r','e','t','r','y',':',' ' };
 
 	public ISynchronizationPoint<?> sendMessage(byte[] id, byte[] name, byte[] data) {
 		if (clients.isEmpty()) return new SynchronizationPoint<>(true);
@@ -154,6 +169,50 @@ public class SSEProcessor implements WebRequestProcessor {
 		}
 	}
 	
+	/**
+	 * Send a last message to all clients, asking them to reconnect after the given delay in milliseconds,
+	 * then close their connection. This is used when the web server is draining, so clients reconnect
+	 * to another instance.
+	 */
+	public ISynchronizationPoint<?> drain(long retryDelay) {
+		ArrayList<TCPRemote> list;
+		synchronized (clients) {
+			list = new ArrayList<>(clients);
+			clients.clear();
+		}
+		byte[] delay = Long.toString(retryDelay).getBytes(StandardCharsets.US_ASCII);
+		byte[] msg = new byte[_retry.length + delay.length + 2];
+		System.arraycopy(_retry, 0, msg, 0, _retry.length);
+		System.arraycopy(delay, 0, msg, _retry.length, delay.length);
+		msg[msg.length - 2] = NEW_LINE;
+		msg[msg.length - 1] = NEW_LINE;
+		JoinPoint<IOException> jp = new JoinPoint<>();
+		for (TCPRemote client : list) {
+			try {
+				ISynchronizationPoint<IOException> send = client.send(ByteBuffer.wrap(msg));
+				send.listenInline(() -> closeClient(client));
+				jp.addToJoin(send);
+			} catch (Throwable t) {
+				closeClient(client);
+			}
+		}
+		jp.start();
+		return jp;
+	}
+	
+	/** Close the connection of a client when possible, else the client is expected to disconnect
+	 * after receiving the retry message, as it is not anymore in the list of clients. */
+	private static void closeClient(TCPRemote client) {
+		try {
+			if (client instanceof TCPServerClient)
+				((TCPServerClient)client).close();
+			else if (client instanceof Closeable)
+				((Closeable)client).close();
+		} catch (Exception e) {
+			// ignore
+		}
+	}
+	
 	protected byte[] buildMessage(byte[] id, byte[] name, byte[] data) {
 		int len = 0;
 		if (id != null)
@@ -0,0 +1,149 @@
+package net.lecousin.framework.web.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event types, only loaded when JFR is available.
+ * This class is in a separate source directory, compiled only when building with a JDK providing JFR,
+ * and is instantiated by reflection from {@link WebEvents}.
+ */
+final class JFREvents implements EventEmitter {
+	
+	JFREvents() {
+		/* instantiated by WebEvents */
+	}
+	
+	/** Common fields. */
+	@Category({"lecousin", "Web"})
+	@StackTrace(false)
+	abstract static class WebEvent extends Event {
+		@Label("Path")
+		String path;
+		@Label("Class")
+		@Description("Class of the processor, filter or service")
+		Class<?> type;
+		@Label("Operation")
+		String operation;
+	}
+	
+	@Name("net.lecousin.framework.web.Routing")
+	@Label("Route Resolution")
+	static final class RoutingEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.PreFilter")
+	@Label("Pre-Filter")
+	static final class PreFilterEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.PostFilter")
+	@Label("Post-Filter")
+	static final class PostFilterEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.RestInvocation")
+	@Label("REST Method Invocation")
+	static final class RestInvocationEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.RestSerialization")
+	@Label("REST Response Serialization")
+	static final class RestSerializationEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.SoapParse")
+	@Label("SOAP Request Parsing")
+	static final class SoapParseEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.SoapExecute")
+	@Label("SOAP Operation Execution")
+	static final class SoapExecuteEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.SoapSerialize")
+	@Label("SOAP Response Serialization")
+	static final class SoapSerializeEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.SessionLoad")
+	@Label("Session Load")
+	static final class SessionLoadEvent extends WebEvent {
+	}
+	
+	@Name("net.lecousin.framework.web.SessionSave")
+	@Label("Session Save")
+	static final class SessionSaveEvent extends WebEvent {
+	}
+	
+	private static Class<? extends WebEvent> getEventClass(WebEvents.Kind kind) {
+		switch (kind) {
+		case ROUTING: return RoutingEvent.class;
+		case PRE_FILTER: return PreFilterEvent.class;
+		case POST_FILTER: return PostFilterEvent.class;
+		case REST_INVOCATION: return RestInvocationEvent.class;
+		case REST_SERIALIZATION: return RestSerializationEvent.class;
+		case SOAP_PARSE: return SoapParseEvent.class;
+		case SOAP_EXECUTE: return SoapExecuteEvent.class;
+		case SOAP_SERIALIZE: return SoapSerializeEvent.class;
+		case SESSION_LOAD: return SessionLoadEvent.class;
+		case SESSION_SAVE: return SessionSaveEvent.class;
+		default: throw new IllegalArgumentException("Unknown event: " + kind);
+		}
+	}
+	
+	/** Event types by kind, to check if a kind of event is enabled without instantiating an event. */
+	private final EventType[] types = createTypes();
+	
+	private static EventType[] createTypes() {
+		WebEvents.Kind[] kinds = WebEvents.Kind.values();
+		EventType[] types = new EventType[kinds.length];
+		for (int i = 0; i < kinds.length; ++i)
+			types[i] = EventType.getEventType(getEventClass(kinds[i]));
+		return types;
+	}
+	
+	private static WebEvent create(WebEvents.Kind kind) {
+		switch (kind) {
+		case ROUTING: return new RoutingEvent();
+		case PRE_FILTER: return new PreFilterEvent();
+		case POST_FILTER: return new PostFilterEvent();
+		case REST_INVOCATION: return new RestInvocationEvent();
+		case REST_SERIALIZATION: return new RestSerializationEvent();
+		case SOAP_PARSE: return new SoapParseEvent();
+		case SOAP_EXECUTE: return new SoapExecuteEvent();
+		case SOAP_SERIALIZE: return new SoapSerializeEvent();
+		case SESSION_LOAD: return new SessionLoadEvent();
+		case SESSION_SAVE: return new SessionSaveEvent();
+		default: throw new IllegalArgumentException("Unknown event: " + kind);
+		}
+	}
+	
+	@Override
+	public Object begin(WebEvents.Kind kind) {
+		if (!types[kind.ordinal()].isEnabled())
+			return null;
+		WebEvent event = create(kind);
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public void end(Object e, String path, Class<?> type, String operation) {
+		WebEvent event = (WebEvent)e;
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.path = path;
+		event.type = type;
+		event.operation = operation;
+		event.commit();
+	}
+	
+}
@@ -9,13 +9,17 @@ import net.lecousin.framework.concurrent.synch.AsyncWork;
 import net.lecousin.framework.network.http.client.HTTPClientConfiguration;
 import net.lecousin.framework.network.session.SessionInMemory;
 import net.lecousin.framework.network.test.AbstractNetworkTest;
+import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebResourcesBundle;
 import net.lecousin.framework.web.WebServer;
 import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.session.CountingSessionStorage;
 import net.lecousin.framework.xml.serialization.XMLDeserializer;
 
 public abstract class AbstractTest extends AbstractNetworkTest {
 
 	private static WebServer server;
+	private static CountingSessionStorage sessionStorage;
 	
 	public static final String HOST = "localhost";
 	public static final int HTTP_PORT = 1080;
@@ -36,12 +40,30 @@ public abstract class AbstractTest extends AbstractNetworkTest {
 		loadConfig.block(0);
 		if (loadConfig.hasError())
 			throw loadConfig.getError();
-		server = new WebServer(null, new SessionInMemory(10 * 60 * 1000), true);
+		sessionStorage = new CountingSessionStorage(new SessionInMemory(10 * 60 * 1000));
+		server = new WebServer(null, sessionStorage, true);
 		server.setSSLContext(sslTest);
 		server.setConfiguration(loadConfig.getResult());
 		HTTPClientConfiguration.defaultConfiguration.setSSLContext(sslTest);
 	}
 	
+	protected static WebServer getServer() {
+		return server;
+	}
+	
+	/** Return the bundle configured in test.xml. */
+	protected static WebResourcesBundle getRoutedBundle() {
+		// the bundles are listed before the processors they contain
+		for (WebRequestProcessor processor : server.getRouter().getAllProcessors())
+			if (processor instanceof WebResourcesBundle)
+				return (WebResourcesBundle)processor;
+		throw new AssertionError("No bundle routed");
+	}
+	
+	protected static CountingSessionStorage getSessionStorage() {
+		return sessionStorage;
+	}
+	
 	@AfterClass
 	public static void stopServer() {
 		server.close();
@@ -0,0 +1,34 @@
+package net.lecousin.framework.web.test;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestProcessor;
+
+/** Processor reporting an error with the status of the response, as the web services do. */
+public class TestErrorProcessor implements WebRequestProcessor {
+
+	private WebRequestProcessor parent;
+	
+	@Override
+	public WebRequestProcessor getParent() {
+		return parent;
+	}
+	
+	@Override
+	public void setParent(WebRequestProcessor parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public Object checkProcessing(WebRequest request) {
+		return Boolean.TRUE;
+	}
+	
+	@Override
+	public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
+		request.getResponse().setStatus(500, "Test error");
+		return new SynchronizationPoint<>(true);
+	}
+	
+}
@@ -0,0 +1,46 @@
+package net.lecousin.framework.web.test;
+
+import java.nio.charset.StandardCharsets;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.io.buffering.ByteArrayIO;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestProcessor;
+
+/** Answer with its name, so a test can check which processor has been selected. */
+public class TestNameProcessor implements WebRequestProcessor {
+
+	public String name;
+	
+	private WebRequestProcessor parent;
+	
+	@Override
+	public WebRequestProcessor getParent() {
+		return parent;
+	}
+	
+	@Override
+	public void setParent(WebRequestProcessor parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public Object checkProcessing(WebRequest request) {
+		return Boolean.TRUE;
+	}
+	
+	@Override
+	public boolean isRoutingCacheable(WebRequest request) {
+		return true;
+	}
+	
+	@SuppressWarnings("resource")
+	@Override
+	public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
+		request.getResponse().setStatus(200);
+		request.getResponse().getMIME().setBodyToSend(new ByteArrayIO(name.getBytes(StandardCharsets.UTF_8), "name"));
+		return new SynchronizationPoint<>(true);
+	}
+	
+}
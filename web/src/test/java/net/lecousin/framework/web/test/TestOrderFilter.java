@@ -0,0 +1,25 @@
+package net.lecousin.framework.web.test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+
+/** Append its name to the header X-Filters, so a test can check the order in which the filters are executed.
+ * If result is stop, the response status is set to 403 and the processing is stopped. */
+public class TestOrderFilter implements WebRequestFilter {
+
+	public String name;
+	public String result = "continue";
+
+	@Override
+	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
+		String filters = request.getResponse().getMIME().getFirstHeaderRawValue("X-Filters");
+		request.getResponse().getMIME().setHeaderRaw("X-Filters", filters == null ? name : filters + ',' + name);
+		if ("stop".equals(result)) {
+			request.getResponse().setStatus(403);
+			return new AsyncWork<>(FilterResult.STOP_PROCESSING, null);
+		}
+		return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+	}
+	
+}
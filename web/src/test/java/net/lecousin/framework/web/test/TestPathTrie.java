@@ -0,0 +1,107 @@
+package net.lecousin.framework.web.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.web.PathTrie;
+
+public class TestPathTrie {
+
+	private static List<String> matches(PathTrie<String> trie, String path) {
+		List<String> list = new ArrayList<>();
+		for (PathTrie.Node<String> node = trie.match(path, 0); node != null; node = node.getShorterMatch())
+			for (int i = 0; i < node.getValuesCount(); ++i)
+				list.add(node.getValue(i));
+		return list;
+	}
+
+	private static void check(PathTrie<String> trie, String path, String... expected) {
+		List<String> list = matches(trie, path);
+		Assert.assertEquals("Matches for " + path + ": " + list, expected.length, list.size());
+		for (int i = 0; i < expected.length; ++i)
+			Assert.assertEquals("Match " + i + " for " + path, expected[i], list.get(i));
+	}
+
+	@Test(timeout=30000)
+	public void testEmpty() {
+		PathTrie<String> trie = new PathTrie<>();
+		Assert.assertEquals(0, trie.size());
+		Assert.assertNull(trie.match("test/", 0));
+		Assert.assertNull(trie.match("", 0));
+	}
+
+	@Test(timeout=30000)
+	public void testLongestFirst() {
+		PathTrie<String> trie = new PathTrie<>();
+		trie.add("", "root");
+		trie.add("api/", "api");
+		trie.add("api/v1/", "v1");
+		trie.add("apps/", "apps");
+		trie.add("api/v1/", "v1bis");
+		Assert.assertEquals(5, trie.size());
+		check(trie, "api/v1/users", "v1", "v1bis", "api", "root");
+		check(trie, "api/v2/users", "api", "root");
+		check(trie, "apps/list", "apps", "root");
+		check(trie, "ap", "root");
+		check(trie, "", "root");
+		check(trie, "other/api/", "root");
+	}
+
+	@Test(timeout=30000)
+	public void testTrailingSlash() {
+		PathTrie<String> trie = new PathTrie<>();
+		trie.add("api/", "api");
+		trie.add("api/v1/", "v1");
+		check(trie, "api", "api");
+		check(trie, "api/v1", "v1", "api");
+		check(trie, "api/v", "api");
+		check(trie, "ap");
+	}
+
+	@Test(timeout=30000)
+	public void testWithoutTrailingSlash() {
+		// a path without trailing slash matches any path starting with it
+		PathTrie<String> trie = new PathTrie<>();
+		trie.add("res", "res");
+		trie.add("res1", "res1");
+		trie.add("res/", "dir");
+		check(trie, "res", "dir", "res");
+		check(trie, "res/x", "dir", "res");
+		check(trie, "res10", "res1", "res");
+		check(trie, "resource", "res");
+		check(trie, "re");
+		Assert.assertEquals("res1", trie.match("res12", 0).getPath());
+	}
+
+	@Test(timeout=30000)
+	public void testEdgeSplit() {
+		PathTrie<String> trie = new PathTrie<>();
+		trie.add("abcdef/", "abcdef");
+		trie.add("abc/", "abc");
+		trie.add("abd/", "abd");
+		check(trie, "abcdef/x", "abcdef");
+		check(trie, "abc/x", "abc");
+		check(trie, "abd", "abd");
+		check(trie, "ab");
+		Assert.assertEquals("abcdef/", trie.match("abcdef/", 0).getPath());
+		Assert.assertEquals("abc/", trie.match("xabc/", 1).getPath());
+	}
+
+	@Test(timeout=30000)
+	public void testShorterAddedLast() {
+		PathTrie<String> trie = new PathTrie<>();
+		trie.add("api/v1/users/", "users");
+		trie.add("api/v1/", "v1");
+		trie.add("api/v2/", "v2");
+		trie.add("", "root");
+		trie.add("api/", "api");
+		check(trie, "api/v1/users/1", "users", "v1", "api", "root");
+		check(trie, "api/v2/x", "v2", "api", "root");
+		check(trie, "api/v3", "api", "root");
+		check(trie, "x", "root");
+	}
+
+}
@@ -0,0 +1,18 @@
+package net.lecousin.framework.web.test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestFilter;
+
+/** Restart the processing of a request once, marking the response with the header X-Restarted. */
+public class TestRestartFilter implements WebRequestFilter {
+
+	@Override
+	public AsyncWork<FilterResult, Exception> filter(WebRequest request) {
+		if (request.getResponse().getMIME().getFirstHeaderRawValue("X-Restarted") != null)
+			return new AsyncWork<>(FilterResult.CONTINUE_PROCESSING, null);
+		request.getResponse().getMIME().setHeaderRaw("X-Restarted", "true");
+		return new AsyncWork<>(FilterResult.RESTART_PROCESSING, null);
+	}
+	
+}
@@ -0,0 +1,53 @@
+package net.lecousin.framework.web.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.concurrent.synch.SynchronizationPoint;
+import net.lecousin.framework.io.buffering.ByteArrayIO;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebRequestProcessor;
+
+/** Answer after 1 second. */
+public class TestSlowProcessor implements WebRequestProcessor {
+
+	private static final AtomicInteger cancelled = new AtomicInteger(0);
+	
+	/** Return the number of processings cancelled before the answer. */
+	public static int getCancelled() {
+		return cancelled.get();
+	}
+	
+	private WebRequestProcessor parent;
+	
+	@Override
+	public WebRequestProcessor getParent() {
+		return parent;
+	}
+	
+	@Override
+	public void setParent(WebRequestProcessor parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public Object checkProcessing(WebRequest request) {
+		return Boolean.TRUE;
+	}
+	
+	@SuppressWarnings("resource")
+	@Override
+	public ISynchronizationPoint<? extends Exception> process(Object fromCheck, WebRequest request) {
+		SynchronizationPoint<Exception> sp = new SynchronizationPoint<>();
+		sp.onCancel((reason) -> { cancelled.incrementAndGet(); });
+		new Task.Cpu.FromRunnable("Slow processor", Task.PRIORITY_NORMAL, () -> {
+			if (sp.isCancelled()) return;
+			request.getResponse().setStatus(200);
+			request.getResponse().getMIME().setBodyToSend(new ByteArrayIO("This is slow".getBytes(), "test"));
+			sp.unblock();
+		}).executeIn(1000).start();
+		return sp;
+	}
+	
+}
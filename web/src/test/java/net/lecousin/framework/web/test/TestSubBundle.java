@@ -0,0 +1,16 @@
+package net.lecousin.framework.web.test;
+
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.web.WebRequest;
+import net.lecousin.framework.web.WebResourcesBundle;
+
+/** Bundle marking the response with the header X-Sub-Bundle, so a test can check it is not flattened in its parent. */
+public class TestSubBundle extends WebResourcesBundle {
+
+	@Override
+	public ISynchronizationPoint<Exception> process(Object fromCheck, WebRequest request) {
+		request.getResponse().getMIME().setHeaderRaw("X-Sub-Bundle", "true");
+		return super.process(fromCheck, request);
+	}
+	
+}
@@ -0,0 +1,121 @@
+package net.lecousin.framework.web.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.network.http.HTTPRequest;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.server.HTTPServerResponse;
+import net.lecousin.framework.web.WebRequest;
+
+public class TestWebRequest {
+
+	@Test(timeout=30000)
+	public void testParseHostname() {
+		Assert.assertNull(WebRequest.parseHostname(null));
+		Assert.assertEquals("localhost", WebRequest.parseHostname("localhost"));
+		Assert.assertEquals("localhost", WebRequest.parseHostname("localhost:8080"));
+		Assert.assertEquals("www.example.com", WebRequest.parseHostname(" WWW.Example.COM:80"));
+		Assert.assertEquals("127.0.0.1", WebRequest.parseHostname("127.0.0.1:1080"));
+		// IPv6 literals keep their brackets, and the colons inside are not taken as a port
+		Assert.assertEquals("[::1]", WebRequest.parseHostname("[::1]"));
+		Assert.assertEquals("[::1]", WebRequest.parseHostname("[::1]:1080"));
+		Assert.assertEquals("[fe80::1:2]", WebRequest.parseHostname("[FE80::1:2]:443"));
+	}
+	
+	private static WebRequest create(String path) {
+		return new WebRequest(null, new HTTPRequest(Method.GET, path), new HTTPServerResponse(), false, null);
+	}
+	
+	private static void assertPath(WebRequest request, String current, String sub) {
+		Assert.assertEquals(current, request.getCurrentPath());
+		Assert.assertEquals(sub, request.getSubPath());
+		if (request.getSubPathOffset() >= 0)
+			Assert.assertEquals(sub, request.getFullPath().substring(request.getSubPathOffset()));
+	}
+	
+	@Test(timeout=30000)
+	public void testDecodePath() {
+		// a path without encoded character is not copied
+		String path = "/test/hello/world";
+		Assert.assertSame(path, WebRequest.decodePath(path));
+		Assert.assertEquals("/test/hello world", WebRequest.decodePath("/test/hello%20world"));
+		Assert.assertEquals("/test/hello world", WebRequest.decodePath("/test/hello+world"));
+		Assert.assertEquals("/test/\u00E9t\u00E9/", WebRequest.decodePath("/test/%C3%A9t%C3%A9/"));
+		Assert.assertEquals("/test/a/b", WebRequest.decodePath("/test/a%2Fb"));
+		// invalid escape sequences are kept as is
+		Assert.assertEquals("/test/100%", WebRequest.decodePath("/test/100%"));
+		Assert.assertEquals("/test/%zz", WebRequest.decodePath("/test/%zz"));
+		
+		WebRequest request = create("/test/hello%20world+again/");
+		Assert.assertEquals("/test/hello world again/", request.getFullPath());
+		assertPath(request, "/", "test/hello world again/");
+		// the offsets are in the decoded path
+		request.enterPath("test/");
+		assertPath(request, "/test/", "hello world again/");
+		Assert.assertEquals(6, request.getSubPathOffset());
+	}
+	
+	@Test(timeout=30000)
+	public void testEnterAndRestorePath() {
+		WebRequest request = create("/test/a/b/c");
+		assertPath(request, "/", "test/a/b/c");
+		int offset0 = request.getSubPathOffset();
+		request.enterPath("test/");
+		int offset1 = request.getSubPathOffset();
+		assertPath(request, "/test/", "a/b/c");
+		request.enterPath("a/");
+		int offset2 = request.getSubPathOffset();
+		assertPath(request, "/test/a/", "b/c");
+		request.enterPath("b/");
+		assertPath(request, "/test/a/b/", "c");
+		// an empty path does not change anything
+		request.enterPath("");
+		assertPath(request, "/test/a/b/", "c");
+		// restore the levels in reverse order
+		request.restorePath(offset2, null, null);
+		assertPath(request, "/test/a/", "b/c");
+		request.restorePath(offset1, null, null);
+		assertPath(request, "/test/", "a/b/c");
+		request.restorePath(offset0, null, null);
+		assertPath(request, "/", "test/a/b/c");
+		
+		// a path which is not a split of the full path
+		request.setPath("/other/", "x/y");
+		Assert.assertEquals(-1, request.getSubPathOffset());
+		assertPath(request, "/other/", "x/y");
+		request.enterPath("x/");
+		Assert.assertEquals(-1, request.getSubPathOffset());
+		assertPath(request, "/other/x/", "y");
+		request.restorePath(-1, "/other/", "x/y");
+		assertPath(request, "/other/", "x/y");
+		// going back to a split of the full path gives an offset again
+		request.setPath("/test/", "a/b/c");
+		Assert.assertEquals(offset1, request.getSubPathOffset());
+		assertPath(request, "/test/", "a/b/c");
+	}
+	
+	@Test(timeout=30000)
+	public void testTrailingSlash() {
+		WebRequest request = create("/test/dir");
+		request.enterPath("test/");
+		int offset = request.getSubPathOffset();
+		assertPath(request, "/test/", "dir");
+		// the sub-path is the path of a directory without its trailing slash
+		request.enterPath("dir/");
+		Assert.assertEquals(-1, request.getSubPathOffset());
+		assertPath(request, "/test/dir/", "");
+		request.restorePath(offset, null, null);
+		assertPath(request, "/test/", "dir");
+		
+		request = create("/test/dir/");
+		request.enterPath("test/");
+		request.enterPath("dir/");
+		Assert.assertEquals(10, request.getSubPathOffset());
+		assertPath(request, "/test/dir/", "");
+		
+		request = create("/");
+		assertPath(request, "/", "");
+	}
+	
+}
@@ -0,0 +1,54 @@
+package net.lecousin.framework.web.test.filters;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestConcurrencyLimitFilter extends AbstractTest {
+
+	@Test(timeout=120000)
+	public void testRejectWhenSaturated() throws Exception {
+		AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> first = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/limit/slow", 0);
+		Thread.sleep(300);
+		Pair<HTTPClient, HTTPResponse> rejected = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/limit/slow", (IO.Readable)null).blockResult(0);
+		rejected.getValue1().close();
+		Assert.assertEquals(503, rejected.getValue2().getStatusCode());
+		Assert.assertEquals("3", rejected.getValue2().getMIME().getFirstHeaderRawValue("Retry-After"));
+		
+		Pair<HTTPResponse, IO.Readable.Seekable> p = first.blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		Assert.assertEquals("This is slow", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		
+		// the slot has been released
+		p = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/limit/slow", 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		p.getValue2().close();
+	}
+	
+	@Test(timeout=120000)
+	public void testRejectAfterMaxWait() throws Exception {
+		AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> first = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/limitqueue/slow", 0);
+		Thread.sleep(300);
+		// the request waits in the queue, and is rejected after 200ms while the first one is still in progress
+		Pair<HTTPClient, HTTPResponse> rejected = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/limitqueue/slow", (IO.Readable)null).blockResult(0);
+		rejected.getValue1().close();
+		Assert.assertEquals(503, rejected.getValue2().getStatusCode());
+		Assert.assertFalse(first.isUnblocked());
+		
+		Pair<HTTPResponse, IO.Readable.Seekable> p = first.blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		p.getValue2().close();
+	}
+	
+}
@@ -0,0 +1,62 @@
+package net.lecousin.framework.web.test.filters;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.network.http.exception.HTTPResponseError;
+import net.lecousin.framework.network.mime.MimeHeader;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.web.test.TestSlowProcessor;
+
+public class TestDeadlineFilter extends AbstractTest {
+
+	@Test(timeout=120000)
+	public void testDeadlineExceeded() throws Exception {
+		long start = System.currentTimeMillis();
+		Pair<HTTPClient, HTTPResponse> p = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/deadline/slow", (IO.Readable)null).blockResult(0);
+		p.getValue1().close();
+		Assert.assertEquals(504, p.getValue2().getStatusCode());
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+	
+	@Test(timeout=120000)
+	public void testDeadlineExceededAfterRestart() throws Exception {
+		int cancelled = TestSlowProcessor.getCancelled();
+		long start = System.currentTimeMillis();
+		Pair<HTTPClient, HTTPResponse> p = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/deadlinerestart/slow", (IO.Readable)null).blockResult(0);
+		p.getValue1().close();
+		Assert.assertEquals(504, p.getValue2().getStatusCode());
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		// only the processing started after the restart is cancelled, once
+		Thread.sleep(200);
+		Assert.assertEquals(cancelled + 1, TestSlowProcessor.getCancelled());
+	}
+	
+	@Test(timeout=120000)
+	public void testDeadlineExceededWhileQueued() throws Exception {
+		// the first request has no deadline and holds the only slot for 1 second
+		AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> first = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/deadlinequeue/slow", 0);
+		Thread.sleep(300);
+		long start = System.currentTimeMillis();
+		try {
+			HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/deadlinequeue/slow", 0, new MimeHeader("X-Request-Timeout", "200")).blockResult(0);
+			throw new AssertionError("Error expected for a request exceeding its deadline");
+		} catch (HTTPResponseError e) {
+			Assert.assertEquals(504, e.getStatusCode());
+		}
+		// the deadline has been reached while waiting in the queue, not when the slot was released
+		Assert.assertTrue(System.currentTimeMillis() - start < 600);
+		Assert.assertFalse(first.isUnblocked());
+		Pair<HTTPResponse, IO.Readable.Seekable> p = first.blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		p.getValue2().close();
+	}
+	
+}
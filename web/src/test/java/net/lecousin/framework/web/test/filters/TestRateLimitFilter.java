@@ -0,0 +1,59 @@
+package net.lecousin.framework.web.test.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestRateLimitFilter extends AbstractTest {
+
+	@Test(timeout=120000)
+	public void testRateLimit() throws Exception {
+		// 2 requests per hour, with a burst of 1
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/ratelimit", 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		Assert.assertEquals("2", p.getValue1().getMIME().getFirstHeaderRawValue("X-RateLimit-Limit"));
+		Assert.assertEquals("1", p.getValue1().getMIME().getFirstHeaderRawValue("X-RateLimit-Remaining"));
+		p.getValue2().close();
+		
+		p = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/ratelimit", 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		Assert.assertEquals("0", p.getValue1().getMIME().getFirstHeaderRawValue("X-RateLimit-Remaining"));
+		p.getValue2().close();
+		
+		Pair<HTTPClient, HTTPResponse> rejected = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/ratelimit", (IO.Readable)null).blockResult(0);
+		rejected.getValue1().close();
+		Assert.assertEquals(429, rejected.getValue2().getStatusCode());
+		Assert.assertEquals("0", rejected.getValue2().getMIME().getFirstHeaderRawValue("X-RateLimit-Remaining"));
+		long retry = Long.parseLong(rejected.getValue2().getMIME().getFirstHeaderRawValue("Retry-After"));
+		Assert.assertTrue(retry > 0 && retry <= 30 * 60);
+	}
+	
+	@Test(timeout=120000)
+	public void testDefaultBurst() throws Exception {
+		// 3 requests per hour, sent at once
+		List<AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?>> requests = new ArrayList<>();
+		for (int i = 0; i < 3; ++i)
+			requests.add(HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/ratelimitdefault", 0));
+		for (AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> request : requests) {
+			Pair<HTTPResponse, IO.Readable.Seekable> p = request.blockResult(0);
+			Assert.assertEquals(200, p.getValue1().getStatusCode());
+			p.getValue2().close();
+		}
+		
+		Pair<HTTPClient, HTTPResponse> rejected = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/ratelimitdefault", (IO.Readable)null).blockResult(0);
+		rejected.getValue1().close();
+		Assert.assertEquals(429, rejected.getValue2().getStatusCode());
+	}
+	
+}
@@ -275,6 +275,8 @@ public class TestSecurityFilters extends AbstractTest {
 		p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
 		content = IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8);
 		Assert.assertEquals("This is test 1", content);
+		// the cookie is not sent again for an existing session
+		Assert.assertNull(p.getValue1().getCookie("lc-session"));
 	}
 	
 }
@@ -0,0 +1,71 @@
+package net.lecousin.framework.web.test.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.web.metrics.LatencyHistogram;
+
+public class TestLatencyHistogram {
+
+	@Test(timeout=30000)
+	public void testEmpty() {
+		LatencyHistogram.Snapshot s = new LatencyHistogram().getSnapshot();
+		Assert.assertEquals(0, s.getCount());
+		Assert.assertEquals(0, s.getMax());
+		Assert.assertEquals(0, s.getValueAtPercentile(99), 0);
+	}
+	
+	@Test(timeout=30000)
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long i = 1; i <= 10000; ++i)
+			h.record(i);
+		LatencyHistogram.Snapshot s = h.getSnapshot();
+		Assert.assertEquals(10000, s.getCount());
+		Assert.assertEquals(10000, s.getMax());
+		Assert.assertEquals(5000.5, s.getMean(), 0.001);
+		checkPrecision(5000, s.getValueAtPercentile(50));
+		checkPrecision(9900, s.getValueAtPercentile(99));
+		checkPrecision(9990, s.getValueAtPercentile(99.9));
+		Assert.assertEquals(10000, s.getValueAtPercentile(100));
+	}
+	
+	@Test(timeout=30000)
+	public void testSmallAndLargeValues() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long i = 0; i < 16; ++i)
+			h.record(i);
+		h.record(-5);
+		h.record(Long.MAX_VALUE);
+		LatencyHistogram.Snapshot s = h.getSnapshot();
+		Assert.assertEquals(18, s.getCount());
+		Assert.assertEquals(LatencyHistogram.MAX_VALUE, s.getMax());
+		// small values are exact
+		Assert.assertEquals(0, s.getValueAtPercentile(100d * 2 / 18));
+		Assert.assertEquals(7, s.getValueAtPercentile(100d * 9 / 18));
+		Assert.assertEquals(LatencyHistogram.MAX_VALUE, s.getValueAtPercentile(100));
+	}
+	
+	@Test(timeout=30000)
+	public void testConcurrentRecording() throws Exception {
+		LatencyHistogram h = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100000; ++i)
+					h.record(i % 1000);
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		LatencyHistogram.Snapshot s = h.getSnapshot();
+		Assert.assertEquals(400000, s.getCount());
+		Assert.assertEquals(999, s.getMax());
+	}
+	
+	private static void checkPrecision(long expected, long value) {
+		Assert.assertTrue("Expected " + expected + ", found " + value, value >= expected && value <= expected + expected / 16);
+	}
+	
+}
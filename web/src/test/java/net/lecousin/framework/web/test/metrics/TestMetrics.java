@@ -0,0 +1,62 @@
+package net.lecousin.framework.web.test.metrics;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestMetrics extends AbstractTest {
+
+	@Test(timeout=30000)
+	public void testMetricsEndpoint() throws Exception {
+		WebServer server = getServer();
+		WebServerConfig config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		config.metrics = true;
+		server.setConfiguration(config);
+		Assert.assertNotNull(server.getMetrics());
+		
+		for (int i = 0; i < 3; ++i) {
+			Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/filters/prepost/test1?pre-filter-1=hello", 0).blockResult(0);
+			Assert.assertEquals(200, p.getValue1().getStatusCode());
+			p.getValue2().close();
+		}
+		// errors reported with the status of the response
+		for (int i = 0; i < 2; ++i) {
+			Pair<HTTPClient, HTTPResponse> error = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + "/filters/errors/status", (IO.Readable)null).blockResult(0);
+			error.getValue1().close();
+			Assert.assertEquals(500, error.getValue2().getStatusCode());
+		}
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/metrics", 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		String json = IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8);
+		Assert.assertTrue(json, json.startsWith("{\"metrics\":["));
+		Assert.assertTrue(json, json.contains(
+			"{\"type\":\"processor\",\"path\":\"test/filters/prepost/test1/\",\"id\":\"net.lecousin.framework.web.test.Test1Processor\",\"requests\":3,"));
+		Assert.assertTrue(json, json.contains(
+			"{\"type\":\"pre-filter\",\"path\":\"test/filters/prepost/\",\"id\":\"net.lecousin.framework.web.test.TestPreFilter\",\"requests\":3,"));
+		Assert.assertTrue(json, json.contains(
+			"{\"type\":\"post-filter\",\"path\":\"test/filters/prepost/\",\"id\":\"net.lecousin.framework.web.test.TestPostFilter\",\"requests\":3,"));
+		Assert.assertTrue(json, json.contains("\"type\":\"processor\",\"path\":\"test/\",\"id\":\"net.lecousin.framework.web.WebResourcesBundle\""));
+		// the configured id is used instead of the class
+		Assert.assertTrue(json, json.contains(
+			"{\"type\":\"processor\",\"path\":\"test/filters/errors/status/\",\"id\":\"statusError\",\"requests\":2,\"errors\":2,"));
+		
+		// restore the configuration without metrics
+		config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		server.setConfiguration(config);
+	}
+	
+}
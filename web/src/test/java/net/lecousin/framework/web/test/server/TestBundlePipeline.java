@@ -0,0 +1,108 @@
+package net.lecousin.framework.web.test.server;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestBundlePipeline extends AbstractTest {
+
+	@Test(timeout=30000)
+	public void testNestedFiltersOrder() throws Exception {
+		Pair<HTTPResponse, String> p = get("/pipeline/nested/deep");
+		Assert.assertEquals("deep", p.getValue2());
+		Assert.assertEquals("pre1,pre2,post2,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+		// a processor of the outer bundle does not execute the filters of the nested bundle
+		p = get("/pipeline/other");
+		Assert.assertEquals("default", p.getValue2());
+		Assert.assertEquals("pre1,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+		p = get("/pipeline/nested/other");
+		Assert.assertEquals("nested-default", p.getValue2());
+		Assert.assertEquals("pre1,pre2,post2,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+	}
+	
+	@Test(timeout=30000)
+	public void testRanking() throws Exception {
+		// the longest path first: nested/long/ in the outer bundle is checked before nested/ and its processor long/
+		Pair<HTTPResponse, String> p = get("/pipeline/nested/long");
+		Assert.assertEquals("outer-long", p.getValue2());
+		Assert.assertEquals("pre1,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+		// with the same path, in the order the processors have been added
+		p = get("/pipeline/nested/twice");
+		Assert.assertEquals("first", p.getValue2());
+		// a longer path is checked before the default processor of the nested bundle
+		p = get("/pipeline/nested/deep/more");
+		Assert.assertEquals("deep", p.getValue2());
+	}
+	
+	@Test(timeout=30000)
+	public void testStopFromNestedFilter() throws Exception {
+		// the processor is not called, and the post-filters are executed from the level of the filter
+		HTTPResponse response = getStopped();
+		Assert.assertEquals(403, response.getStatusCode());
+		Assert.assertEquals("pre1,pre2,pre3,post3,post2,post1", response.getMIME().getFirstHeaderRawValue("X-Filters"));
+	}
+	
+	@Test(timeout=30000)
+	public void testRestartFromNestedFilter() throws Exception {
+		Pair<HTTPResponse, String> p = get("/pipeline/nested/restart/again");
+		Assert.assertEquals("again", p.getValue2());
+		Assert.assertEquals("true", p.getValue1().getMIME().getFirstHeaderRawValue("X-Restarted"));
+		// the processing restarts from the root
+		Assert.assertEquals("pre1,pre2,pre1,pre2,pre4,post2,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+	}
+	
+	@Test(timeout=30000)
+	public void testSubClassNotFlattened() throws Exception {
+		Pair<HTTPResponse, String> p = get("/pipeline/sub/anything");
+		Assert.assertEquals("sub", p.getValue2());
+		// the sub-class processes the request itself
+		Assert.assertEquals("true", p.getValue1().getMIME().getFirstHeaderRawValue("X-Sub-Bundle"));
+		Assert.assertEquals("pre1,sub-pre,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+	}
+	
+	@Test(timeout=30000)
+	public void testMaxInlineFilters() throws Exception {
+		// the filters are executed by the bundle routed by the server, the nested bundles are compiled in it
+		WebResourcesBundle bundle = getRoutedBundle();
+		try {
+			// the filters continue in new tasks when the maximum is reached, in the same order
+			for (int max = 0; max <= 2; ++max) {
+				bundle.setMaxInlineFilters(max);
+				Pair<HTTPResponse, String> p = get("/pipeline/nested/deep");
+				Assert.assertEquals("deep", p.getValue2());
+				Assert.assertEquals("pre1,pre2,post2,post1", p.getValue1().getMIME().getFirstHeaderRawValue("X-Filters"));
+				HTTPResponse response = getStopped();
+				Assert.assertEquals(403, response.getStatusCode());
+				Assert.assertEquals("pre1,pre2,pre3,post3,post2,post1", response.getMIME().getFirstHeaderRawValue("X-Filters"));
+			}
+		} finally {
+			bundle.setMaxInlineFilters(WebResourcesBundle.DEFAULT_MAX_INLINE_FILTERS);
+		}
+	}
+	
+	private static Pair<HTTPResponse, String> get(String path) throws Exception {
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + path, 0).blockResult(0);
+		String content = IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8);
+		p.getValue2().close();
+		return new Pair<>(p.getValue1(), content);
+	}
+	
+	private static HTTPResponse getStopped() throws Exception {
+		Pair<HTTPClient, HTTPResponse> p = HTTPClientUtil.sendAndReceiveHeaders(
+			Method.GET, BASE_HTTP_URL + "/pipeline/nested/stop/stopped", (IO.Readable)null).blockResult(0);
+		p.getValue1().close();
+		return p.getValue2();
+	}
+	
+}
@@ -0,0 +1,32 @@
+package net.lecousin.framework.web.test.server;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.web.test.TestSlowProcessor;
+
+public class TestCancelOnDisconnect extends AbstractTest {
+
+	@Test(timeout=30000)
+	public void testCancelSlowProcessor() throws Exception {
+		int before = TestSlowProcessor.getCancelled();
+		try (Socket socket = new Socket(HOST, HTTP_PORT)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET " + CONTEXT_ROOT + "/slow HTTP/1.1\r\nHost: " + HOST + ":" + HTTP_PORT + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			// close the connection while the processor is still working
+			Thread.sleep(300);
+		}
+		// the processor answers after 1 second, a cancellation can only come from the disconnection
+		long start = System.currentTimeMillis();
+		while (TestSlowProcessor.getCancelled() == before && System.currentTimeMillis() - start < 5000)
+			Thread.sleep(50);
+		Assert.assertEquals(before + 1, TestSlowProcessor.getCancelled());
+	}
+	
+}
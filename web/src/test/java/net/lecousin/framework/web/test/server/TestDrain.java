@@ -0,0 +1,61 @@
+package net.lecousin.framework.web.test.server;
+
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.exception.NoException;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestDrain extends AbstractTest {
+
+	private static void waitInFlight(WebServer server, int expected) throws InterruptedException {
+		for (int i = 0; i < 100 && server.getInFlightRequests() != expected; ++i)
+			Thread.sleep(50);
+		Assert.assertEquals(expected, server.getInFlightRequests());
+	}
+	
+	@Test(timeout=60000)
+	public void testDrain() throws Exception {
+		WebServer server = getServer();
+		// a request whose client disconnects is not counted anymore, even if its response is never sent
+		try (Socket socket = new Socket(HOST, HTTP_PORT)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET " + CONTEXT_ROOT + "/slow HTTP/1.1\r\nHost: " + HOST + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			waitInFlight(server, 1);
+		}
+		waitInFlight(server, 0);
+		
+		// a request in progress is waited for
+		AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> request = HTTPClientUtil.GETfully(BASE_HTTP_URL + "/slow", 0);
+		waitInFlight(server, 1);
+		ISynchronizationPoint<NoException> drain = server.drain(30000);
+		Assert.assertTrue(server.isDraining());
+		Assert.assertFalse(drain.isUnblocked());
+		// new connections are refused
+		try (Socket socket = new Socket(HOST, HTTP_PORT)) {
+			throw new AssertionError("Connection accepted while draining");
+		} catch (ConnectException e) {
+			// ok
+		}
+		Pair<HTTPResponse, IO.Readable.Seekable> p = request.blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		p.getValue2().close();
+		drain.block(10000);
+		Assert.assertTrue(drain.isUnblocked());
+		Assert.assertEquals(0, server.getInFlightRequests());
+	}
+	
+}
@@ -0,0 +1,45 @@
+package net.lecousin.framework.web.test.server;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestPriority extends AbstractTest {
+
+	private static String get(String path) throws Exception {
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + path, 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		return IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8);
+	}
+	
+	@Test(timeout=120000)
+	public void testPriority() throws Exception {
+		Assert.assertEquals(Byte.toString(Task.PRIORITY_IMPORTANT), get("/filters/priority/bundle"));
+		Assert.assertEquals("5", get("/filters/priority/processor"));
+	}
+	
+	@Test
+	public void testParsePriority() throws Exception {
+		Assert.assertEquals(Task.PRIORITY_URGENT, WebResourcesBundle.parsePriority("urgent"));
+		Assert.assertEquals(Task.PRIORITY_BACKGROUND, WebResourcesBundle.parsePriority(" Background "));
+		Assert.assertEquals(2, WebResourcesBundle.parsePriority("2"));
+		for (String invalid : new String[] { "very high", "-1", Integer.toString(Task.PRIORITY_BACKGROUND + 1) })
+			try {
+				WebResourcesBundle.parsePriority(invalid);
+				throw new AssertionError("Exception expected for " + invalid);
+			} catch (Exception e) {
+				// ok
+			}
+	}
+	
+}
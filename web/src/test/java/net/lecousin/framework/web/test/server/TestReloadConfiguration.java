@@ -0,0 +1,73 @@
+package net.lecousin.framework.web.test.server;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebRequestRouter;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestReloadConfiguration extends AbstractTest {
+
+	private static WebServerConfig loadConfig() throws Exception {
+		return XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+	}
+	
+	private static void checkGet(String url) throws Exception {
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(url, 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		p.getValue2().close();
+	}
+	
+	@Test(timeout=60000)
+	public void testReload() throws Exception {
+		WebServer server = getServer();
+		List<InetSocketAddress> addresses = server.getLocalAddresses();
+		WebRequestRouter router = server.getRouter();
+		checkGet(BASE_HTTP_URL + "/filters/prepost/test1?pre-filter-1=hello");
+		
+		// same configuration: listeners are kept, routing is replaced
+		server.setConfiguration(loadConfig());
+		Assert.assertEquals(addresses, server.getLocalAddresses());
+		Assert.assertNotSame(router, server.getRouter());
+		// the previous router is retired, and no request is in progress on it
+		Assert.assertFalse(router.enter());
+		Assert.assertEquals(0, router.getInFlightRequests());
+		Assert.assertTrue(router.retire().isUnblocked());
+		checkGet(BASE_HTTP_URL + "/filters/prepost/test1?pre-filter-1=hello");
+		checkGet(BASE_HTTPS_URL + "/filters/prepost/test1?pre-filter-1=hello");
+		
+		// add a listener
+		WebServerConfig config = loadConfig();
+		config.listening.bind.add(new WebServerConfig.ListeningPort(new byte[] { 127, 0, 0, 1 }, HTTP_PORT + 1));
+		server.setConfiguration(config);
+		Assert.assertEquals(addresses.size() + 1, server.getLocalAddresses().size());
+		Assert.assertTrue(server.getLocalAddresses().containsAll(addresses));
+		checkGet("http://" + HOST + ":" + (HTTP_PORT + 1) + CONTEXT_ROOT + "/filters/prepost/test1?pre-filter-1=hello");
+		checkGet(BASE_HTTP_URL + "/filters/prepost/test1?pre-filter-1=hello");
+		
+		// back to the initial configuration: the additional listener is closed
+		server.setConfiguration(loadConfig());
+		Assert.assertEquals(addresses, server.getLocalAddresses());
+		boolean closed;
+		try {
+			HTTPClientUtil.GETfully("http://" + HOST + ":" + (HTTP_PORT + 1) + CONTEXT_ROOT + "/", 0).blockResult(0);
+			closed = false;
+		} catch (Exception e) {
+			closed = true;
+		}
+		Assert.assertTrue("Listener on port " + (HTTP_PORT + 1) + " must be closed", closed);
+		checkGet(BASE_HTTP_URL + "/filters/prepost/test1?pre-filter-1=hello");
+	}
+	
+}
@@ -0,0 +1,193 @@
+package net.lecousin.framework.web.test.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPRequest.Method;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClient;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebRequestProcessor;
+import net.lecousin.framework.web.WebRequestRouter;
+import net.lecousin.framework.web.WebResourcesBundle;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.services.soap.SOAPClient;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.web.test.TestNameProcessor;
+import net.lecousin.framework.web.test.services.soap.TestSoapService;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestRouteCache extends AbstractTest {
+
+	private static WebRequestRouter configure(int cacheSize) throws Exception {
+		WebServer server = getServer();
+		WebServerConfig config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		config.routing.cacheSize = cacheSize;
+		server.setConfiguration(config);
+		Assert.assertEquals(cacheSize, server.getRouter().getCacheSize());
+		return server.getRouter();
+	}
+	
+	private static void restore() throws Exception {
+		getServer().setConfiguration(
+			XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0));
+	}
+	
+	private static String get(String path) throws Exception {
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTP_URL + path, 0).blockResult(0);
+		Assert.assertEquals(200, p.getValue1().getStatusCode());
+		String content = IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8);
+		p.getValue2().close();
+		return content;
+	}
+	
+	private static int getStatus(String path) throws Exception {
+		Pair<HTTPClient, HTTPResponse> p = HTTPClientUtil.sendAndReceiveHeaders(Method.GET, BASE_HTTP_URL + path, (IO.Readable)null).blockResult(0);
+		p.getValue1().close();
+		return p.getValue2().getStatusCode();
+	}
+	
+	@Test(timeout=60000)
+	public void testCacheHits() throws Exception {
+		WebRequestRouter router = configure(100);
+		try {
+			long hits = router.getCacheHits();
+			long misses = router.getCacheMisses();
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals(hits, router.getCacheHits());
+			Assert.assertEquals(misses + 1, router.getCacheMisses());
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals(hits + 2, router.getCacheHits());
+			Assert.assertEquals(misses + 1, router.getCacheMisses());
+			// requests without processor are not remembered
+			Assert.assertEquals(404, getStatus("/unknown"));
+			Assert.assertEquals(404, getStatus("/unknown"));
+			Assert.assertEquals(hits + 2, router.getCacheHits());
+			Assert.assertEquals(misses + 3, router.getCacheMisses());
+		} finally {
+			restore();
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void testNotCacheable() throws Exception {
+		WebRequestRouter router = configure(100);
+		File file = new File(System.getProperty("java.io.tmpdir"), "test_route_cache_" + System.nanoTime() + ".txt");
+		try {
+			long hits = router.getCacheHits();
+			// static resources from the file system may appear or disappear at any time
+			Assert.assertEquals(404, getStatus("/static/fs/" + file.getName()));
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				out.write("route cache".getBytes(StandardCharsets.UTF_8));
+			}
+			Assert.assertEquals("route cache", get("/static/fs/" + file.getName()));
+			Assert.assertEquals("route cache", get("/static/fs/" + file.getName()));
+			file.delete();
+			Assert.assertEquals(404, getStatus("/static/fs/" + file.getName()));
+			Assert.assertEquals(hits, router.getCacheHits());
+			
+			// SOAP operations are selected by the SOAPAction header, not by the path
+			for (int i = 0; i < 2; ++i) {
+				TestSoapService.TestRequest req = new TestSoapService.TestRequest();
+				req.name = "World";
+				TestSoapService.TestResult response = SOAPClient.send(BASE_HTTP_URL + "/services/testSoap", "helloWorld", req, "http://testRequest",
+					TestSoapService.TestResult.class, "http://testResponse", new ArrayList<>(0)).blockResult(0);
+				Assert.assertEquals("Hello World", response.hello);
+			}
+			Assert.assertEquals(hits, router.getCacheHits());
+		} finally {
+			file.delete();
+			restore();
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void testInvalidationOnConfiguration() throws Exception {
+		WebRequestRouter router = configure(100);
+		try {
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			long hits = router.getCacheHits();
+			long misses = router.getCacheMisses();
+			TestNameProcessor processor = new TestNameProcessor();
+			processor.name = "other";
+			WebRequestRouter.Configuration config = new WebRequestRouter.Configuration();
+			config.hostnames = new ArrayList<>(Collections.singletonList("other.test"));
+			config.processorByPath = new ArrayList<>();
+			config.processorByPath.add(new Pair<>("", processor));
+			router.addConfiguration(config);
+			// the routing decisions are forgotten
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals(hits, router.getCacheHits());
+			Assert.assertEquals(misses + 1, router.getCacheMisses());
+			Assert.assertEquals("deep", get("/pipeline/nested/deep"));
+			Assert.assertEquals(hits + 1, router.getCacheHits());
+		} finally {
+			restore();
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void testInvalidationOnBundleChange() throws Exception {
+		WebRequestRouter router = configure(100);
+		try {
+			Assert.assertEquals("nested-default", get("/pipeline/nested/changed"));
+			Assert.assertEquals("nested-default", get("/pipeline/nested/changed"));
+			long hits = router.getCacheHits();
+			long misses = router.getCacheMisses();
+			// a new processor with a longer path takes precedence
+			WebResourcesBundle bundle = getRoutedBundle();
+			TestNameProcessor processor = new TestNameProcessor();
+			processor.name = "changed";
+			bundle.addProcessor("pipeline/nested/changed", processor);
+			Assert.assertEquals("changed", get("/pipeline/nested/changed"));
+			Assert.assertEquals(hits, router.getCacheHits());
+			Assert.assertEquals(misses + 1, router.getCacheMisses());
+			Assert.assertEquals("changed", get("/pipeline/nested/changed"));
+			Assert.assertEquals(hits + 1, router.getCacheHits());
+			// remove it from the list directly
+			List<Pair<String, WebRequestProcessor>> processors = bundle.getProcessors();
+			synchronized (processors) {
+				processors.removeIf(p -> p.getValue2() == processor);
+			}
+			bundle.processorsChanged();
+			Assert.assertEquals("nested-default", get("/pipeline/nested/changed"));
+			Assert.assertEquals(hits + 1, router.getCacheHits());
+		} finally {
+			restore();
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void testEviction() throws Exception {
+		int cacheSize = 4;
+		WebRequestRouter router = configure(cacheSize);
+		try {
+			for (int i = 0; i < 10; ++i)
+				Assert.assertEquals("deep", get("/pipeline/nested/deep/" + i));
+			long hits = router.getCacheHits();
+			long misses = router.getCacheMisses();
+			for (int i = 0; i < 10; ++i)
+				Assert.assertEquals("deep", get("/pipeline/nested/deep/" + i));
+			// at most cacheSize routes are remembered
+			Assert.assertTrue(router.getCacheHits() - hits <= cacheSize);
+			Assert.assertTrue(router.getCacheMisses() - misses >= 10 - cacheSize);
+		} finally {
+			restore();
+		}
+	}
+	
+}
@@ -0,0 +1,106 @@
+package net.lecousin.framework.web.test.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestRouting extends AbstractTest {
+
+	private static WebServerConfig loadConfig(String resource) throws Exception {
+		return XMLDeserializer.deserializeResource(resource, WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+	}
+	
+	/** Send a request with the given Host header, and return the status code and the body of the response. */
+	static Pair<Integer, String> get(String host, String path) throws Exception {
+		try (Socket socket = new Socket(HOST, HTTP_PORT)) {
+			socket.setSoTimeout(10000);
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int headersEnd = -1;
+			int length = -1;
+			do {
+				int nb = in.read(buf);
+				if (nb <= 0) break;
+				received.write(buf, 0, nb);
+				String s = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+				if (headersEnd < 0) {
+					headersEnd = s.indexOf("\r\n\r\n");
+					if (headersEnd < 0) continue;
+					headersEnd += 4;
+					length = 0;
+					for (String line : s.substring(0, headersEnd).split("\r\n"))
+						if (line.toLowerCase().startsWith("content-length:"))
+							length = Integer.parseInt(line.substring(15).trim());
+				}
+			} while (received.size() < headersEnd + length || headersEnd < 0);
+			String s = new String(received.toByteArray(), StandardCharsets.UTF_8);
+			Assert.assertTrue(s, headersEnd > 0);
+			int status = Integer.parseInt(s.substring(s.indexOf(' ') + 1, s.indexOf(' ') + 4));
+			return new Pair<>(Integer.valueOf(status), s.substring(headersEnd));
+		}
+	}
+	
+	private static void check(String host, String expectedProcessor) throws Exception {
+		Pair<Integer, String> p = get(host, "/hello");
+		Assert.assertEquals("Status for host " + host, 200, p.getValue1().intValue());
+		Assert.assertEquals("Processor for host " + host, expectedProcessor, p.getValue2());
+	}
+	
+	private static void testRouting(boolean indexed) throws Exception {
+		WebServer server = getServer();
+		WebServerConfig config = loadConfig("test-webserver/routing.xml");
+		config.routing.indexed = indexed;
+		server.setConfiguration(config);
+		try {
+			Assert.assertEquals(indexed, server.getRouter().isIndexed());
+			// exact hostname, case insensitive and without the port
+			check("www.example.test", "exact");
+			check("WWW.Example.Test:1080", "exact");
+			// a wildcard matches the sub-domains, but not the domain itself
+			check("api.example.test", "wildcard");
+			check("a.b.example.test", "wildcard");
+			check("example.test", "any");
+			// the configurations are checked in order: a wildcard declared first takes precedence over an exact hostname
+			check("www.first.test", "first-wildcard");
+			// the longest suffix is found when the hostname has several levels
+			check("a.b.sub.other.test", "sub-other");
+			check("sub.other.test", "any");
+			check("other.test", "any");
+			// a configuration bound to another IP address is never selected
+			check("bound.test", "bound");
+			// IPv6 literal, with and without port
+			check("[::1]:1080", "ipv6");
+			check("[::1]", "ipv6");
+			check("unknown.test", "any");
+		} finally {
+			server.setConfiguration(loadConfig("test-webserver/server.xml"));
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void testIndexedRouting() throws Exception {
+		testRouting(true);
+	}
+	
+	@Test(timeout=60000)
+	public void testRoutingWithoutIndex() throws Exception {
+		testRouting(false);
+	}
+	
+}
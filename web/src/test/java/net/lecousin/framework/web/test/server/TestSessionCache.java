@@ -0,0 +1,54 @@
+package net.lecousin.framework.web.test.server;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.network.mime.MimeHeader;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.SessionNearCache;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestSessionCache extends AbstractTest {
+
+	@Test(timeout=60000)
+	public void testSessionCache() throws Exception {
+		WebServer server = getServer();
+		WebServerConfig config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		config.sessionCache.maxSize = 10;
+		config.sessionCache.writeBehind = 100;
+		server.setConfiguration(config);
+		SessionNearCache cache = server.getSessionCache();
+		Assert.assertNotNull(cache);
+		
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1?user=guillaume", 0).blockResult(0);
+		p.getValue2().close();
+		String sessionId = p.getValue1().getCookie("lc-session");
+		Assert.assertNotNull(sessionId);
+		Assert.assertEquals(1, cache.size());
+		
+		for (int i = 0; i < 3; ++i) {
+			p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+			Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		}
+		Assert.assertEquals(3, cache.getHits());
+		Assert.assertEquals(0, cache.getMisses());
+		
+		// disable the cache: sessions written behind are in the storage
+		config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		server.setConfiguration(config);
+		Assert.assertNull(server.getSessionCache());
+		p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+		Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+	}
+	
+}
@@ -0,0 +1,68 @@
+package net.lecousin.framework.web.test.server;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.network.mime.MimeHeader;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.web.test.session.CountingSessionStorage;
+
+public class TestSessionSave extends AbstractTest {
+
+	@Test(timeout=60000)
+	public void testNoSaveForReadOnlyRequest() throws Exception {
+		CountingSessionStorage storage = getSessionStorage();
+		// login: the authentication is stored in the session
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1?user=guillaume", 0).blockResult(0);
+		p.getValue2().close();
+		String sessionId = p.getValue1().getCookie("lc-session");
+		Assert.assertNotNull(sessionId);
+		// the session is saved once the response is sent
+		Thread.sleep(500);
+		Assert.assertTrue(storage.getSaves() > 0);
+		int saves = storage.getSaves();
+		int loads = storage.getLoads();
+		
+		// read-only requests: the session is loaded but not modified
+		for (int i = 0; i < 3; ++i) {
+			p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/sessionread/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+			Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		}
+		Thread.sleep(500);
+		Assert.assertEquals(loads + 3, storage.getLoads());
+		Assert.assertEquals(saves, storage.getSaves());
+	}
+	
+	@Test(timeout=60000)
+	public void testNoCookieRefreshWithoutExpiration() throws Exception {
+		CountingSessionStorage storage = getSessionStorage();
+		storage.setExpiration(0);
+		try {
+			Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1?user=guillaume", 0).blockResult(0);
+			p.getValue2().close();
+			String sessionId = p.getValue1().getCookie("lc-session");
+			Assert.assertNotNull(sessionId);
+			Thread.sleep(500);
+			int saves = storage.getSaves();
+			
+			// the sessions do not expire: the cookie is not sent again, and the session is not saved
+			for (int i = 0; i < 3; ++i) {
+				p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/sessionread/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+				Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+				Assert.assertNull(p.getValue1().getCookie("lc-session"));
+			}
+			Thread.sleep(500);
+			Assert.assertEquals(saves, storage.getSaves());
+		} finally {
+			storage.setExpiration(-1);
+		}
+	}
+	
+}
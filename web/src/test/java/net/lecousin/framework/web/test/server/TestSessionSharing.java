@@ -0,0 +1,88 @@
+package net.lecousin.framework.web.test.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.concurrent.Task;
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.io.IO;
+import net.lecousin.framework.io.IOUtil;
+import net.lecousin.framework.network.http.HTTPResponse;
+import net.lecousin.framework.network.http.client.HTTPClientUtil;
+import net.lecousin.framework.network.http.exception.HTTPResponseError;
+import net.lecousin.framework.network.mime.MimeHeader;
+import net.lecousin.framework.util.Pair;
+import net.lecousin.framework.web.WebServer;
+import net.lecousin.framework.web.WebServerConfig;
+import net.lecousin.framework.web.test.AbstractTest;
+import net.lecousin.framework.web.test.session.CountingSessionStorage;
+import net.lecousin.framework.xml.serialization.XMLDeserializer;
+
+public class TestSessionSharing extends AbstractTest {
+
+	@Test(timeout=60000)
+	public void testConcurrentRequests() throws Exception {
+		WebServer server = getServer();
+		WebServerConfig config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		config.sessionSharing = true;
+		config.sessionCache.maxSize = 10;
+		config.sessionPrefetch = true;
+		server.setConfiguration(config);
+		
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1?user=guillaume", 0).blockResult(0);
+		p.getValue2().close();
+		String sessionId = p.getValue1().getCookie("lc-session");
+		Assert.assertNotNull(sessionId);
+		
+		List<AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?>> requests = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			requests.add(HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)));
+		for (AsyncWork<Pair<HTTPResponse, IO.Readable.Seekable>, ?> request : requests) {
+			p = request.blockResult(0);
+			Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		}
+		
+		// the session is still valid after all requests released it
+		p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+		Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		
+		server.setConfiguration(XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0));
+	}
+	
+	@Test(timeout=60000)
+	public void testPrefetch() throws Exception {
+		WebServer server = getServer();
+		CountingSessionStorage storage = getSessionStorage();
+		WebServerConfig config = XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0);
+		config.sessionPrefetch = true;
+		server.setConfiguration(config);
+		
+		Pair<HTTPResponse, IO.Readable.Seekable> p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1?user=guillaume", 0).blockResult(0);
+		p.getValue2().close();
+		String sessionId = p.getValue1().getCookie("lc-session");
+		Assert.assertNotNull(sessionId);
+		
+		// no processor uses the session for this path: the loading can only come from the prefetch, before routing
+		int loads = storage.getLoads();
+		try {
+			HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/does/not/exist", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+			throw new AssertionError("Error expected for an unknown path");
+		} catch (HTTPResponseError e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		}
+		Assert.assertEquals(loads + 1, storage.getLoads());
+		
+		// the filters using the session get the prefetched one: the session is loaded only once
+		loads = storage.getLoads();
+		p = HTTPClientUtil.GETfully(BASE_HTTPS_URL + "/filters/security/session/test1", 0, new MimeHeader("Cookie", "lc-session=" + sessionId)).blockResult(0);
+		Assert.assertEquals("This is test 1", IOUtil.readFullyAsStringSync(p.getValue2(), StandardCharsets.UTF_8));
+		Assert.assertEquals(loads + 1, storage.getLoads());
+		
+		server.setConfiguration(XMLDeserializer.deserializeResource("test-webserver/server.xml", WebServerConfig.class, Task.PRIORITY_NORMAL).blockResult(0));
+	}
+	
+}
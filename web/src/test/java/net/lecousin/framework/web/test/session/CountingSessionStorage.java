@@ -0,0 +1,74 @@
+package net.lecousin.framework.web.test.session;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.lecousin.framework.concurrent.synch.AsyncWork;
+import net.lecousin.framework.concurrent.synch.ISynchronizationPoint;
+import net.lecousin.framework.exception.NoException;
+import net.lecousin.framework.network.session.ISession;
+import net.lecousin.framework.network.session.SessionStorage;
+
+/** Session storage counting the loads and saves of the storage it wraps. */
+public class CountingSessionStorage implements SessionStorage {
+
+	public CountingSessionStorage(SessionStorage storage) {
+		this.storage = storage;
+	}
+	
+	private SessionStorage storage;
+	private AtomicInteger loads = new AtomicInteger(0);
+	private AtomicInteger saves = new AtomicInteger(0);
+	private long expiration = -1;
+	
+	public int getLoads() {
+		return loads.get();
+	}
+	
+	public int getSaves() {
+		return saves.get();
+	}
+	
+	/** Override the expiration of the wrapped storage, or restore it with a negative value. */
+	public void setExpiration(long expiration) {
+		this.expiration = expiration;
+	}
+	
+	@Override
+	public long getExpiration() {
+		return expiration >= 0 ? expiration : storage.getExpiration();
+	}
+	
+	@Override
+	public String allocateId() {
+		return storage.allocateId();
+	}
+	
+	@Override
+	public void freeId(String id) {
+		storage.freeId(id);
+	}
+	
+	@Override
+	public AsyncWork<Boolean, NoException> load(String id, ISession session) {
+		loads.incrementAndGet();
+		return storage.load(id, session);
+	}
+	
+	@Override
+	public void remove(String id) {
+		storage.remove(id);
+	}
+	
+	@Override
+	public ISynchronizationPoint<NoException> save(String id, ISession session) {
+		saves.incrementAndGet();
+		return storage.save(id, session);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+	
+}
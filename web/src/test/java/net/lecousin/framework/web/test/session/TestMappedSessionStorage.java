@@ -0,0 +1,88 @@
+package net.lecousin.framework.web.test.session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.web.session.MappedSessionStorage;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestMappedSessionStorage extends AbstractTest {
+
+	@Test(timeout=60000)
+	public void testPersistence() throws Exception {
+		File file = File.createTempFile("test", "sessions");
+		file.deleteOnExit();
+		MappedSessionStorage storage = new MappedSessionStorage(file, 60000, 0);
+		String id1 = storage.allocateId();
+		String id2 = storage.allocateId();
+		TestSessionData session = new TestSessionData();
+		session.putData("string", "hello");
+		session.putData("int", Integer.valueOf(51));
+		session.putData("bytes", new byte[] { 1, 2, 3 });
+		session.putData("object", new java.util.ArrayList<>(java.util.Arrays.asList("a", "b")));
+		storage.save(id1, session).block(0);
+		session.putData("string", "world");
+		storage.save(id1, session).block(0);
+		storage.save(id2, new TestSessionData()).block(0);
+		storage.remove(id2);
+		storage.close();
+		
+		// simulate an interrupted write after the last record
+		long end;
+		storage = new MappedSessionStorage(file, 60000, 0);
+		end = storage.getFileUsage();
+		storage.close();
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.seek(end);
+			f.writeInt(1000);
+			f.writeInt(12345);
+		}
+		
+		storage = new MappedSessionStorage(file, 60000, 0);
+		Assert.assertEquals(1, storage.size());
+		Assert.assertEquals(end, storage.getFileUsage());
+		TestSessionData loaded = new TestSessionData();
+		Assert.assertTrue(storage.load(id1, loaded).blockResult(0).booleanValue());
+		Assert.assertEquals("world", loaded.getData("string"));
+		Assert.assertEquals(Integer.valueOf(51), loaded.getData("int"));
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])loaded.getData("bytes"));
+		Assert.assertEquals(java.util.Arrays.asList("a", "b"), loaded.getData("object"));
+		Assert.assertFalse(storage.load(id2, new TestSessionData()).blockResult(0).booleanValue());
+		
+		// new records are appended after the valid ones
+		String id3 = storage.allocateId();
+		storage.save(id3, session).block(0);
+		storage.close();
+		storage = new MappedSessionStorage(file, 60000, 0);
+		Assert.assertEquals(2, storage.size());
+		Assert.assertTrue(storage.load(id3, new TestSessionData()).blockResult(0).booleanValue());
+		storage.close();
+	}
+	
+	@Test(timeout=60000)
+	public void testUsagePersisted() throws Exception {
+		File file = File.createTempFile("test", "sessions");
+		file.deleteOnExit();
+		MappedSessionStorage storage = new MappedSessionStorage(file, 1500, 0);
+		String id = storage.allocateId();
+		TestSessionData session = new TestSessionData();
+		session.putData("string", "hello");
+		storage.save(id, session).block(0);
+		// the session is only read, its usage time is written when closing
+		Thread.sleep(1000);
+		Assert.assertTrue(storage.load(id, new TestSessionData()).blockResult(0).booleanValue());
+		storage.close();
+		
+		// expired since the save, but not since the last usage
+		Thread.sleep(1000);
+		storage = new MappedSessionStorage(file, 1500, 0);
+		TestSessionData loaded = new TestSessionData();
+		Assert.assertTrue(storage.load(id, loaded).blockResult(0).booleanValue());
+		Assert.assertEquals("hello", loaded.getData("string"));
+		storage.close();
+	}
+	
+}
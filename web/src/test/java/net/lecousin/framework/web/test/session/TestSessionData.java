@@ -0,0 +1,33 @@
+package net.lecousin.framework.web.test.session;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Set;
+
+import net.lecousin.framework.network.session.ISession;
+
+public class TestSessionData implements ISession {
+
+	private HashMap<String, Serializable> data = new HashMap<>();
+	
+	@Override
+	public Serializable getData(String key) {
+		return data.get(key);
+	}
+	
+	@Override
+	public void putData(String key, Serializable value) {
+		data.put(key, value);
+	}
+	
+	@Override
+	public void removeData(String key) {
+		data.remove(key);
+	}
+	
+	@Override
+	public Set<String> getKeys() {
+		return data.keySet();
+	}
+	
+}
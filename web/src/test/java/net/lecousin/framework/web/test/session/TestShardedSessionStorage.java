@@ -0,0 +1,75 @@
+package net.lecousin.framework.web.test.session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.lecousin.framework.web.session.ShardedSessionStorage;
+import net.lecousin.framework.web.test.AbstractTest;
+
+public class TestShardedSessionStorage extends AbstractTest {
+
+	@Test(timeout=30000)
+	public void testStoreAndLoad() throws Exception {
+		ShardedSessionStorage storage = new ShardedSessionStorage(60000);
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < 1000; ++i)
+			Assert.assertTrue(ids.add(storage.allocateId()));
+		Assert.assertEquals(1000, storage.size());
+		
+		String id = storage.allocateId();
+		TestSessionData session = new TestSessionData();
+		session.putData("hello", "world");
+		session.putData("number", Integer.valueOf(51));
+		storage.save(id, session).block(0);
+		
+		TestSessionData loaded = new TestSessionData();
+		Assert.assertTrue(storage.load(id, loaded).blockResult(0).booleanValue());
+		Assert.assertEquals("world", loaded.getData("hello"));
+		Assert.assertEquals(Integer.valueOf(51), loaded.getData("number"));
+		
+		storage.remove(id);
+		Assert.assertFalse(storage.load(id, new TestSessionData()).blockResult(0).booleanValue());
+		Assert.assertFalse(storage.load("unknown", new TestSessionData()).blockResult(0).booleanValue());
+		storage.close();
+	}
+	
+	@Test(timeout=30000)
+	public void testExpiration() throws Exception {
+		ShardedSessionStorage storage = new ShardedSessionStorage(1000, 4, 100);
+		String expired = storage.allocateId();
+		String used = storage.allocateId();
+		storage.save(expired, new TestSessionData()).block(0);
+		for (int i = 0; i < 6; ++i) {
+			Thread.sleep(300);
+			Assert.assertTrue(storage.load(used, new TestSessionData()).blockResult(0).booleanValue());
+		}
+		Assert.assertFalse(storage.load(expired, new TestSessionData()).blockResult(0).booleanValue());
+		Thread.sleep(300);
+		// removed by the timing wheel
+		Assert.assertEquals(1, storage.size());
+		storage.close();
+	}
+	
+	@Test(timeout=30000)
+	public void testExpirationAfterOneTurn() throws Exception {
+		// 750 ticks: the sessions are put in the second level of the timing wheel
+		ShardedSessionStorage storage = new ShardedSessionStorage(1500, 4, 2);
+		String expired = storage.allocateId();
+		String used = storage.allocateId();
+		storage.save(expired, new TestSessionData()).block(0);
+		Thread.sleep(1000);
+		Assert.assertEquals(2, storage.size());
+		for (int i = 0; i < 6; ++i) {
+			Thread.sleep(300);
+			Assert.assertTrue(storage.load(used, new TestSessionData()).blockResult(0).booleanValue());
+		}
+		Assert.assertFalse(storage.load(expired, new TestSessionData()).blockResult(0).booleanValue());
+		Thread.sleep(300);
+		Assert.assertEquals(1, storage.size());
+		storage.close();
+	}
+	
+}